@@ -0,0 +1,55 @@
+package com.investtrack.model;
+
+/**
+ * Read-only view of the current holdings value per {@link AssetType}.
+ * The values live in a {@code long[]} of {@link Money} micros indexed by {@link AssetType#ordinal()} that the owning
+ * {@link Portfolio} keeps current on every price, quantity or type change, so reading them
+ * neither iterates the holdings nor allocates.
+ */
+public final class AssetTypeValues {
+    private final long[] values;
+
+    AssetTypeValues(long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @param type The asset type
+     * @return The current value of all holdings of that type
+     */
+    public double get(AssetType type) {
+        return Money.toDouble(values[type.ordinal()]);
+    }
+
+    /**
+     * @param ordinal An {@link AssetType#ordinal()}
+     * @return The current value of all holdings of that type
+     */
+    public double get(int ordinal) {
+        return Money.toDouble(values[ordinal]);
+    }
+
+    /**
+     * @param type The asset type
+     * @return The current value of all holdings of that type in {@link Money} micros
+     */
+    public long getMicros(AssetType type) {
+        return values[type.ordinal()];
+    }
+
+    /** @return The number of entries, equal to the number of asset types. */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Copies the values into the given array, indexed by {@link AssetType#ordinal()}.
+     *
+     * @param dest An array with at least {@link #size()} elements
+     */
+    public void copyTo(double[] dest) {
+        for (int i = 0; i < values.length; i++) {
+            dest[i] = Money.toDouble(values[i]);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.investtrack.model;
+
+/**
+ * Heap sizes of objects and arrays on a HotSpot JVM, from which the model estimates its memory use
+ * (see {@link Portfolio#estimateMemoryBytes()}) out of the actual structure: array capacities, chunk
+ * counts and object counts. Only the reference size depends on the JVM; it is derived at startup from
+ * the maximum heap, as references are compressed below 32 GB by default.
+ */
+final class HeapLayout {
+    /** Bytes of a reference field or array element. */
+    static final int REFERENCE = Runtime.getRuntime().maxMemory() < (32L << 30) ? 4 : 8;
+    /** Bytes of an object header (mark word and compressed class pointer). */
+    private static final int OBJECT_HEADER = 12;
+    /** Bytes of an array header: an object header and the length. */
+    private static final int ARRAY_HEADER = 16;
+    /** Objects start at multiples of this many bytes. */
+    private static final int ALIGNMENT = 8;
+    /** A {@code HashMap} entry: hash, key, value and next. */
+    static final long MAP_ENTRY = object(4 + 3 * REFERENCE);
+
+    private HeapLayout() {
+    }
+
+    /**
+     * @param fieldBytes The bytes of the object's fields, e.g. {@code 3 * Double.BYTES + 2 * REFERENCE}
+     * @return The bytes of the object, including header and padding
+     */
+    static long object(long fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * @param length The array length (its capacity, not the number of elements in use)
+     * @param elementBytes The bytes per element, e.g. {@link Double#BYTES} or {@link #REFERENCE}
+     * @return The bytes of the array, including header and padding
+     */
+    static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * @param string A string; may be {@code null}
+     * @return The bytes of the string and its (Latin-1) characters, 0 for {@code null}
+     */
+    static long string(String string) {
+        return string == null ? 0 : object(Integer.BYTES + 2 + REFERENCE) + array(string.length(), Byte.BYTES);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
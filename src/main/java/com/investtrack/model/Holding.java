@@ -2,7 +2,7 @@ package com.investtrack.model;
 
 import java.util.UUID;
 import java.util.Objects;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 import java.time.LocalDateTime;
 
@@ -26,16 +26,38 @@ public class Holding {
     private double purchasePricePerUnit;
     /** The type of asset, categorized using the {@link AssetType} enum. */
     private AssetType assetType;
-    /** History of price changes for this holding */
-    private final List<PricePoint> priceHistory;
+    /** History of price changes for this holding, stored in primitive columns */
+    private final PriceSeries priceHistory;
+    /** The purchase lots making up {@link #quantity}; {@code null} until first needed for holdings saved without lots. */
+    private TaxLots lots;
+    /** The {@link InstrumentRegistry} ID of {@link #symbol}, resolved lazily; -1 if not yet resolved. */
+    private transient int instrumentId = -1;
+    /** The portfolio this holding currently belongs to; not persisted. */
+    private transient Portfolio portfolio;
+    /** Index of this holding in its portfolio's list and state vector; maintained by {@link Portfolio}. */
+    transient int stateIndex = -1;
+    /** Market value in micros last added to the portfolio's running totals; maintained by {@link Portfolio}. */
+    transient long bookedValue;
+    /** Cost basis in micros last added to the portfolio's running totals; maintained by {@link Portfolio}. */
+    transient long bookedCost;
+    /** Asset type under which {@link #bookedValue} is counted; maintained by {@link Portfolio}. */
+    transient AssetType bookedType;
 
     /**
      * Default constructor. Initializes a holding with a unique ID.
      * Used primarily by frameworks like Gson for deserialization.
      */
     public Holding() {
-        this.id = UUID.randomUUID().toString();
-        this.priceHistory = new ArrayList<>();
+        this(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Constructs a holding with the given ID and no other state. Also used by {@link PositionView}, which
+     * overrides the other accessors to read and write a row of a columnar portfolio instead.
+     */
+    Holding(String id) {
+        this.id = id;
+        this.priceHistory = new PriceSeries();
     }
 
     /**
@@ -48,24 +70,43 @@ public class Holding {
      * @param assetType The type of the asset.
      */
     public Holding(String symbol, String name, double quantity, double pricePerUnit, AssetType assetType) {
-        this(); // Call default constructor to set ID
+        this(UUID.randomUUID().toString(), symbol, name, quantity, pricePerUnit, assetType);
+    }
+
+    /**
+     * Constructs a Holding with a known ID, e.g. when it is rebuilt from a ledger.
+     *
+     * @param id The unique identifier of the holding.
+     * @param symbol The asset's ticker symbol.
+     * @param name The asset's full name.
+     * @param quantity The quantity held.
+     * @param pricePerUnit The price per unit.
+     * @param assetType The type of the asset.
+     */
+    public Holding(String id, String symbol, String name, double quantity, double pricePerUnit, AssetType assetType) {
+        this(Objects.requireNonNull(id, "id"));
         this.symbol = symbol;
         this.name = name;
         this.quantity = quantity;
         this.pricePerUnit = pricePerUnit;
         this.purchasePricePerUnit = pricePerUnit; // Store original purchase price
         this.assetType = assetType;
+        this.lots = new TaxLots();
+        if (quantity > 0) {
+            lots.buy(quantity, pricePerUnit, MarketClock.getDefault().millis());
+        }
         
         // Add initial price point to history
         addPricePoint(pricePerUnit);
     }
 
     /**
-     * Add a price point to the history
+     * Add a price point to the history, compressed with the {@link PriceCompression} tolerance of the asset type
      * @param price The price to record
      */
     public void addPricePoint(double price) {
-        priceHistory.add(new PricePoint(price));
+        priceHistory.addCompressed(price, MarketClock.getDefault().nanos(),
+                                   PriceCompression.getDefault().toleranceFor(assetType));
     }
 
     // --- Getters ---
@@ -74,6 +115,16 @@ public class Holding {
     public String getId() { return id; }
     /** @return The ticker symbol of the asset. */
     public String getSymbol() { return symbol; }
+    /**
+     * Returns the instrument ID of this holding's symbol, interning the symbol on first use.
+     * @return The {@link InstrumentRegistry} ID, or -1 if the holding has no symbol.
+     */
+    public int getInstrumentId() {
+        if (instrumentId < 0 && symbol != null) {
+            instrumentId = InstrumentRegistry.getInstance().intern(symbol);
+        }
+        return instrumentId;
+    }
     /** @return The full name of the asset. */
     public String getName() { return name; }
     /** @return The quantity of the asset held. */
@@ -84,18 +135,120 @@ public class Holding {
     public double getPurchasePricePerUnit() { return purchasePricePerUnit; }
     /** @return The type of the asset (e.g., STOCK, BOND). */
     public AssetType getAssetType() { return assetType; }
-    /** @return The price history of this asset */
-    public List<PricePoint> getPriceHistory() { return priceHistory; }
+    /**
+     * Returns a read-only view of the price history. Each {@link PricePoint} is
+     * created on access, so prefer {@link #getPriceSeries()} for bulk reads.
+     * @return The price history of this asset
+     */
+    public List<PricePoint> getPriceHistory() { return new PriceHistoryView(priceHistory); }
+    /** @return The primitive-backed price history for allocation-free bulk reads */
+    public PriceSeries getPriceSeries() { return priceHistory; }
+    /**
+     * Returns the purchase lots of this holding. A holding saved before lots were tracked gets a single lot
+     * of its quantity at the purchase price with its first trade; until then, such a lot is returned without
+     * being kept.
+     * @return The tax lots of this holding
+     */
+    public TaxLots getLots() {
+        return lots != null ? lots : singleLot();
+    }
+
+    /** @return The lots of this holding, creating the single lot of a holding saved without lots. */
+    private TaxLots lots() {
+        if (lots == null) {
+            lots = singleLot();
+        }
+        return lots;
+    }
+
+    /** @return A single lot of the whole quantity at the purchase price, acquired with the first recorded price. */
+    private TaxLots singleLot() {
+        TaxLots single = new TaxLots();
+        if (quantity > 0) {
+            long acquiredMillis = priceHistory.size() > 0
+                    ? Math.floorDiv(priceHistory.epochNanosAt(0), 1_000_000L)
+                    : MarketClock.getDefault().millis();
+            single.buy(quantity, purchasePricePerUnit, acquiredMillis);
+        }
+        return single;
+    }
+
+    // --- Trades ---
+
+    /**
+     * Buys more units as a new lot. The purchase price becomes the average cost of all open lots.
+     * Called through {@link Portfolio#buy(Holding, double, double)}.
+     * @param quantity The number of units bought
+     * @param price The price paid per unit
+     * @return The new lot
+     */
+    TaxLot buy(double quantity, double price) {
+        TaxLot lot = lots().buy(quantity, price, MarketClock.getDefault().millis());
+        this.quantity = lots.getQuantity();
+        this.purchasePricePerUnit = lots.getAverageCost();
+        notifyValuationChanged();
+        return lot;
+    }
+
+    /**
+     * Sells units, matched against the open lots with the given method. The purchase price becomes the
+     * average cost of the lots left open; it is kept if all units were sold.
+     * Called through {@link Portfolio#sell(Holding, double, double)}.
+     * @param quantity The number of units sold
+     * @param price The sale price per unit
+     * @param method Which lots to sell first
+     * @return The profit or loss realized by the sale
+     */
+    double sell(double quantity, double price, LotMethod method) {
+        double realized = lots().sell(quantity, price, method);
+        this.quantity = lots.getQuantity();
+        if (this.quantity > 0) {
+            this.purchasePricePerUnit = lots.getAverageCost();
+        }
+        notifyValuationChanged();
+        return realized;
+    }
 
     // --- Setters ---
     // Necessary for editing holdings and for frameworks like JavaFX TableView and Gson.
 
     /** Sets the ticker symbol. @param symbol The new symbol. */
-    public void setSymbol(String symbol) { this.symbol = symbol; }
+    public void setSymbol(String symbol) {
+        String oldSymbol = this.symbol;
+        this.symbol = symbol;
+        this.instrumentId = -1;
+        if (portfolio != null && !Objects.equals(oldSymbol, symbol)) {
+            portfolio.onSymbolChanged(this, oldSymbol);
+        }
+    }
     /** Sets the full name. @param name The new name. */
-    public void setName(String name) { this.name = name; }
-    /** Sets the quantity. @param quantity The new quantity. */
-    public void setQuantity(double quantity) { this.quantity = quantity; }
+    public void setName(String name) {
+        this.name = name;
+        if (portfolio != null) {
+            portfolio.onHoldingChanged(this);
+        }
+    }
+    /**
+     * Sets the quantity without a trade, e.g. to correct it by hand. The lots follow: additional units are added
+     * as a new lot at the purchase price, and fewer units are taken from all open lots in proportion, so the
+     * purchase price stays the average cost. A quantity of 0 disposes of the open lots at the current price,
+     * realizing their profit or loss. Use {@link Portfolio#buy} and {@link Portfolio#sell} for trades.
+     * @param quantity The new quantity.
+     * @throws IllegalArgumentException If the quantity is negative and the holding tracks lots
+     */
+    public void setQuantity(double quantity) {
+        if (lots != null && quantity != this.quantity) {
+            if (portfolio != null) {
+                portfolio.saveLots(this);
+            }
+            double realized = lots.resize(quantity, purchasePricePerUnit, pricePerUnit, MarketClock.getDefault().millis());
+            if (realized != 0 && portfolio != null) {
+                portfolio.onLotsDisposed(realized);
+            }
+        }
+        this.quantity = quantity;
+        notifyEdited();
+    }
     /** 
      * Sets the current price per unit and records it in price history. 
      * @param pricePerUnit The new price per unit. 
@@ -103,11 +256,98 @@ public class Holding {
     public void setPricePerUnit(double pricePerUnit) { 
         this.pricePerUnit = pricePerUnit; 
         addPricePoint(pricePerUnit);
+        if (portfolio != null) {
+            portfolio.onPriceMarked(this);
+        }
     }
     /** Sets the purchase price per unit. @param purchasePricePerUnit The purchase price. */
-    public void setPurchasePricePerUnit(double purchasePricePerUnit) { this.purchasePricePerUnit = purchasePricePerUnit; }
+    public void setPurchasePricePerUnit(double purchasePricePerUnit) {
+        this.purchasePricePerUnit = purchasePricePerUnit;
+        notifyEdited();
+    }
     /** Sets the asset type. @param assetType The new asset type. */
-    public void setAssetType(AssetType assetType) { this.assetType = assetType; }
+    public void setAssetType(AssetType assetType) {
+        this.assetType = assetType;
+        notifyEdited();
+    }
+
+    /**
+     * Replaces the symbol by the {@link InstrumentRegistry}'s instance of it, so that holdings loaded into
+     * many portfolios share one string per instrument.
+     */
+    void shareSymbol() {
+        if (symbol != null) {
+            symbol = InstrumentRegistry.getInstance().symbolOf(getInstrumentId());
+        }
+    }
+
+    /**
+     * Brings saved lots in line with the quantity, like {@link #setQuantity(double)} does, for holdings saved
+     * while a quantity edit did not update the lots. Called by the portfolio after loading; the profit or loss
+     * of lots disposed of here is not added to the saved portfolio's realized total, which never included it.
+     */
+    void reconcileLots() {
+        if (lots != null && Math.abs(lots.getQuantity() - quantity) > 1e-9 * Math.max(1, Math.abs(quantity))) {
+            lots.resize(Math.max(0, quantity), purchasePricePerUnit, pricePerUnit, MarketClock.getDefault().millis());
+        }
+    }
+
+    /** @return A copy of the tax lots for {@link #restoreLots(TaxLots)}, or {@code null} if the holding has none yet. */
+    TaxLots copyLots() {
+        return lots == null ? null : lots.copy();
+    }
+
+    /**
+     * Puts back the lots copied by {@link #copyLots()}, when a batch of changes fails.
+     * @param lots The copied lots
+     */
+    void restoreLots(TaxLots lots) {
+        this.lots = lots;
+    }
+
+    /**
+     * Puts back the fields of an earlier version without notifying the portfolio, when a batch of changes fails.
+     * The price points recorded in the meantime stay in the price history.
+     *
+     * @param state The fields to restore
+     */
+    void restore(HoldingState state) {
+        this.symbol = state.getSymbol();
+        this.name = state.getName();
+        this.quantity = state.getQuantity();
+        this.pricePerUnit = state.getPricePerUnit();
+        this.purchasePricePerUnit = state.getPurchasePricePerUnit();
+        this.assetType = state.getAssetType();
+        this.instrumentId = -1;
+    }
+
+    /**
+     * @return The heap used by this holding with its ID, name, price history and lots; the symbol is shared
+     *         through the {@link InstrumentRegistry} and not counted
+     */
+    long estimateMemoryBytes() {
+        return HeapLayout.object(8 * HeapLayout.REFERENCE + 3 * Double.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES)
+                + HeapLayout.string(id) + HeapLayout.string(name)
+                + priceHistory.estimateMemoryBytes()
+                + (lots == null ? 0 : lots.estimateMemoryBytes());
+    }
+
+    /** Attaches this holding to a portfolio (or detaches it with {@code null}). */
+    void setPortfolio(Portfolio portfolio) { this.portfolio = portfolio; }
+
+    /** Lets the owning portfolio apply the value or type change to its running totals. */
+    private void notifyValuationChanged() {
+        if (portfolio != null) {
+            portfolio.onValuationChanged(this);
+        }
+    }
+
+    /** Lets the owning portfolio apply a change made through a setter. */
+    private void notifyEdited() {
+        if (portfolio != null) {
+            portfolio.onHoldingEdited(this);
+        }
+    }
 
     /**
      * Calculates the current total value of this holding.
@@ -125,6 +365,20 @@ public class Holding {
         return quantity * purchasePricePerUnit;
     }
     
+    /**
+     * @return {@link #getCurrentValue()} in {@link Money} micros, rounded once
+     */
+    public long getCurrentValueMicros() {
+        return Money.value(quantity, pricePerUnit);
+    }
+    
+    /**
+     * @return {@link #getPurchaseValue()} in {@link Money} micros, rounded once
+     */
+    public long getPurchaseValueMicros() {
+        return Money.value(quantity, purchasePricePerUnit);
+    }
+    
     /**
      * Calculates the profit or loss for this holding.
      * @return The profit/loss amount (positive for profit, negative for loss)
@@ -187,8 +441,12 @@ public class Holding {
         private final LocalDateTime timestamp;
         
         public PricePoint(double price) {
+            this(price, MarketClock.toLocalDateTime(MarketClock.getDefault().millis()));
+        }
+        
+        public PricePoint(double price, LocalDateTime timestamp) {
             this.price = price;
-            this.timestamp = LocalDateTime.now();
+            this.timestamp = timestamp;
         }
         
         public double getPrice() {
@@ -199,4 +457,25 @@ public class Holding {
             return timestamp;
         }
     }
+    
+    /**
+     * Read-only list view that materializes {@link PricePoint}s from a {@link PriceSeries} on demand.
+     */
+    private static class PriceHistoryView extends AbstractList<PricePoint> {
+        private final PriceSeries series;
+        
+        PriceHistoryView(PriceSeries series) {
+            this.series = series;
+        }
+        
+        @Override
+        public PricePoint get(int index) {
+            return new PricePoint(series.priceAt(index), MarketClock.nanosToLocalDateTime(series.epochNanosAt(index)));
+        }
+        
+        @Override
+        public int size() {
+            return series.size();
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package com.investtrack.model;
+
+/**
+ * Immutable copy of a {@link Holding}'s fields as of one {@link PortfolioState} version.
+ * The price history is not part of the state; it only grows and is read from the holding itself.
+ */
+public final class HoldingState {
+    private final String id;
+    private final String symbol;
+    private final String name;
+    private final double quantity;
+    private final double pricePerUnit;
+    private final double purchasePricePerUnit;
+    private final AssetType assetType;
+
+    HoldingState(Holding holding) {
+        this.id = holding.getId();
+        this.symbol = holding.getSymbol();
+        this.name = holding.getName();
+        this.quantity = holding.getQuantity();
+        this.pricePerUnit = holding.getPricePerUnit();
+        this.purchasePricePerUnit = holding.getPurchasePricePerUnit();
+        this.assetType = holding.getAssetType();
+    }
+
+    /** @return The unique identifier of the holding. */
+    public String getId() { return id; }
+    /** @return The ticker symbol of the asset. */
+    public String getSymbol() { return symbol; }
+    /** @return The full name of the asset. */
+    public String getName() { return name; }
+    /** @return The quantity of the asset held. */
+    public double getQuantity() { return quantity; }
+    /** @return The price per unit of the asset. */
+    public double getPricePerUnit() { return pricePerUnit; }
+    /** @return The original purchase price per unit. */
+    public double getPurchasePricePerUnit() { return purchasePricePerUnit; }
+    /** @return The type of the asset (e.g., STOCK, BOND). */
+    public AssetType getAssetType() { return assetType; }
+
+    /**
+     * @return The total value (quantity * price per unit).
+     */
+    public double getCurrentValue() {
+        return quantity * pricePerUnit;
+    }
+
+    /**
+     * @return The total purchase value (quantity * purchase price per unit).
+     */
+    public double getPurchaseValue() {
+        return quantity * purchasePricePerUnit;
+    }
+}
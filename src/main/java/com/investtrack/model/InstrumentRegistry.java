@@ -0,0 +1,89 @@
+package com.investtrack.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns ticker symbols to dense integer instrument IDs (0, 1, 2, ...).
+ * Each symbol is hashed once when interned; afterwards holdings and the price simulation
+ * refer to the instrument by ID, so hot paths can index arrays instead of hashing strings.
+ * IDs are never reused or removed for the lifetime of the JVM.
+ */
+public final class InstrumentRegistry {
+    private static final InstrumentRegistry INSTANCE = new InstrumentRegistry();
+
+    /** Symbol to ID; lookups of known symbols do not lock. */
+    private final ConcurrentHashMap<String, Integer> idsBySymbol = new ConcurrentHashMap<>();
+    /** ID to symbol; replaced (never mutated in place for published IDs) when it grows. */
+    private volatile String[] symbolsById = new String[64];
+    private volatile int size;
+
+    private InstrumentRegistry() {
+    }
+
+    /**
+     * Get singleton instance
+     */
+    public static InstrumentRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the ID of a symbol, assigning the next free ID if the symbol is new.
+     *
+     * @param symbol The ticker symbol
+     * @return The instrument ID
+     */
+    public int intern(String symbol) {
+        if (symbol == null) {
+            throw new IllegalArgumentException("Symbol cannot be null.");
+        }
+        Integer id = idsBySymbol.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = idsBySymbol.get(symbol);
+            if (id != null) {
+                return id;
+            }
+            int newId = size;
+            String[] symbols = symbolsById;
+            if (newId == symbols.length) {
+                symbols = Arrays.copyOf(symbols, symbols.length * 2);
+            }
+            symbols[newId] = symbol;
+            symbolsById = symbols;
+            size = newId + 1;
+            idsBySymbol.put(symbol, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the ID of a symbol without interning it.
+     *
+     * @param symbol The ticker symbol
+     * @return The instrument ID, or -1 if the symbol has not been interned
+     */
+    public int lookup(String symbol) {
+        Integer id = symbol == null ? null : idsBySymbol.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id An instrument ID
+     * @return The symbol interned under that ID
+     */
+    public String symbolOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown instrument ID: " + id);
+        }
+        return symbolsById[id];
+    }
+
+    /** @return The number of interned instruments; all IDs are below this value. */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,18 @@
+package com.investtrack.model;
+
+/**
+ * Decides which {@link TaxLot}s a sale is matched against, see {@link TaxLots#sell(double, double, LotMethod)}.
+ */
+public enum LotMethod {
+    /** First in, first out: the oldest lots are sold first. */
+    FIFO,
+    /** Last in, first out: the most recently bought lots are sold first. */
+    LIFO,
+    /** Highest in, first out: the lots with the highest cost per unit are sold first. */
+    HIFO,
+    /**
+     * Average cost: units are taken from the oldest lots, but their cost is the average cost
+     * of all open units at the time of the sale.
+     */
+    AVERAGE_COST
+}
@@ -0,0 +1,138 @@
+package com.investtrack.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.function.LongSupplier;
+
+/**
+ * Source of the timestamps recorded by the model (price points, snapshots) and the price simulation.
+ * <p>
+ * Timestamps are primitive epoch milliseconds; conversion to {@link LocalDateTime} happens only at the
+ * UI and serialization edges via {@link #toLocalDateTime(long)} (or {@link #nanosToLocalDateTime(long)}
+ * for price series). The simulator reads the clock once per
+ * tick with {@link #tick()}, and whoever applies that tick runs inside {@link #runAt(long, Runnable)},
+ * so every price point and snapshot of the tick shares the same timestamp.
+ * </p><p>
+ * The time source is pluggable (e.g. for tests or replays) through {@link #setDefault(MarketClock)}.
+ * </p>
+ */
+public final class MarketClock {
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static volatile MarketClock defaultClock = new MarketClock(System::currentTimeMillis);
+
+    /** Supplies the current time in epoch milliseconds. */
+    private final LongSupplier epochMillisSource;
+    /** Thread currently applying a tick, or {@code null}. */
+    private volatile Thread pinnedThread;
+    /** The tick time returned to {@link #pinnedThread}. */
+    private long pinnedMillis;
+
+    /**
+     * Creates a clock reading the given time source.
+     *
+     * @param epochMillisSource Supplies the current time in epoch milliseconds
+     */
+    public MarketClock(LongSupplier epochMillisSource) {
+        this.epochMillisSource = epochMillisSource;
+    }
+
+    /** @return The clock used by the model and the simulation. */
+    public static MarketClock getDefault() {
+        return defaultClock;
+    }
+
+    /**
+     * Replaces the clock used by the model and the simulation.
+     *
+     * @param clock The new clock
+     */
+    public static void setDefault(MarketClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null.");
+        }
+        defaultClock = clock;
+    }
+
+    /**
+     * Reads the time source once, for a new simulation tick.
+     *
+     * @return The tick time in epoch milliseconds
+     */
+    public long tick() {
+        return epochMillisSource.getAsLong();
+    }
+
+    /**
+     * Returns the current time: the tick time while the calling thread is inside
+     * {@link #runAt(long, Runnable)}, otherwise a fresh read of the time source.
+     *
+     * @return The current time in epoch milliseconds
+     */
+    public long millis() {
+        if (pinnedThread == Thread.currentThread()) {
+            return pinnedMillis;
+        }
+        return epochMillisSource.getAsLong();
+    }
+
+    /** @return {@link #millis()} in epoch nanoseconds. */
+    public long nanos() {
+        return millis() * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Runs an action on the calling thread with the clock pinned to a tick time.
+     * Only one thread can apply a tick at a time; nested calls on that thread are allowed.
+     *
+     * @param epochMillis The tick time, usually obtained from {@link #tick()}
+     * @param action The action that applies the tick
+     */
+    public synchronized void runAt(long epochMillis, Runnable action) {
+        Thread previousThread = pinnedThread;
+        long previousMillis = pinnedMillis;
+        pinnedMillis = epochMillis;
+        pinnedThread = Thread.currentThread();
+        try {
+            action.run();
+        } finally {
+            pinnedMillis = previousMillis;
+            pinnedThread = previousThread;
+        }
+    }
+
+    /**
+     * Converts an epoch timestamp to the local date-time of the system time zone.
+     *
+     * @param epochMillis The timestamp in epoch milliseconds
+     * @return The local date-time
+     */
+    public static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Converts an epoch timestamp in nanoseconds, as kept by {@link PriceSeries}, to the local date-time
+     * of the system time zone.
+     *
+     * @param epochNanos The timestamp in epoch nanoseconds
+     * @return The local date-time
+     */
+    public static LocalDateTime nanosToLocalDateTime(long epochNanos) {
+        Instant instant = Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                                                Math.floorMod(epochNanos, NANOS_PER_SECOND));
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+
+    /**
+     * Converts a local date-time of the system time zone to an epoch timestamp.
+     *
+     * @param dateTime The local date-time
+     * @return The timestamp in epoch milliseconds
+     */
+    public static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,76 @@
+package com.investtrack.model;
+
+/**
+ * Fixed-point money arithmetic on {@code long} micro-units (1 unit = 1,000,000 micros).
+ * <p>
+ * Amounts held as micros add and subtract exactly, so running totals never drift and always
+ * reconcile with a recomputation. 100 million CHF is 10<sup>14</sup> micros, leaving a headroom of
+ * about 90,000x before a {@code long} overflows; every operation that could overflow is checked
+ * and throws {@link ArithmeticException} instead of wrapping. Nothing here allocates.
+ * </p>
+ */
+public final class Money {
+    /** Number of decimal digits kept by micro-units. */
+    public static final int SCALE = 6;
+    /** Micros per whole unit. */
+    public static final long ONE = 1_000_000L;
+
+    /** Largest magnitude (in micros) that can be converted from a double without overflowing. */
+    private static final double MAX_MICROS = 0x1p63;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount to micros, rounding half away from zero.
+     *
+     * @param amount The amount in units
+     * @return The amount in micros
+     * @throws ArithmeticException If the amount is not finite or does not fit in a long
+     */
+    public static long fromDouble(double amount) {
+        double micros = amount * ONE;
+        if (!(Math.abs(micros) < MAX_MICROS)) {
+            throw new ArithmeticException("Amount out of range for fixed-point money: " + amount);
+        }
+        return (long) (micros < 0 ? micros - 0.5 : micros + 0.5);
+    }
+
+    /**
+     * @param micros An amount in micros
+     * @return The amount in units, for display and legacy double-based APIs
+     */
+    public static double toDouble(long micros) {
+        return (double) micros / ONE;
+    }
+
+    /**
+     * Computes the value of a position in micros from a double quantity and price.
+     * The product is rounded once, so the values of many positions can be summed exactly. Quantities are
+     * not converted to micros first, as crypto quantities can be finer than a micro-unit.
+     *
+     * @param quantity The number of units
+     * @param price The price per unit
+     * @return The value in micros
+     * @throws ArithmeticException If the value does not fit in a long
+     */
+    public static long value(double quantity, double price) {
+        return fromDouble(quantity * price);
+    }
+
+    /**
+     * @return {@code a + b}
+     * @throws ArithmeticException On overflow
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * @return {@code a - b}
+     * @throws ArithmeticException On overflow
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+}
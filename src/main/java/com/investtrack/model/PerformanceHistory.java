@@ -0,0 +1,367 @@
+package com.investtrack.model;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time-ordered store of {@link PortfolioSnapshot}s with tiered downsampling.
+ * <p>
+ * New snapshots enter the finest tier. Once a snapshot is older than that tier's retention
+ * (measured against the newest snapshot), it is rolled up into the OHLC bucket of the next,
+ * coarser tier. The last tier keeps at most a fixed number of buckets, so memory and save
+ * size stay bounded no matter how long the application runs.
+ * </p><p>
+ * Buckets are aligned to the local time of the system time zone, so daily buckets start at midnight.
+ * </p>
+ */
+public class PerformanceHistory {
+
+    /**
+     * One level of the retention scheme.
+     */
+    public static final class Tier {
+        /** Bucket width, or {@code null} for raw (not downsampled) snapshots. */
+        private final ChronoUnit resolution;
+        /** How long snapshots stay in this tier before rolling up, or {@code null} to keep them. */
+        private final Duration retention;
+        /** Upper bound on the number of entries kept in this tier. */
+        private final int maxEntries;
+
+        private Tier(ChronoUnit resolution, Duration retention, int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+            }
+            this.resolution = resolution;
+            this.retention = retention;
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * @param retention How long raw snapshots are kept
+         * @return A tier holding snapshots as they were taken
+         */
+        public static Tier raw(Duration retention) {
+            return new Tier(null, retention, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param resolution The bucket width (e.g. {@link ChronoUnit#MINUTES})
+         * @param retention How long buckets are kept before rolling up further
+         * @return A tier of OHLC buckets
+         */
+        public static Tier buckets(ChronoUnit resolution, Duration retention) {
+            return new Tier(resolution, retention, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param resolution The bucket width (e.g. {@link ChronoUnit#DAYS})
+         * @param maxEntries Number of buckets kept; older buckets are dropped
+         * @return A final tier of OHLC buckets with a fixed capacity
+         */
+        public static Tier capped(ChronoUnit resolution, int maxEntries) {
+            return new Tier(resolution, null, maxEntries);
+        }
+    }
+
+    /** Raw for an hour, 1-minute buckets for a day, hourly for 30 days, then up to 10 years of daily buckets. */
+    private static final Tier[] DEFAULT_TIERS = {
+            Tier.raw(Duration.ofHours(1)),
+            Tier.buckets(ChronoUnit.MINUTES, Duration.ofDays(1)),
+            Tier.buckets(ChronoUnit.HOURS, Duration.ofDays(30)),
+            Tier.capped(ChronoUnit.DAYS, 3650)
+    };
+
+    private final Tier[] tiers;
+    /** Time zone the buckets are aligned to. */
+    private final ZoneId zone = ZoneId.systemDefault();
+    /** Entries per tier, finest tier first. */
+    private final SnapshotBuffer[] buffers;
+    private final List<PortfolioSnapshot> view = new View();
+    /** Encodes the {@link PositionFrame}s of snapshots added to this history. */
+    private final PositionFrame.Encoder positionEncoder = new PositionFrame.Encoder();
+
+    /**
+     * Creates a history with the default retention tiers.
+     */
+    public PerformanceHistory() {
+        this(DEFAULT_TIERS);
+    }
+
+    /**
+     * Creates a history with custom retention tiers, ordered from finest to coarsest.
+     *
+     * @param tiers The tiers; the first one receives new snapshots
+     */
+    public PerformanceHistory(Tier... tiers) {
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        this.tiers = tiers.clone();
+        this.buffers = new SnapshotBuffer[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            buffers[i] = new SnapshotBuffer();
+        }
+    }
+
+    /**
+     * Appends a snapshot and rolls up everything that aged out of its tier.
+     * Snapshots are expected in chronological order.
+     *
+     * @param snapshot The snapshot to append
+     */
+    public void add(PortfolioSnapshot snapshot) {
+        insert(0, snapshot);
+        long newest = snapshot.getEpochMillis();
+        for (int i = 0; i < tiers.length; i++) {
+            evict(i, newest);
+        }
+    }
+
+    /**
+     * Folds a snapshot into the newest raw entry instead of appending it, so a change is reflected
+     * without adding an entry. The entry takes the snapshot's values and time and keeps its open, high and low.
+     * If the newest entry is not raw (or there is none), the snapshot is added as by {@link #add(PortfolioSnapshot)}.
+     *
+     * @param snapshot The snapshot to merge; not older than the newest entry
+     */
+    public void mergeIntoLatest(PortfolioSnapshot snapshot) {
+        SnapshotBuffer buffer = buffers[0];
+        if (tiers[0].resolution != null || buffer.isEmpty()) {
+            add(snapshot);
+            return;
+        }
+        buffer.replaceLast(buffer.last().mergedWith(snapshot, snapshot.getEpochMillis()));
+        long newest = snapshot.getEpochMillis();
+        for (int i = 0; i < tiers.length; i++) {
+            evict(i, newest);
+        }
+    }
+
+    /** Removes all snapshots. */
+    public void clear() {
+        for (SnapshotBuffer buffer : buffers) {
+            buffer.clear();
+        }
+        positionEncoder.reset();
+    }
+
+    /**
+     * Returns the encoder for the positions of snapshots added to this history, so that consecutive
+     * frames share slot numbers and are delta-encoded against each other.
+     *
+     * @return The position encoder
+     */
+    public PositionFrame.Encoder getPositionEncoder() {
+        return positionEncoder;
+    }
+
+    /** @return The total number of entries across all tiers. */
+    public int size() {
+        int size = 0;
+        for (SnapshotBuffer buffer : buffers) {
+            size += buffer.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns a read-only chronological view over all tiers (coarsest, oldest entries first).
+     * The view reflects later changes to the history.
+     *
+     * @return The history as a list
+     */
+    public List<PortfolioSnapshot> asList() {
+        return view;
+    }
+
+    /**
+     * Returns the entries whose time lies in {@code [fromMillis, toMillis]}, found by binary search.
+     * The result is a view of {@link #asList()}; it is not copied.
+     *
+     * @param fromMillis The start of the range in epoch milliseconds (inclusive)
+     * @param toMillis The end of the range in epoch milliseconds (inclusive)
+     * @return The entries in the range, oldest first; empty if there are none
+     */
+    public List<PortfolioSnapshot> between(long fromMillis, long toMillis) {
+        if (toMillis < fromMillis) {
+            return Collections.emptyList();
+        }
+        int from = firstIndexAfter(fromMillis - 1);
+        int to = firstIndexAfter(toMillis);
+        return view.subList(from, Math.max(from, to));
+    }
+
+    /**
+     * Returns the entry in effect at the given time: the newest one at or before it.
+     * For a bucket, that is its close. Found by binary search.
+     *
+     * @param epochMillis The time in epoch milliseconds
+     * @return The entry, or {@code null} if the history starts after that time
+     */
+    public PortfolioSnapshot at(long epochMillis) {
+        int index = firstIndexAfter(epochMillis) - 1;
+        return index < 0 ? null : view.get(index);
+    }
+
+    /**
+     * Returns the newest entries as a view of {@link #asList()}.
+     *
+     * @param count The maximum number of entries
+     * @return At most {@code count} entries, oldest first
+     */
+    public List<PortfolioSnapshot> latest(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        int size = size();
+        return view.subList(size - Math.min(count, size), size);
+    }
+
+    /**
+     * Returns the index of the first entry later than the given time ({@link #size()} if there is none).
+     * Entries are in chronological order across tiers, since coarser tiers only hold older data.
+     */
+    private int firstIndexAfter(long epochMillis) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (view.get(mid).getEpochMillis() <= epochMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Places a snapshot in the given tier, merging it into the current bucket when the tier downsamples.
+     */
+    private void insert(int tierIndex, PortfolioSnapshot snapshot) {
+        ChronoUnit resolution = tiers[tierIndex].resolution;
+        SnapshotBuffer buffer = buffers[tierIndex];
+        if (resolution == null) {
+            buffer.add(snapshot);
+            return;
+        }
+        long bucketStart = bucketStart(snapshot.getEpochMillis(), resolution);
+        PortfolioSnapshot last = buffer.isEmpty() ? null : buffer.last();
+        if (last != null && last.getEpochMillis() == bucketStart) {
+            buffer.replaceLast(last.mergedWith(snapshot, bucketStart));
+        } else {
+            buffer.add(snapshot.mergedWith(null, bucketStart));
+        }
+    }
+
+    /**
+     * Moves entries that are older than the tier's retention (or exceed its capacity) to the next tier.
+     */
+    private void evict(int tierIndex, long newest) {
+        Tier tier = tiers[tierIndex];
+        SnapshotBuffer buffer = buffers[tierIndex];
+        boolean last = tierIndex == tiers.length - 1;
+        long cutoff = tier.retention == null ? Long.MIN_VALUE : newest - tier.retention.toMillis();
+        while (!buffer.isEmpty()) {
+            PortfolioSnapshot oldest = buffer.first();
+            boolean expired = oldest.getEpochMillis() < cutoff;
+            if (!expired && buffer.size() <= tier.maxEntries) {
+                break;
+            }
+            buffer.removeFirst();
+            if (!last) {
+                insert(tierIndex + 1, oldest);
+            }
+        }
+    }
+
+    /**
+     * Returns the start of the bucket containing the given time, aligned to local time.
+     */
+    private long bucketStart(long epochMillis, ChronoUnit resolution) {
+        long offsetMillis = zone.getRules().getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+        long width = resolution.getDuration().toMillis();
+        return Math.floorDiv(epochMillis + offsetMillis, width) * width - offsetMillis;
+    }
+
+    /**
+     * Chronological read-only view; coarser tiers hold older data and come first.
+     */
+    private class View extends AbstractList<PortfolioSnapshot> {
+        @Override
+        public PortfolioSnapshot get(int index) {
+            if (index >= 0) {
+                int remaining = index;
+                for (int i = buffers.length - 1; i >= 0; i--) {
+                    int size = buffers[i].size();
+                    if (remaining < size) {
+                        return buffers[i].get(remaining);
+                    }
+                    remaining -= size;
+                }
+            }
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+
+        @Override
+        public int size() {
+            return PerformanceHistory.this.size();
+        }
+    }
+
+    /**
+     * Array-backed queue with indexed access and amortized O(1) removal from the front.
+     */
+    private static final class SnapshotBuffer {
+        private final ArrayList<PortfolioSnapshot> entries = new ArrayList<>();
+        private int head;
+
+        int size() {
+            return entries.size() - head;
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        PortfolioSnapshot get(int index) {
+            return entries.get(head + index);
+        }
+
+        PortfolioSnapshot first() {
+            return entries.get(head);
+        }
+
+        PortfolioSnapshot last() {
+            return entries.get(entries.size() - 1);
+        }
+
+        void add(PortfolioSnapshot snapshot) {
+            entries.add(snapshot);
+        }
+
+        void replaceLast(PortfolioSnapshot snapshot) {
+            entries.set(entries.size() - 1, snapshot);
+        }
+
+        void removeFirst() {
+            entries.set(head++, null);
+            // Compact once the dead prefix dominates, keeping removal amortized O(1)
+            if (head >= 64 && head >= entries.size() / 2) {
+                entries.subList(0, head).clear();
+                head = 0;
+            }
+        }
+
+        void clear() {
+            entries.clear();
+            head = 0;
+        }
+    }
+}
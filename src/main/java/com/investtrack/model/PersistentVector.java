@@ -0,0 +1,201 @@
+package com.investtrack.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable indexed sequence with structural sharing.
+ * <p>
+ * Elements are stored in a tree of 32-wide nodes plus a separate tail node. {@link #set(int, Object)}
+ * and {@link #append(Object)} copy only the nodes on the path to the changed element (at most
+ * log<sub>32</sub>(n) + 1 arrays of 32 references) and share everything else with the original,
+ * so keeping many versions of a large vector is cheap. Instances are safe to share between threads.
+ * </p>
+ *
+ * @param <E> The element type
+ */
+public final class PersistentVector<E> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<?> EMPTY =
+            new PersistentVector<>(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    /** Bit shift of the root level. */
+    private final int shift;
+    private final Object[] root;
+    /** The last (up to 32) elements, kept outside the tree so appends rarely touch it. */
+    private final Object[] tail;
+    private final List<E> view = new View();
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * @param <E> The element type
+     * @return The empty vector
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /**
+     * @param <E> The element type
+     * @param elements The elements, in order
+     * @return A vector holding the given elements
+     */
+    public static <E> PersistentVector<E> of(Iterable<? extends E> elements) {
+        PersistentVector<E> vector = empty();
+        for (E element : elements) {
+            vector = vector.append(element);
+        }
+        return vector;
+    }
+
+    /** @return The number of elements. */
+    public int size() {
+        return size;
+    }
+
+    /** @return {@code true} if the vector has no elements. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index The element index
+     * @return The element at that index
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    /**
+     * Returns a vector with the element at {@code index} replaced; this vector is unchanged.
+     *
+     * @param index The element index
+     * @param element The new element
+     * @return The updated vector
+     */
+    public PersistentVector<E> set(int index, E element) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, set(shift, root, index, element), tail);
+    }
+
+    /**
+     * Returns a vector with the element added at the end; this vector is unchanged.
+     *
+     * @param element The element to append
+     * @return The extended vector
+     */
+    public PersistentVector<E> append(E element) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        // Tail is full: move it into the tree, growing the tree by a level when the root is full
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] {element});
+    }
+
+    /**
+     * Returns a read-only list view of this vector. The view never changes, as the vector cannot.
+     *
+     * @return The vector as a list
+     */
+    public List<E> asList() {
+        return view;
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private static Object[] set(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy[child] = set(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        Object[] inserted;
+        if (level == BITS) {
+            inserted = tailNode;
+        } else {
+            Object[] existing = (Object[]) parent[child];
+            inserted = existing != null ? pushTail(level - BITS, existing, tailNode) : newPath(level - BITS, tailNode);
+        }
+        copy[child] = inserted;
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    private class View extends AbstractList<E> {
+        @Override
+        public E get(int index) {
+            return PersistentVector.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -1,30 +1,142 @@
 package com.investtrack.model;
 
+import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Represents the entire investment portfolio, containing a collection of {@link Holding} objects.
  * Provides methods to manage holdings and calculate the total portfolio value.
+ * <p>
+ * The portfolio and its holdings are mutated from a single thread (the JavaFX application thread).
+ * After every mutation an immutable {@link PortfolioState} is published through an atomic reference;
+ * other threads read {@link #getState()} instead of the mutable objects.
+ * </p><p>
+ * Changes to holdings and cash take a snapshot and notify the change listeners one by one, or once
+ * for a whole group of changes applied through {@link #batch(Consumer)}.
+ * </p><p>
+ * A portfolio created with {@link #columnar()} stores its positions in {@link PositionColumns} instead of
+ * holding objects, for books of millions of positions. The API is the same, except that
+ * {@link #getHoldings()} and the lookups return {@link Holding} views created on demand, holdings passed
+ * to {@link #addHolding(Holding)} are copied into a new row with its own ID, positions keep no price history
+ * or tax lots, and the published {@link PortfolioState}s carry the totals but no holdings.
+ * </p>
  */
 public class Portfolio {
 
-    /** The list storing all the individual holdings in the portfolio. */
+    /** The list storing all the individual holdings in the portfolio; removals leave {@code null} slots until compacted. */
     private final List<Holding> holdings;
     
+    /** The positions of a columnar portfolio, or {@code null} if the positions are {@link #holdings}. */
+    private PositionColumns columns;
+    
+    /** Index of {@link #holdings} by holding ID; not persisted, rebuilt from the list. */
+    private final transient Map<String, Holding> holdingsById;
+    
+    /** Index of {@link #holdings} by ticker symbol; not persisted, rebuilt from the list. */
+    private final transient Map<String, List<Holding>> holdingsBySymbol;
+    
     /** The cash balance available for investing. */
     private double cashBalance;
     
     /** The initial cash balance for resets. */
     private static final double INITIAL_CASH_BALANCE = 100_000_000.0; // 100 million
     
+    /** The portfolio object with its totals and per-type arrays, for estimateMemoryBytes(). */
+    private static final long PORTFOLIO_BYTES = HeapLayout.object(24 * HeapLayout.REFERENCE + 12 * Long.BYTES)
+            + 4 * HeapLayout.array(AssetType.values().length, Long.BYTES);
+    /** A holding's state copy, its ID index entry and its slots in the holdings list and the state vector. */
+    private static final long HOLDING_ENTRY_BYTES = HeapLayout.object(4 * HeapLayout.REFERENCE + 3 * Double.BYTES)
+            + HeapLayout.MAP_ENTRY + 5 * HeapLayout.REFERENCE;
+    
     /** The total amount invested (total purchase value of all holdings) */
     private double totalInvested;
     
-    /** History of portfolio values for performance tracking */
-    private final List<PortfolioSnapshot> performanceHistory;
+    /** Profit or loss realized by all sales since the last reset. */
+    private double realizedProfitLoss;
+    
+    /** How sales are matched against the tax lots of a holding. */
+    private LotMethod lotMethod = LotMethod.FIFO;
+    
+    /** Sequence number of the last ledger event reflected in this portfolio; 0 if not rebuilt from a ledger. */
+    private long ledgerSequence;
+    
+    /** Receives every change as an event; {@code null} if changes are not journaled. */
+    private transient PortfolioJournal journal;
+    
+    /** Running sum of {@link Holding#getCurrentValueMicros()} over all holdings; maintained by delta. */
+    private transient long marketValue;
+    
+    /** Running sum of {@link Holding#getPurchaseValueMicros()} over all holdings; maintained by delta. */
+    private transient long costBasis;
+    
+    /** Running holdings value in micros per asset type, indexed by {@link AssetType#ordinal()}; maintained by delta. */
+    private final transient long[] valueByAssetType;
+    
+    /** Read-only view of {@link #valueByAssetType}. */
+    private final transient AssetTypeValues assetTypeValues;
+    
+    /** Copy of {@link #valueByAssetType} taken for the latest snapshot. */
+    private transient long[] snapshotAssetTypeMicros;
+    
+    /** {@link #snapshotAssetTypeMicros} in units, shared by consecutive snapshots while it does not change. */
+    private transient double[] snapshotAssetTypeValues;
+    
+    /** Time of the latest snapshot in epoch milliseconds, keeping the history chronological. */
+    private transient long lastSnapshotMillis;
+    
+    /** Time the latest snapshot was started, i.e. before changes were merged into it; persisted to resume sampling. */
+    private long lastSnapshotStartMillis;
+    
+    /** Total asset value of the latest snapshot. */
+    private transient double lastSnapshotValue;
+    
+    /** Whether snapshots record the quantity and price of every holding. */
+    private transient boolean recordPositions;
+    
+    /** Decides which snapshot requests are recorded. */
+    private transient SnapshotPolicy snapshotPolicy;
+    
+    /** Start times of the most recent snapshots, a ring of {@link SnapshotPolicy#getMaxPerMinute()} entries; null if unlimited. */
+    private transient long[] recentSnapshotMillis;
+    
+    /** Number of snapshots started since the ring was (re)created. */
+    private transient long snapshotCount;
+    
+    /** The latest published version; replaced (never modified) on every mutation. */
+    private final transient AtomicReference<PortfolioState> state;
+    
+    /** Notified after holdings or cash changed, with the new state. */
+    private final transient List<Consumer<PortfolioState>> changeListeners;
+    
+    /** Whether a {@link #batch(Consumer)} is being applied. */
+    private transient boolean inBatch;
+    
+    /** Whether the current batch changed holdings or cash. */
+    private transient boolean batchChanged;
+    
+    /** Holdings vector of the version the current batch will publish; {@code null} outside a batch. */
+    private transient PersistentVector<HoldingState> stagedHoldings;
+    
+    /** Lots of the holdings traded in the current batch, copied before their first trade; {@code null} outside a batch. */
+    private transient Map<Holding, TaxLots> batchLots;
+    
+    /** Number of {@code null} slots left by removals in {@link #holdings} and the holdings vector. */
+    private transient int removedSlots;
+    
+    /** History of portfolio values for performance tracking, downsampled as it ages */
+    private final PerformanceHistory performanceHistory;
 
     /**
      * Constructs a new, empty Portfolio.
@@ -32,12 +144,36 @@ public class Portfolio {
      */
     public Portfolio() {
         this.holdings = new ArrayList<>();
+        this.holdingsById = new HashMap<>();
+        this.holdingsBySymbol = new HashMap<>();
+        this.valueByAssetType = new long[AssetType.values().length];
+        this.assetTypeValues = new AssetTypeValues(valueByAssetType);
         this.cashBalance = INITIAL_CASH_BALANCE; // Set initial cash balance
         this.totalInvested = 0.0;
-        this.performanceHistory = new ArrayList<>();
+        this.performanceHistory = new PerformanceHistory();
+        this.state = new AtomicReference<>();
+        this.changeListeners = new ArrayList<>();
+        publish(PersistentVector.empty());
+        setSnapshotPolicy(SnapshotPolicy.getDefault());
         
         // Add initial snapshot
-        takeSnapshot();
+        recordSnapshot();
+    }
+    
+    /**
+     * Creates an empty portfolio that stores its positions as primitive columns; see {@link PositionColumns}.
+     *
+     * @return The new portfolio
+     */
+    public static Portfolio columnar() {
+        Portfolio portfolio = new Portfolio();
+        portfolio.columns = new PositionColumns();
+        return portfolio;
+    }
+    
+    /** @return {@code true} if the positions are stored as primitive columns (see {@link #columnar()}). */
+    public boolean isColumnar() {
+        return columns != null;
     }
 
     /**
@@ -45,9 +181,25 @@ public class Portfolio {
      * This prevents external code from directly modifying the internal list.
      * Use {@link #addHolding(Holding)}, {@link #removeHolding(Holding)}, etc., for modifications.
      *
+     * In a columnar portfolio, each element is a view of a position created on access.
+     *
      * @return An unmodifiable {@link List} of {@link Holding} objects.
      */
     public List<Holding> getHoldings() {
+        if (columns != null) {
+            return new AbstractList<Holding>() {
+                @Override
+                public Holding get(int index) {
+                    return new PositionView(Portfolio.this, columns, index);
+                }
+                
+                @Override
+                public int size() {
+                    return columns.size();
+                }
+            };
+        }
+        compact();
         return Collections.unmodifiableList(holdings);
     }
 
@@ -58,13 +210,30 @@ public class Portfolio {
      * @param holding The {@link Holding} to add.
      */
     public void addHolding(Holding holding) {
+        if (holding != null && columns != null) {
+            if (holding instanceof PositionView && ((PositionView) holding).isRowOf(columns)) {
+                System.err.println("Warning: Attempted to add a holding with duplicate ID: " + holding.getId());
+                return;
+            }
+            // Copied into a new row; the holding itself stays detached
+            addRow(holding.getSymbol(), holding.getName(), holding.getQuantity(),
+                   holding.getPurchasePricePerUnit(), holding.getPricePerUnit(), holding.getAssetType());
+            return;
+        }
         if (holding != null) {
-            // Optional: Check if a holding with the same ID already exists
-            if (holdings.stream().noneMatch(h -> h.getId().equals(holding.getId()))) {
+            // Check if a holding with the same ID already exists
+            if (!holdingsById.containsKey(holding.getId())) {
+                 holding.stateIndex = holdings.size();
                  this.holdings.add(holding);
+                 index(holding);
+                 assert verifyTotals();
                  // Update total invested
-                 this.totalInvested += holding.getPricePerUnit() * holding.getQuantity();
-                 takeSnapshot();
+                 applyInvestment(Money.value(holding.getQuantity(), holding.getPricePerUnit()));
+                 publish(holdingVector().append(new HoldingState(holding)));
+                 if (journal != null) {
+                     journal.holdingAdded(holding);
+                 }
+                 changed();
             } else {
                 // Handle duplicate ID case if necessary (e.g., log warning, throw exception)
                 System.err.println("Warning: Attempted to add a holding with duplicate ID: " + holding.getId());
@@ -72,6 +241,52 @@ public class Portfolio {
         }
     }
 
+    /**
+     * Adds a position without creating a holding object first; in a columnar portfolio this goes
+     * straight into the columns, which makes it the way to load large books.
+     *
+     * @param symbol The asset's ticker symbol.
+     * @param name The asset's full name.
+     * @param quantity The quantity held.
+     * @param purchasePrice The purchase price per unit.
+     * @param price The current price per unit.
+     * @param assetType The type of the asset.
+     * @return The added holding, or a view of the new position in a columnar portfolio.
+     */
+    public Holding addPosition(String symbol, String name, double quantity, double purchasePrice,
+                               double price, AssetType assetType) {
+        if (columns != null) {
+            return addRow(symbol, name, quantity, purchasePrice, price, assetType);
+        }
+        Holding holding = new Holding(symbol, name, quantity, purchasePrice, assetType);
+        if (price != purchasePrice) {
+            holding.setPricePerUnit(price);
+        }
+        addHolding(holding);
+        return holding;
+    }
+    
+    private Holding addRow(String symbol, String name, double quantity, double purchasePrice,
+                           double price, AssetType assetType) {
+        if (symbol == null) {
+            throw new IllegalArgumentException("Symbol cannot be null.");
+        }
+        int instrumentId = InstrumentRegistry.getInstance().intern(symbol);
+        if (name != null) {
+            columns.setName(instrumentId, name);
+        }
+        Holding view = new PositionView(this, columns, columns.add(instrumentId, quantity, purchasePrice, price, assetType));
+        syncTotals();
+        assert verifyTotals();
+        applyInvestment(Money.value(quantity, price));
+        publish();
+        if (journal != null) {
+            journal.holdingAdded(view);
+        }
+        changed();
+        return view;
+    }
+
     /**
      * Removes a specific holding from the portfolio based on its object reference or equality (ID).
      *
@@ -82,12 +297,8 @@ public class Portfolio {
         if (holding == null) {
             return false;
         }
-        // Remove based on object equality (uses Holding.equals, which checks ID)
-        boolean removed = this.holdings.remove(holding);
-        if (removed) {
-            takeSnapshot();
-        }
-        return removed;
+        // Remove based on ID (Holding.equals also checks ID)
+        return removeHoldingById(holding.getId());
     }
 
     /**
@@ -100,11 +311,41 @@ public class Portfolio {
          if (holdingId == null || holdingId.trim().isEmpty()) {
             return false;
         }
-        boolean removed = this.holdings.removeIf(h -> h.getId().equals(holdingId));
-        if (removed) {
-            takeSnapshot();
+        if (columns != null) {
+            int row = columns.rowOf(holdingId);
+            if (row < 0) {
+                return false;
+            }
+            Holding view = new PositionView(this, columns, row);
+            columns.remove(row);
+            syncTotals();
+            publish();
+            if (journal != null) {
+                journal.holdingRemoved(view);
+            }
+            changed();
+            return true;
         }
-        return removed;
+        Holding holding = holdingsById.get(holdingId);
+        if (holding == null) {
+            return false;
+        }
+        // The slot is left empty, so the holdings after it keep their index
+        int slot = holding.stateIndex;
+        unindex(holding);
+        holdings.set(slot, null);
+        holding.stateIndex = -1;
+        removedSlots++;
+        PersistentVector<HoldingState> holdingStates = holdingVector().set(slot, null);
+        if (removedSlots > holdings.size() - removedSlots) {
+            holdingStates = compact(holdingStates);
+        }
+        publish(holdingStates);
+        if (journal != null) {
+            journal.holdingRemoved(holding);
+        }
+        changed();
+        return true;
     }
 
 
@@ -118,22 +359,652 @@ public class Portfolio {
         if (holdingId == null) {
             return Optional.empty();
         }
-        return this.holdings.stream()
-                            .filter(h -> h.getId().equals(holdingId))
-                            .findFirst();
+        if (columns != null) {
+            int row = columns.rowOf(holdingId);
+            return row < 0 ? Optional.empty() : Optional.of(new PositionView(this, columns, row));
+        }
+        return Optional.ofNullable(holdingsById.get(holdingId));
+    }
+
+    /**
+     * Finds all holdings with the given ticker symbol. A columnar portfolio scans its instrument column.
+     *
+     * @param symbol The ticker symbol to look up.
+     * @return An unmodifiable list of matching holdings in insertion order; empty if there are none.
+     */
+    public List<Holding> findHoldingsBySymbol(String symbol) {
+        if (columns != null) {
+            int instrumentId = InstrumentRegistry.getInstance().lookup(symbol);
+            List<Holding> matches = new ArrayList<>();
+            for (int row = 0; instrumentId >= 0 && row < columns.size(); row++) {
+                if (columns.instrumentIdAt(row) == instrumentId) {
+                    matches.add(new PositionView(this, columns, row));
+                }
+            }
+            return Collections.unmodifiableList(matches);
+        }
+        List<Holding> matches = holdingsBySymbol.get(symbol);
+        return matches == null ? Collections.emptyList() : Collections.unmodifiableList(matches);
+    }
+
+    /**
+     * Rebuilds the lookup indexes from the holdings list.
+     * Must be called after the holdings list was populated without going through
+     * {@link #addHolding(Holding)}, e.g. after deserialization.
+     */
+    public void rebuildDerivedState() {
+        if (columns != null) {
+            columns.recomputeTotals();
+            syncTotals();
+            publish(PersistentVector.empty());
+            restoreSampling();
+            return;
+        }
+        holdingsById.clear();
+        holdingsBySymbol.clear();
+        holdings.removeIf(Objects::isNull);
+        removedSlots = 0;
+        marketValue = 0;
+        costBasis = 0;
+        Arrays.fill(valueByAssetType, 0);
+        PersistentVector<HoldingState> holdingStates = PersistentVector.empty();
+        for (int i = 0; i < holdings.size(); i++) {
+            Holding holding = holdings.get(i);
+            holding.stateIndex = i;
+            holding.shareSymbol();
+            holding.reconcileLots();
+            index(holding);
+            holdingStates = holdingStates.append(new HoldingState(holding));
+        }
+        publish(holdingStates);
+        restoreSampling();
+    }
+    
+    /**
+     * Continues snapshot sampling where the loaded history ends, instead of from the snapshot the
+     * constructor took at load time, so that a portfolio rebuilt from a ledger samples like the original.
+     * The rate-limit window is approximated from the timestamps of the latest snapshots.
+     */
+    private void restoreSampling() {
+        setSnapshotPolicy(snapshotPolicy);
+        List<PortfolioSnapshot> latest = performanceHistory.latest(
+                recentSnapshotMillis != null ? recentSnapshotMillis.length : 1);
+        if (latest.isEmpty()) {
+            lastSnapshotMillis = 0;
+            lastSnapshotStartMillis = 0;
+            lastSnapshotValue = 0;
+            return;
+        }
+        PortfolioSnapshot last = latest.get(latest.size() - 1);
+        lastSnapshotMillis = last.getEpochMillis();
+        lastSnapshotValue = last.getTotalAssetValue();
+        if (lastSnapshotStartMillis <= 0 || lastSnapshotStartMillis > lastSnapshotMillis) {
+            lastSnapshotStartMillis = lastSnapshotMillis; // saved before the start time was persisted
+        }
+        if (recentSnapshotMillis != null) {
+            for (int i = 0; i < latest.size(); i++) {
+                recentSnapshotMillis[i] = i == latest.size() - 1 ? lastSnapshotStartMillis : latest.get(i).getEpochMillis();
+            }
+            snapshotCount = latest.size();
+        }
+    }
+    
+    /**
+     * Returns the latest published version of this portfolio. Safe to call from any thread;
+     * the returned state never changes, and later mutations publish new versions.
+     *
+     * @return The current {@link PortfolioState}
+     */
+    public PortfolioState getState() {
+        return state.get();
+    }
+
+    /**
+     * Called by a holding of this portfolio after its symbol changed, to keep the symbol index current.
+     *
+     * @param holding The holding whose symbol changed.
+     * @param oldSymbol The previous symbol.
+     */
+    void onSymbolChanged(Holding holding, String oldSymbol) {
+        if (columns == null) {
+            removeFromSymbolIndex(holding, oldSymbol);
+            holdingsBySymbol.computeIfAbsent(holding.getSymbol(), s -> new ArrayList<>(1)).add(holding);
+        }
+        publish(holding);
+        if (journal != null) {
+            journal.holdingEdited(holding);
+        }
+    }
+    
+    /**
+     * Called by a holding of this portfolio after a field that does not affect its valuation changed (e.g. its name).
+     *
+     * @param holding The holding that changed.
+     */
+    void onHoldingChanged(Holding holding) {
+        publish(holding);
+        if (journal != null) {
+            journal.holdingEdited(holding);
+        }
+    }
+    
+    /**
+     * Called by a holding of this portfolio after its quantity, purchase price or asset type was set directly.
+     *
+     * @param holding The holding that changed.
+     */
+    void onHoldingEdited(Holding holding) {
+        onValuationChanged(holding);
+        if (journal != null) {
+            journal.holdingEdited(holding);
+        }
+    }
+    
+    /**
+     * Called by a holding of this portfolio after its current price was set.
+     *
+     * @param holding The holding whose price changed.
+     */
+    void onPriceMarked(Holding holding) {
+        onValuationChanged(holding);
+        if (journal != null) {
+            journal.priceMarked(holding);
+        }
+    }
+
+    private void index(Holding holding) {
+        holdingsById.put(holding.getId(), holding);
+        holdingsBySymbol.computeIfAbsent(holding.getSymbol(), s -> new ArrayList<>(1)).add(holding);
+        holding.setPortfolio(this);
+        holding.bookedValue = 0;
+        holding.bookedCost = 0;
+        holding.bookedType = null;
+        book(holding);
+    }
+
+    private void unindex(Holding holding) {
+        holdingsById.remove(holding.getId());
+        removeFromSymbolIndex(holding, holding.getSymbol());
+        holding.setPortfolio(null);
+        marketValue = Money.subtract(marketValue, holding.bookedValue);
+        costBasis = Money.subtract(costBasis, holding.bookedCost);
+        if (holding.bookedType != null) {
+            int bucket = holding.bookedType.ordinal();
+            valueByAssetType[bucket] = Money.subtract(valueByAssetType[bucket], holding.bookedValue);
+        }
+        holding.bookedValue = 0;
+        holding.bookedCost = 0;
+        holding.bookedType = null;
+    }
+
+    /** Detaches all holdings and empties the list, including the slots left by removals. */
+    private void clearHoldings() {
+        for (Holding holding : holdings) {
+            if (holding != null) {
+                holding.setPortfolio(null);
+            }
+        }
+        holdings.clear();
+        removedSlots = 0;
+    }
+
+    private void removeFromSymbolIndex(Holding holding, String symbol) {
+        List<Holding> matches = holdingsBySymbol.get(symbol);
+        if (matches != null) {
+            matches.remove(holding);
+            if (matches.isEmpty()) {
+                holdingsBySymbol.remove(symbol);
+            }
+        }
+    }
+
+    /**
+     * Drops the empty slots left by removed holdings from the holdings list and the published holdings
+     * vector, renumbering the holdings after them. Removals compact on their own once the empty slots
+     * outnumber the holdings, so this is only needed before the list is read as a whole, e.g. before it
+     * is serialized. Does nothing if no slot is empty.
+     */
+    public void compact() {
+        if (removedSlots > 0) {
+            publish(compact(holdingVector()));
+        }
+    }
+    
+    /**
+     * Compacts {@link #holdings} and renumbers the holdings; O(number of slots).
+     *
+     * @param holdingStates The holdings vector with the same empty slots as the list
+     * @return The holdings vector without the empty slots
+     */
+    private PersistentVector<HoldingState> compact(PersistentVector<HoldingState> holdingStates) {
+        PersistentVector<HoldingState> compacted = PersistentVector.empty();
+        int next = 0;
+        for (int slot = 0; slot < holdings.size(); slot++) {
+            Holding holding = holdings.get(slot);
+            if (holding != null) {
+                holding.stateIndex = next;
+                holdings.set(next++, holding);
+                compacted = compacted.append(holdingStates.get(slot));
+            }
+        }
+        holdings.subList(next, holdings.size()).clear();
+        removedSlots = 0;
+        return compacted;
+    }
+    
+    /**
+     * Applies a group of holding and cash changes as one: the changes are published as a single
+     * {@link PortfolioState}, and one snapshot is taken and the change listeners are notified once,
+     * after all changes were applied; a batch of price changes only publishes the state (see
+     * {@link #addChangeListener(Consumer)}). A batch started inside another batch joins it.
+     * <p>
+     * If {@code changes} throws, the portfolio is restored to its state before the batch before the exception
+     * propagates: holdings added or removed, cash, invested and realized amounts, the fields of the holdings
+     * (whether changed through {@link Holding} setters or by a buy or sell) and the lots of the holdings traded.
+     * Only the price points recorded by {@link Holding#setPricePerUnit(double)} stay in the price histories,
+     * and in a columnar portfolio the instrument names.
+     * </p>
+     *
+     * @param changes Applies the changes through the given {@link Batch}
+     */
+    public void batch(Consumer<Batch> changes) {
+        if (inBatch) {
+            changes.accept(new Batch());
+            return;
+        }
+        // Columns record the rows a batch adds, removes and changes instead of being copied
+        List<Holding> holdingsBefore = columns == null ? new ArrayList<>(holdings) : null;
+        if (columns != null) {
+            columns.beginUndo();
+        }
+        double cashBefore = cashBalance;
+        double investedBefore = totalInvested;
+        double realizedBefore = realizedProfitLoss;
+        PortfolioState stateBefore = state.get();
+        batchLots = columns == null ? new IdentityHashMap<>() : null;
+        stagedHoldings = holdingVector();
+        inBatch = true;
+        batchChanged = false;
+        if (journal != null) {
+            journal.batchStarted();
+        }
+        PersistentVector<HoldingState> committed;
+        try {
+            changes.accept(new Batch());
+            committed = stagedHoldings;
+        } catch (RuntimeException | Error e) {
+            if (journal != null) {
+                journal.batchFinished(false);
+            }
+            inBatch = false;
+            stagedHoldings = null;
+            if (columns != null) {
+                columns.rollback();
+            } else {
+                clearHoldings();
+                restoreHoldings(holdingsBefore, stateBefore);
+            }
+            cashBalance = cashBefore;
+            totalInvested = investedBefore;
+            realizedProfitLoss = realizedBefore;
+            rebuildDerivedState();
+            throw e;
+        } finally {
+            inBatch = false;
+            stagedHoldings = null;
+            batchLots = null;
+            if (columns != null) {
+                columns.endUndo();
+            }
+        }
+        if (journal != null) {
+            journal.batchFinished(true);
+        }
+        if (committed != state.get().getHoldingVector() || batchChanged) {
+            publish(committed);
+        }
+        if (batchChanged) {
+            recordSnapshot();
+            fireChanged();
+        }
+    }
+    
+    /**
+     * Puts back the holdings list as it was before a failed batch, with the fields each holding had then
+     * and the lots of the holdings traded in the batch.
+     *
+     * @param holdingsBefore The holdings list before the batch, possibly with empty slots
+     * @param stateBefore The version published before the batch
+     */
+    private void restoreHoldings(List<Holding> holdingsBefore, PortfolioState stateBefore) {
+        Map<String, HoldingState> statesById = new HashMap<>();
+        for (HoldingState holdingState : stateBefore.getHoldings()) {
+            statesById.put(holdingState.getId(), holdingState);
+        }
+        for (Holding holding : holdingsBefore) {
+            if (holding != null) {
+                HoldingState holdingState = statesById.get(holding.getId());
+                if (holdingState != null) {
+                    holding.restore(holdingState);
+                }
+                holdings.add(holding);
+            }
+        }
+        batchLots.forEach(Holding::restoreLots);
+    }
+    
+    /**
+     * Copies the lots of a holding before they first change in the current batch (by a trade or a quantity
+     * edit), so that a failed batch can restore them.
+     */
+    void saveLots(Holding holding) {
+        if (batchLots != null && !batchLots.containsKey(holding)) {
+            batchLots.put(holding, holding.copyLots());
+        }
+    }
+    
+    /**
+     * Called by a holding of this portfolio whose quantity was set to 0, which disposed of its open lots.
+     *
+     * @param realized The profit or loss realized by the disposal
+     */
+    void onLotsDisposed(double realized) {
+        realizedProfitLoss += realized;
+    }
+    
+    /**
+     * Registers a listener notified after holdings or cash changed (once per batch).
+     * Price changes of holdings ({@link Holding#setPricePerUnit(double)}, {@link #markPrices(double[])}) do not
+     * notify, also not when they are the only changes of a batch: whoever marks prices refreshes views and
+     * saves itself, e.g. when {@link #getState()} has a new version.
+     *
+     * @param listener Receives the state after the change
+     */
+    public void addChangeListener(Consumer<PortfolioState> listener) {
+        changeListeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener registered with {@link #addChangeListener(Consumer)}.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeChangeListener(Consumer<PortfolioState> listener) {
+        changeListeners.remove(listener);
+    }
+    
+    /** Takes a snapshot and notifies listeners of a holding or cash change, or defers both to the end of the batch. */
+    private void changed() {
+        if (inBatch) {
+            batchChanged = true;
+            return;
+        }
+        recordSnapshot();
+        fireChanged();
+    }
+    
+    /** Notifies listeners of a change that does not warrant a snapshot, or defers it to the end of the batch. */
+    private void notifyChanged() {
+        if (inBatch) {
+            batchChanged = true;
+            return;
+        }
+        fireChanged();
+    }
+    
+    private void fireChanged() {
+        PortfolioState current = state.get();
+        for (int i = 0; i < changeListeners.size(); i++) {
+            changeListeners.get(i).accept(current);
+        }
+    }
+    
+    /** @return The holdings vector of the latest version, or of the version being built by the current batch. */
+    private PersistentVector<HoldingState> holdingVector() {
+        return inBatch ? stagedHoldings : state.get().getHoldingVector();
+    }
+    
+    /** Publishes a version with the holding's current fields and the current totals. */
+    private void publish(Holding holding) {
+        if (columns != null) {
+            publish(); // the states of a columnar portfolio carry no holdings
+            return;
+        }
+        publish(holdingVector().set(holding.stateIndex, new HoldingState(holding)));
+    }
+    
+    /** Publishes a version with unchanged holdings and the current cash and totals. */
+    private void publish() {
+        publish(holdingVector());
+    }
+    
+    private void publish(PersistentVector<HoldingState> holdingStates) {
+        if (inBatch) {
+            stagedHoldings = holdingStates;
+            return;
+        }
+        PortfolioState previous = state.get();
+        long[] byType = previous != null && Arrays.equals(previous.valueByAssetType(), valueByAssetType)
+                ? previous.valueByAssetType() : valueByAssetType.clone();
+        long version = previous == null ? 0 : previous.getVersion() + 1;
+        state.set(new PortfolioState(version, holdingStates, removedSlots, cashBalance, totalInvested,
+                                     marketValue, costBasis, byType));
     }
 
 
     /**
-     * Calculates the total current value of all holdings in the portfolio.
-     * It sums the {@link Holding#getCurrentValue()} for every holding.
+     * Returns the total current value of all holdings in the portfolio.
+     * The sum of {@link Holding#getCurrentValue()} is kept up to date whenever a holding's
+     * price or quantity changes, so this is O(1).
      *
      * @return The total value as a double. Returns 0.0 if the portfolio is empty.
      */
     public double getTotalValue() {
-        return holdings.stream()
-                       .mapToDouble(Holding::getCurrentValue) // Use method reference
-                       .sum();
+        return Money.toDouble(marketValue);
+    }
+    
+    /**
+     * Returns the total current value of all holdings in {@link Money} micros.
+     * Summed exactly from the once-rounded value of each holding.
+     *
+     * @return The total value in micros.
+     */
+    public long getTotalValueMicros() {
+        return marketValue;
+    }
+    
+    /**
+     * Returns the total purchase value (cost basis) of all holdings, maintained like {@link #getTotalValue()}.
+     *
+     * @return The sum of {@link Holding#getPurchaseValue()} over all holdings.
+     */
+    public double getTotalCostBasis() {
+        return Money.toDouble(costBasis);
+    }
+    
+    /**
+     * Returns the holdings value per asset type. The view is kept current as prices, quantities
+     * and asset types change, and reading it does not allocate.
+     *
+     * @return A read-only view of the value per {@link AssetType}.
+     */
+    public AssetTypeValues getAssetTypeValues() {
+        return assetTypeValues;
+    }
+    
+    /**
+     * Returns the share of the holdings value contributed by one holding.
+     *
+     * @param holding A holding of this portfolio.
+     * @return The holding's value divided by the total holdings value, or 0 if the total is 0.
+     */
+    public double getValueContribution(Holding holding) {
+        long value = columns != null ? holding.getCurrentValueMicros() : holding.bookedValue;
+        return marketValue == 0 ? 0 : (double) value / marketValue;
+    }
+    
+    /**
+     * Estimates the heap used by this portfolio: its holdings or position rows with their price history and
+     * lots, the indexes and the performance history. The estimate is computed from the actual structure (array
+     * capacities, history chunks, lot and snapshot counts) and the object layout of the JVM (see
+     * {@link HeapLayout}), not measured, and is meant for accounting across many portfolios. Takes
+     * O(number of holdings + snapshots).
+     *
+     * @return The estimated size in bytes
+     */
+    public long estimateMemoryBytes() {
+        long bytes = PORTFOLIO_BYTES;
+        if (columns != null) {
+            bytes += columns.estimateMemoryBytes();
+        }
+        for (int i = 0; i < holdings.size(); i++) {
+            Holding holding = holdings.get(i);
+            if (holding != null) {
+                bytes += HOLDING_ENTRY_BYTES + holding.estimateMemoryBytes();
+            }
+        }
+        for (List<Holding> bySymbol : holdingsBySymbol.values()) {
+            bytes += HeapLayout.MAP_ENTRY + 2 * HeapLayout.REFERENCE
+                    + HeapLayout.object(HeapLayout.REFERENCE + 2 * Integer.BYTES)
+                    + HeapLayout.array(bySymbol.size(), HeapLayout.REFERENCE);
+        }
+        List<PortfolioSnapshot> snapshots = performanceHistory.asList();
+        PortfolioSnapshot previous = null;
+        for (int i = 0; i < snapshots.size(); i++) {
+            PortfolioSnapshot snapshot = snapshots.get(i);
+            bytes += HeapLayout.REFERENCE + snapshot.estimateMemoryBytes(previous);
+            previous = snapshot;
+        }
+        return bytes;
+    }
+    
+    /**
+     * Recomputes the valuation totals from scratch and checks them against the running totals.
+     * Intended as a debug check; it is also evaluated on every mutation when assertions are enabled.
+     *
+     * @return {@code true} if the totals are consistent.
+     * @throws IllegalStateException If the running totals have drifted from the recomputed values.
+     */
+    public boolean verifyTotals() {
+        long expectedValue = 0;
+        long expectedCost = 0;
+        long[] expectedByType = new long[valueByAssetType.length];
+        for (int row = 0; columns != null && row < columns.size(); row++) {
+            long value = Money.value(columns.quantityAt(row), columns.priceAt(row));
+            expectedValue = Money.add(expectedValue, value);
+            expectedCost = Money.add(expectedCost, Money.value(columns.quantityAt(row), columns.costAt(row)));
+            int bucket = typeIndex(columns.typeAt(row));
+            expectedByType[bucket] = Money.add(expectedByType[bucket], value);
+        }
+        for (Holding holding : holdings) {
+            if (holding == null) {
+                continue;
+            }
+            long value = holding.getCurrentValueMicros();
+            expectedValue = Money.add(expectedValue, value);
+            expectedCost = Money.add(expectedCost, holding.getPurchaseValueMicros());
+            int bucket = typeIndex(holding.getAssetType());
+            expectedByType[bucket] = Money.add(expectedByType[bucket], value);
+        }
+        // Micros add exactly, so the running totals must match to the last digit
+        if (marketValue != expectedValue || costBasis != expectedCost) {
+            throw new IllegalStateException(String.format(
+                    "Running totals out of sync: value %d (expected %d), cost %d (expected %d) micros",
+                    marketValue, expectedValue, costBasis, expectedCost));
+        }
+        for (int i = 0; i < expectedByType.length; i++) {
+            if (valueByAssetType[i] != expectedByType[i]) {
+                throw new IllegalStateException(String.format(
+                        "Running %s value out of sync: %d (expected %d) micros",
+                        AssetType.values()[i], valueByAssetType[i], expectedByType[i]));
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Called by a holding of this portfolio after its price, quantity, purchase price or asset type changed.
+     * Applies the difference to the running totals.
+     *
+     * @param holding The holding that changed.
+     */
+    void onValuationChanged(Holding holding) {
+        if (columns != null) {
+            syncTotals();
+        } else {
+            book(holding);
+        }
+        assert verifyTotals();
+        publish(holding);
+    }
+    
+    /**
+     * Brings the running totals in line with the holding's current value and cost.
+     */
+    private void book(Holding holding) {
+        long value = holding.getCurrentValueMicros();
+        long cost = holding.getPurchaseValueMicros();
+        AssetType type = holding.getAssetType() != null ? holding.getAssetType() : AssetType.OTHER;
+        marketValue = Money.add(marketValue, Money.subtract(value, holding.bookedValue));
+        costBasis = Money.add(costBasis, Money.subtract(cost, holding.bookedCost));
+        if (holding.bookedType != null) {
+            int bucket = holding.bookedType.ordinal();
+            valueByAssetType[bucket] = Money.subtract(valueByAssetType[bucket], holding.bookedValue);
+        }
+        valueByAssetType[type.ordinal()] = Money.add(valueByAssetType[type.ordinal()], value);
+        holding.bookedValue = value;
+        holding.bookedCost = cost;
+        holding.bookedType = type;
+    }
+    
+    /** Takes the running totals of a columnar portfolio from its columns, which maintain them by delta. */
+    private void syncTotals() {
+        marketValue = columns.getMarketValue();
+        costBasis = columns.getCostBasis();
+        columns.copyValueByAssetType(valueByAssetType);
+    }
+    
+    /**
+     * Sets the current price of all holdings from a price per instrument ID, e.g. from a price board.
+     * A columnar portfolio without a journal updates its price column and totals in one pass and publishes
+     * once; otherwise each changed holding is marked like with {@link Holding#setPricePerUnit(double)}.
+     *
+     * @param pricesByInstrument Price indexed by {@link InstrumentRegistry} ID; holdings of instruments beyond
+     *                           its length, or with a price that is not positive, keep their price
+     * @return The number of holdings whose price changed
+     */
+    public int markPrices(double[] pricesByInstrument) {
+        if (columns != null && journal == null) {
+            int changed = columns.markPrices(pricesByInstrument);
+            if (changed > 0) {
+                syncTotals();
+                assert verifyTotals();
+                publish();
+            }
+            return changed;
+        }
+        int changed = 0;
+        List<Holding> all = columns != null ? getHoldings() : holdings;
+        for (int i = 0; i < all.size(); i++) {
+            Holding holding = all.get(i);
+            if (holding == null) {
+                continue;
+            }
+            int instrumentId = holding.getInstrumentId();
+            if (instrumentId >= 0 && instrumentId < pricesByInstrument.length) {
+                double price = pricesByInstrument[instrumentId];
+                if (price > 0 && price != holding.getPricePerUnit()) {
+                    holding.setPricePerUnit(price);
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /** Holdings without a type are counted as {@link AssetType#OTHER}. */
+    private static int typeIndex(AssetType type) {
+        return type == null ? AssetType.OTHER.ordinal() : type.ordinal();
     }
     
     /**
@@ -141,7 +1012,15 @@ public class Portfolio {
      * @return The total assets value
      */
     public double getTotalAssetValue() {
-        return getTotalValue() + cashBalance;
+        return Money.toDouble(getTotalAssetValueMicros());
+    }
+    
+    /**
+     * Calculates the total assets value (holdings value + cash balance) in {@link Money} micros.
+     * @return The total assets value in micros
+     */
+    public long getTotalAssetValueMicros() {
+        return Money.add(marketValue, Money.fromDouble(cashBalance));
     }
     
     /**
@@ -149,7 +1028,7 @@ public class Portfolio {
      * @return The profit/loss amount (positive for profit, negative for loss)
      */
     public double getProfitLoss() {
-        return getTotalAssetValue() - INITIAL_CASH_BALANCE;
+        return Money.toDouble(Money.subtract(getTotalAssetValueMicros(), Money.fromDouble(INITIAL_CASH_BALANCE)));
     }
     
     /**
@@ -164,9 +1043,21 @@ public class Portfolio {
      * Clears all holdings from the portfolio.
      */
     public void clear() {
-        this.holdings.clear();
+        if (columns != null) {
+            columns.clear();
+        }
+        clearHoldings();
+        this.holdingsById.clear();
+        this.holdingsBySymbol.clear();
+        this.marketValue = 0;
+        this.costBasis = 0;
+        Arrays.fill(this.valueByAssetType, 0);
         this.totalInvested = 0.0;
-        takeSnapshot();
+        publish(PersistentVector.empty());
+        if (journal != null) {
+            journal.cleared();
+        }
+        changed();
     }
     
     /**
@@ -174,11 +1065,26 @@ public class Portfolio {
      * and the initial cash balance of 100 million.
      */
     public void reset() {
-        this.holdings.clear();
+        if (columns != null) {
+            columns.clear();
+        }
+        clearHoldings();
+        this.holdingsById.clear();
+        this.holdingsBySymbol.clear();
+        this.marketValue = 0;
+        this.costBasis = 0;
+        Arrays.fill(this.valueByAssetType, 0);
         this.cashBalance = INITIAL_CASH_BALANCE;
         this.totalInvested = 0.0;
+        this.realizedProfitLoss = 0.0;
+        publish(PersistentVector.empty());
         this.performanceHistory.clear();
-        takeSnapshot();
+        this.lastSnapshotMillis = 0;
+        setSnapshotPolicy(snapshotPolicy);
+        if (journal != null) {
+            journal.reset();
+        }
+        changed();
     }
     
     /**
@@ -195,11 +1101,17 @@ public class Portfolio {
      * @return true if sufficient funds are available, false otherwise.
      */
     public boolean deductCash(double amount) {
-        if (amount > cashBalance) {
+        long balance = Money.fromDouble(cashBalance);
+        long deduction = Money.fromDouble(amount);
+        if (deduction > balance) {
             return false; // Insufficient funds
         }
-        cashBalance -= amount;
-        takeSnapshot();
+        cashBalance = Money.toDouble(balance - deduction);
+        publish();
+        if (journal != null) {
+            journal.cashChanged(-amount);
+        }
+        changed();
         return true;
     }
     
@@ -208,8 +1120,12 @@ public class Portfolio {
      * @param amount The amount to add.
      */
     public void addCash(double amount) {
-        cashBalance += amount;
-        takeSnapshot();
+        cashBalance = Money.toDouble(Money.add(Money.fromDouble(cashBalance), Money.fromDouble(amount)));
+        publish();
+        if (journal != null) {
+            journal.cashChanged(amount);
+        }
+        changed();
     }
     
     /**
@@ -225,7 +1141,13 @@ public class Portfolio {
      * @param holding The holding being added
      */
     public void addInvestment(Holding holding) {
-        this.totalInvested += holding.getPricePerUnit() * holding.getQuantity();
+        long amount = Money.value(holding.getQuantity(), holding.getPricePerUnit());
+        applyInvestment(amount);
+        publish();
+        if (journal != null) {
+            journal.investedChanged(Money.toDouble(amount));
+        }
+        notifyChanged();
     }
     
     /**
@@ -233,8 +1155,13 @@ public class Portfolio {
      * @param holding The holding being removed
      */
     public void removeInvestment(Holding holding) {
-        this.totalInvested -= holding.getPricePerUnit() * holding.getQuantity();
-        if (this.totalInvested < 0) this.totalInvested = 0;
+        long amount = -Money.value(holding.getQuantity(), holding.getPricePerUnit());
+        applyInvestment(amount);
+        publish();
+        if (journal != null) {
+            journal.investedChanged(Money.toDouble(amount));
+        }
+        notifyChanged();
     }
     
     /**
@@ -242,21 +1169,252 @@ public class Portfolio {
      * @param amount The amount to add or subtract.
      */
     public void updateTotalInvested(double amount) {
-        this.totalInvested += amount;
-        if (this.totalInvested < 0) this.totalInvested = 0;
+        applyInvestment(Money.fromDouble(amount));
+        publish();
+        if (journal != null) {
+            journal.investedChanged(amount);
+        }
+        notifyChanged();
+    }
+    
+    /**
+     * Buys more units of a holding as a new tax lot and adds their cost to the total invested.
+     * The cash is not touched; deduct it separately.
+     * @param holding A holding of this portfolio
+     * @param quantity The number of units bought
+     * @param price The price paid per unit
+     * @return The new lot
+     */
+    public TaxLot buy(Holding holding, double quantity, double price) {
+        requireHolding(holding);
+        saveLots(holding);
+        TaxLot lot = holding.buy(quantity, price);
+        applyInvestment(Money.value(quantity, price));
+        publish();
+        if (journal != null) {
+            journal.bought(holding, quantity, price);
+        }
+        changed();
+        return lot;
+    }
+    
+    /**
+     * Sells units of a holding, matched against its tax lots with the {@link #getLotMethod() lot method},
+     * and adds the realized profit or loss. The holding stays in the portfolio even if all units were sold,
+     * and the proceeds are not added to the cash; do both separately.
+     * @param holding A holding of this portfolio
+     * @param quantity The number of units sold
+     * @param price The sale price per unit
+     * @return The profit or loss realized by the sale
+     */
+    public double sell(Holding holding, double quantity, double price) {
+        requireHolding(holding);
+        saveLots(holding);
+        double realized = holding.sell(quantity, price, lotMethod);
+        realizedProfitLoss += realized;
+        publish();
+        if (journal != null) {
+            journal.sold(holding, quantity, price);
+        }
+        changed();
+        return realized;
+    }
+    
+    private void requireHolding(Holding holding) {
+        if (columns != null) {
+            if (!(holding instanceof PositionView) || !((PositionView) holding).isRowOf(columns)) {
+                throw new IllegalArgumentException("Holding is not part of this portfolio: " + holding);
+            }
+            return;
+        }
+        if (holding == null || holdingsById.get(holding.getId()) != holding) {
+            throw new IllegalArgumentException("Holding is not part of this portfolio: " + holding);
+        }
+    }
+    
+    /**
+     * Gets the profit or loss realized by sales, and by quantities set to 0, since the last reset.
+     * @return The realized profit/loss
+     */
+    public double getRealizedProfitLoss() {
+        return realizedProfitLoss;
+    }
+    
+    /** @return How sales are matched against tax lots. */
+    public LotMethod getLotMethod() {
+        return lotMethod;
+    }
+    
+    /**
+     * Sets how future sales are matched against tax lots.
+     * @param lotMethod The lot matching method
+     */
+    public void setLotMethod(LotMethod lotMethod) {
+        if (lotMethod == null) {
+            throw new IllegalArgumentException("Lot method cannot be null.");
+        }
+        this.lotMethod = lotMethod;
+        if (journal != null) {
+            journal.lotMethodChanged(lotMethod);
+        }
+    }
+    
+    /** @return The sequence number of the last ledger event reflected in this portfolio; 0 if none. */
+    public long getLedgerSequence() {
+        return ledgerSequence;
+    }
+    
+    /**
+     * Records which ledger event this portfolio reflects; set by the ledger before a checkpoint is saved.
+     * @param ledgerSequence The sequence number of the last event applied
+     */
+    public void setLedgerSequence(long ledgerSequence) {
+        this.ledgerSequence = ledgerSequence;
+    }
+    
+    /** @return The journal receiving the changes of this portfolio, or {@code null}. */
+    public PortfolioJournal getJournal() {
+        return journal;
+    }
+    
+    /**
+     * Installs the journal that receives every subsequent change of this portfolio as an event.
+     * @param journal The journal, or {@code null} to stop journaling
+     */
+    public void setJournal(PortfolioJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Adds an amount to the total invested, clamped at 0: holdings are removed at their current value,
+     * so removing one that rose above what was invested would otherwise make the total negative.
+     */
+    private void applyInvestment(long amountMicros) {
+        long invested = Money.add(Money.fromDouble(totalInvested), amountMicros);
+        this.totalInvested = invested < 0 ? 0 : Money.toDouble(invested);
     }
     
     /**
-     * Takes a snapshot of the current portfolio state for performance tracking.
-     * This should be called after significant changes to the portfolio.
+     * Requests a snapshot of the current portfolio state for performance tracking.
+     * The snapshot is recorded only if the {@link SnapshotPolicy} says one is due; otherwise the
+     * request is dropped and the next due snapshot captures the state.
      */
     public void takeSnapshot() {
+        if (inBatch) {
+            return; // the batch takes its snapshot when it completes
+        }
+        if (journal != null) {
+            journal.snapshotRequested();
+        }
+        sample(false);
+    }
+    
+    /**
+     * Records the state after a change that must show up in the history (a trade or cash movement):
+     * as a new snapshot if one is due, otherwise merged into the latest snapshot.
+     */
+    private void recordSnapshot() {
+        sample(true);
+    }
+    
+    private void sample(boolean forced) {
+        // A tick applied after a user action may carry a slightly earlier tick time
+        long now = Math.max(lastSnapshotMillis, MarketClock.getDefault().millis());
         double totalValue = getTotalValue();
-        performanceHistory.add(new PortfolioSnapshot(totalValue, cashBalance));
+        double totalAssetValue = getTotalAssetValue();
+        boolean due = performanceHistory.size() == 0
+                || snapshotPolicy.isDue(now, totalAssetValue, lastSnapshotStartMillis, lastSnapshotValue, windowStartMillis());
+        if (!due && !forced) {
+            return;
+        }
+        if (snapshotAssetTypeMicros == null || !Arrays.equals(snapshotAssetTypeMicros, valueByAssetType)) {
+            snapshotAssetTypeMicros = valueByAssetType.clone();
+            snapshotAssetTypeValues = new double[valueByAssetType.length];
+            assetTypeValues.copyTo(snapshotAssetTypeValues);
+        }
+        PositionFrame positions = recordPositions ? encodePositions() : null;
+        PortfolioSnapshot snapshot = new PortfolioSnapshot(totalValue, cashBalance, now, totalAssetValue,
+                totalAssetValue, totalAssetValue, 1, snapshotAssetTypeValues, positions);
+        if (due) {
+            performanceHistory.add(snapshot);
+            lastSnapshotStartMillis = now;
+            if (recentSnapshotMillis != null) {
+                recentSnapshotMillis[(int) (snapshotCount % recentSnapshotMillis.length)] = now;
+            }
+            snapshotCount++;
+        } else {
+            performanceHistory.mergeIntoLatest(snapshot);
+        }
+        lastSnapshotMillis = now;
+        lastSnapshotValue = totalAssetValue;
+    }
+    
+    private PositionFrame encodePositions() {
+        PositionFrame.Encoder encoder = performanceHistory.getPositionEncoder();
+        for (int row = 0; columns != null && row < columns.size(); row++) {
+            encoder.put(PositionColumns.idOf(columns.keyAt(row)), columns.symbolAt(row),
+                        columns.quantityAt(row), columns.priceAt(row));
+        }
+        for (int i = 0; i < holdings.size(); i++) {
+            Holding holding = holdings.get(i);
+            if (holding == null) {
+                continue;
+            }
+            encoder.put(holding.getId(), holding.getSymbol(), holding.getQuantity(), holding.getPricePerUnit());
+        }
+        return encoder.finish();
+    }
+    
+    /**
+     * Checks whether snapshots record the quantity and price of every holding.
+     * @return {@code true} if position recording is enabled
+     */
+    public boolean isRecordPositions() {
+        return recordPositions;
     }
     
     /**
-     * Takes a snapshot of the current portfolio state for performance tracking.
+     * Enables or disables recording the quantity and price of every holding with each snapshot
+     * (see {@link PortfolioSnapshot#getPositions()}). Positions are delta-encoded, so holdings that did
+     * not change since the previous snapshot cost almost nothing.
+     * @param recordPositions {@code true} to record positions
+     */
+    public void setRecordPositions(boolean recordPositions) {
+        this.recordPositions = recordPositions;
+    }
+    
+    /** Start time of the snapshot that would leave the rate window, or {@link Long#MIN_VALUE} if the window is not full. */
+    private long windowStartMillis() {
+        if (recentSnapshotMillis == null || snapshotCount < recentSnapshotMillis.length) {
+            return Long.MIN_VALUE;
+        }
+        return recentSnapshotMillis[(int) (snapshotCount % recentSnapshotMillis.length)];
+    }
+    
+    /**
+     * Gets the policy deciding when snapshots are recorded.
+     * @return The snapshot policy
+     */
+    public SnapshotPolicy getSnapshotPolicy() {
+        return snapshotPolicy;
+    }
+    
+    /**
+     * Sets the policy deciding when snapshots are recorded.
+     * @param snapshotPolicy The snapshot policy
+     */
+    public void setSnapshotPolicy(SnapshotPolicy snapshotPolicy) {
+        if (snapshotPolicy == null) {
+            throw new IllegalArgumentException("Snapshot policy cannot be null.");
+        }
+        this.snapshotPolicy = snapshotPolicy;
+        int maxPerMinute = snapshotPolicy.getMaxPerMinute();
+        this.recentSnapshotMillis = maxPerMinute == Integer.MAX_VALUE ? null : new long[maxPerMinute];
+        this.snapshotCount = 0;
+    }
+    
+    /**
+     * Requests a snapshot of the current portfolio state for performance tracking.
      * Alias for takeSnapshot() to maintain backward compatibility.
      */
     public void snapshotPerformance() {
@@ -265,10 +1423,55 @@ public class Portfolio {
     
     /**
      * Gets the performance history of the portfolio.
-     * @return A list of {@link PortfolioSnapshot} representing the performance history.
+     * Older entries are OHLC buckets rolled up by {@link PerformanceHistory}.
+     * @return A read-only chronological list of {@link PortfolioSnapshot} representing the performance history.
      */
     public List<PortfolioSnapshot> getPerformanceHistory() {
-        return Collections.unmodifiableList(performanceHistory);
+        return performanceHistory.asList();
+    }
+    
+    /**
+     * Gets the performance history within a time range, found by binary search.
+     * @param from The start of the range (inclusive)
+     * @param to The end of the range (inclusive)
+     * @return A read-only chronological view of the snapshots in the range; not copied
+     */
+    public List<PortfolioSnapshot> historyBetween(Instant from, Instant to) {
+        return performanceHistory.between(from.toEpochMilli(), to.toEpochMilli());
+    }
+    
+    /**
+     * Gets the total assets value recorded at a point in time, i.e. by the newest snapshot at or before it.
+     * @param instant The point in time
+     * @return The total assets value, or empty if the history starts after that time
+     */
+    public OptionalDouble valueAt(Instant instant) {
+        PortfolioSnapshot snapshot = performanceHistory.at(instant.toEpochMilli());
+        return snapshot == null ? OptionalDouble.empty() : OptionalDouble.of(snapshot.getTotalAssetValue());
+    }
+    
+    /**
+     * Gets the value of all holdings of a symbol at a point in time, from the newest snapshot at or
+     * before it that recorded positions (see {@link #setRecordPositions(boolean)}).
+     * @param symbol The ticker symbol
+     * @param instant The point in time
+     * @return The value of the symbol's holdings, or empty if no such snapshot recorded positions
+     */
+    public OptionalDouble positionValueAt(String symbol, Instant instant) {
+        PortfolioSnapshot snapshot = performanceHistory.at(instant.toEpochMilli());
+        if (snapshot == null || snapshot.getPositions() == null) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(snapshot.getPositions().valueOf(symbol));
+    }
+    
+    /**
+     * Gets the most recent part of the performance history.
+     * @param count The maximum number of snapshots
+     * @return A read-only chronological view of at most {@code count} snapshots; not copied
+     */
+    public List<PortfolioSnapshot> latestN(int count) {
+        return performanceHistory.latest(count);
     }
     
     /**
@@ -278,4 +1481,72 @@ public class Portfolio {
     public double getInitialCashBalance() {
         return INITIAL_CASH_BALANCE;
     }
+
+    /**
+     * The changes available inside {@link Portfolio#batch(Consumer)}. Each method behaves like the
+     * portfolio method of the same name, except that snapshot and notification happen once for the batch.
+     */
+    public final class Batch {
+        private Batch() {
+        }
+
+        /** @param holding The {@link Holding} to add. */
+        public void addHolding(Holding holding) {
+            Portfolio.this.addHolding(holding);
+        }
+
+        /**
+         * @param holding The {@link Holding} to remove.
+         * @return {@code true} if the holding was found and removed.
+         */
+        public boolean removeHolding(Holding holding) {
+            return Portfolio.this.removeHolding(holding);
+        }
+
+        /**
+         * @param holdingId The ID of the holding to remove.
+         * @return {@code true} if a holding with the given ID was found and removed.
+         */
+        public boolean removeHoldingById(String holdingId) {
+            return Portfolio.this.removeHoldingById(holdingId);
+        }
+
+        /** @param amount The amount to add to the cash balance. */
+        public void addCash(double amount) {
+            Portfolio.this.addCash(amount);
+        }
+
+        /**
+         * @param amount The amount to deduct from the cash balance.
+         * @return {@code true} if sufficient funds were available.
+         */
+        public boolean deductCash(double amount) {
+            return Portfolio.this.deductCash(amount);
+        }
+
+        /**
+         * @param holding A holding of the portfolio
+         * @param quantity The number of units bought
+         * @param price The price paid per unit
+         * @return The new lot
+         */
+        public TaxLot buy(Holding holding, double quantity, double price) {
+            return Portfolio.this.buy(holding, quantity, price);
+        }
+
+        /**
+         * @param holding A holding of the portfolio
+         * @param quantity The number of units sold
+         * @param price The sale price per unit
+         * @return The profit or loss realized by the sale
+         */
+        public double sell(Holding holding, double quantity, double price) {
+            return Portfolio.this.sell(holding, quantity, price);
+        }
+
+        /** @param amount The amount to add to (or, if negative, subtract from) the total invested. */
+        public void updateTotalInvested(double amount) {
+            Portfolio.this.updateTotalInvested(amount);
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package com.investtrack.model;
+
+/**
+ * Receives every change made to a {@link Portfolio} as a typed event, e.g. to append it to a ledger
+ * from which the portfolio can be rebuilt. Events are reported after the change was applied, on the
+ * thread that made it; the current time of {@link MarketClock#getDefault()} is the time of the event.
+ * <p>
+ * Changes of a top-level {@link Portfolio#batch(java.util.function.Consumer) batch} are reported between
+ * {@link #batchStarted()} and {@link #batchFinished(boolean)}; if the batch is rolled back, its events
+ * must be discarded. Installed with {@link Portfolio#setJournal(PortfolioJournal)}.
+ * </p>
+ */
+public interface PortfolioJournal {
+
+    /** A top-level batch started. */
+    void batchStarted();
+
+    /**
+     * The current top-level batch ended.
+     *
+     * @param committed {@code false} if the batch was rolled back and its events must be discarded
+     */
+    void batchFinished(boolean committed);
+
+    /** @param holding A holding was added with its current fields. */
+    void holdingAdded(Holding holding);
+
+    /** @param holding A holding was removed. */
+    void holdingRemoved(Holding holding);
+
+    /** @param holding Fields of a holding other than its price were set; reports their new values. */
+    void holdingEdited(Holding holding);
+
+    /**
+     * Units of a holding were bought as a new lot, see {@link Portfolio#buy(Holding, double, double)}.
+     *
+     * @param holding The holding
+     * @param quantity The number of units bought
+     * @param price The price paid per unit
+     */
+    void bought(Holding holding, double quantity, double price);
+
+    /**
+     * Units of a holding were sold, see {@link Portfolio#sell(Holding, double, double)}.
+     *
+     * @param holding The holding
+     * @param quantity The number of units sold
+     * @param price The sale price per unit
+     */
+    void sold(Holding holding, double quantity, double price);
+
+    /** @param holding The current price of a holding was set. */
+    void priceMarked(Holding holding);
+
+    /** @param amount Cash was added (positive) or deducted (negative). */
+    void cashChanged(double amount);
+
+    /** @param amount The total invested was changed by this amount. */
+    void investedChanged(double amount);
+
+    /** @param method The lot matching method was changed. */
+    void lotMethodChanged(LotMethod method);
+
+    /** A snapshot was requested with {@link Portfolio#takeSnapshot()}. */
+    void snapshotRequested();
+
+    /** All holdings were removed with {@link Portfolio#clear()}. */
+    void cleared();
+
+    /** The portfolio was reset with {@link Portfolio#reset()}. */
+    void reset();
+}
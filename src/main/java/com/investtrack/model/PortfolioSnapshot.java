@@ -5,24 +5,128 @@ import java.time.LocalDateTime;
 /**
  * Represents a snapshot of the portfolio's value at a specific point in time.
  * Used for tracking performance history and generating charts.
+ * The time is stored in epoch milliseconds and converted to a {@link LocalDateTime} only on request.
+ * <p>
+ * A snapshot either describes a single moment or, once rolled up by {@link PerformanceHistory},
+ * a time bucket. Bucket snapshots keep open/high/low of the total asset value; holdings value and
+ * cash balance are those of the last sample in the bucket (the close).
+ * </p><p>
+ * The holdings value per {@link AssetType} is kept in a primitive array indexed by
+ * {@link AssetType#ordinal()}. Consecutive snapshots with an unchanged breakdown share one array.
+ * Optionally, a snapshot also carries the quantity and price of every holding as a {@link PositionFrame}.
+ * </p>
  */
 public class PortfolioSnapshot {
     private final double totalValue;
     private final double cashBalance;
-    private final LocalDateTime timestamp;
-    
+    private final long epochMillis;
+    private final double open;
+    private final double high;
+    private final double low;
+    private final int sampleCount;
+    /** Holdings value per asset type, indexed by ordinal; {@code null} if not recorded. Never modified. */
+    private final double[] assetTypeValues;
+    /** Quantity and price per holding; {@code null} if not recorded. */
+    private final PositionFrame positions;
+
     /**
-     * Creates a snapshot of the portfolio at the current time.
-     * 
+     * Creates a snapshot of the portfolio at the current {@link MarketClock} time.
+     *
      * @param totalValue The total value of all holdings
      * @param cashBalance The available cash balance
      */
     public PortfolioSnapshot(double totalValue, double cashBalance) {
+        this(totalValue, cashBalance, MarketClock.getDefault().millis());
+    }
+
+    /**
+     * Creates a snapshot of the portfolio at the given time.
+     *
+     * @param totalValue The total value of all holdings
+     * @param cashBalance The available cash balance
+     * @param epochMillis The time of the snapshot in epoch milliseconds
+     */
+    public PortfolioSnapshot(double totalValue, double cashBalance, long epochMillis) {
+        this(totalValue, cashBalance, epochMillis, null);
+    }
+
+    /**
+     * Creates a snapshot of the portfolio at the given time, including the value per asset type.
+     *
+     * @param totalValue The total value of all holdings
+     * @param cashBalance The available cash balance
+     * @param epochMillis The time of the snapshot in epoch milliseconds
+     * @param assetTypeValues The holdings value per asset type indexed by {@link AssetType#ordinal()},
+     *                        or {@code null}; the array is kept, not copied, and must not be modified afterwards
+     */
+    public PortfolioSnapshot(double totalValue, double cashBalance, long epochMillis, double[] assetTypeValues) {
+        this(totalValue, cashBalance, epochMillis,
+             totalValue + cashBalance, totalValue + cashBalance, totalValue + cashBalance, 1, assetTypeValues);
+    }
+
+    /**
+     * Creates a snapshot describing a time bucket.
+     *
+     * @param totalValue The holdings value at the close of the bucket
+     * @param cashBalance The cash balance at the close of the bucket
+     * @param epochMillis The start of the bucket in epoch milliseconds
+     * @param open The first total asset value in the bucket
+     * @param high The highest total asset value in the bucket
+     * @param low The lowest total asset value in the bucket
+     * @param sampleCount The number of snapshots rolled into the bucket
+     * @param assetTypeValues The holdings value per asset type at the close of the bucket, or {@code null};
+     *                        the array is kept, not copied, and must not be modified afterwards
+     */
+    public PortfolioSnapshot(double totalValue, double cashBalance, long epochMillis,
+                             double open, double high, double low, int sampleCount, double[] assetTypeValues) {
+        this(totalValue, cashBalance, epochMillis, open, high, low, sampleCount, assetTypeValues, null);
+    }
+
+    /**
+     * Creates a snapshot describing a time bucket, including the positions at its close.
+     *
+     * @param totalValue The holdings value at the close of the bucket
+     * @param cashBalance The cash balance at the close of the bucket
+     * @param epochMillis The start of the bucket in epoch milliseconds
+     * @param open The first total asset value in the bucket
+     * @param high The highest total asset value in the bucket
+     * @param low The lowest total asset value in the bucket
+     * @param sampleCount The number of snapshots rolled into the bucket
+     * @param assetTypeValues The holdings value per asset type at the close of the bucket, or {@code null};
+     *                        the array is kept, not copied, and must not be modified afterwards
+     * @param positions The quantity and price per holding at the close of the bucket, or {@code null}
+     */
+    public PortfolioSnapshot(double totalValue, double cashBalance, long epochMillis,
+                             double open, double high, double low, int sampleCount, double[] assetTypeValues,
+                             PositionFrame positions) {
         this.totalValue = totalValue;
         this.cashBalance = cashBalance;
-        this.timestamp = LocalDateTime.now();
+        this.epochMillis = epochMillis;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.sampleCount = sampleCount;
+        this.assetTypeValues = assetTypeValues;
+        this.positions = positions;
+    }
+
+    /**
+     * Rolls a later snapshot into this one, producing a bucket starting at {@code bucketStart}.
+     *
+     * @param later The later snapshot to merge, or {@code null} to just re-label this one as a bucket
+     * @param bucketStart The start of the resulting bucket in epoch milliseconds
+     * @return The merged bucket snapshot
+     */
+    PortfolioSnapshot mergedWith(PortfolioSnapshot later, long bucketStart) {
+        if (later == null) {
+            return new PortfolioSnapshot(totalValue, cashBalance, bucketStart, open, high, low,
+                                         sampleCount, assetTypeValues, positions);
+        }
+        return new PortfolioSnapshot(later.totalValue, later.cashBalance, bucketStart, open,
+                                     Math.max(high, later.high), Math.min(low, later.low),
+                                     sampleCount + later.sampleCount, later.assetTypeValues, later.positions);
     }
-    
+
     /**
      * Gets the total assets value (holdings + cash) at the time of the snapshot
      * @return The total assets value
@@ -30,15 +134,36 @@ public class PortfolioSnapshot {
     public double getTotalAssetValue() {
         return totalValue + cashBalance;
     }
-    
+
     /**
-     * Gets the timestamp when this snapshot was created
+     * Gets the timestamp when this snapshot was created, in the system time zone
      * @return The timestamp of this snapshot
      */
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return MarketClock.toLocalDateTime(epochMillis);
+    }
+
+    /**
+     * Gets the time when this snapshot was created (or its bucket started)
+     * @return The timestamp in epoch milliseconds
+     */
+    public long getEpochMillis() {
+        return epochMillis;
     }
-    
+
+    /**
+     * Estimates the heap used by this snapshot and its position frame.
+     * @param previous The snapshot before this one, whose asset type values may be shared; {@code null} if none
+     * @return The estimated size in bytes
+     */
+    long estimateMemoryBytes(PortfolioSnapshot previous) {
+        long bytes = HeapLayout.object(6 * Double.BYTES + Integer.BYTES + 2 * HeapLayout.REFERENCE);
+        if (assetTypeValues != null && (previous == null || previous.assetTypeValues != assetTypeValues)) {
+            bytes += HeapLayout.array(assetTypeValues.length, Double.BYTES);
+        }
+        return positions == null ? bytes : bytes + positions.estimateMemoryBytes();
+    }
+
     /**
      * Gets the total value of all holdings (excluding cash)
      * @return The total holdings value
@@ -46,7 +171,7 @@ public class PortfolioSnapshot {
     public double getTotalValue() {
         return totalValue;
     }
-    
+
     /**
      * Gets the cash balance at the time of this snapshot
      * @return The cash balance
@@ -54,4 +179,62 @@ public class PortfolioSnapshot {
     public double getCashBalance() {
         return cashBalance;
     }
+
+    /**
+     * Gets the first total assets value covered by this snapshot
+     * @return The opening total assets value
+     */
+    public double getOpen() {
+        return open;
+    }
+
+    /**
+     * Gets the highest total assets value covered by this snapshot
+     * @return The highest total assets value
+     */
+    public double getHigh() {
+        return high;
+    }
+
+    /**
+     * Gets the lowest total assets value covered by this snapshot
+     * @return The lowest total assets value
+     */
+    public double getLow() {
+        return low;
+    }
+
+    /**
+     * Gets the number of snapshots this one was rolled up from (1 for a raw snapshot)
+     * @return The sample count
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Checks whether this snapshot recorded the holdings value per asset type
+     * (snapshots saved by older versions did not)
+     * @return {@code true} if {@link #getAssetTypeValue(AssetType)} reflects recorded data
+     */
+    public boolean hasAssetTypeValues() {
+        return assetTypeValues != null;
+    }
+
+    /**
+     * Gets the holdings value of one asset type at the time of this snapshot
+     * @param type The asset type
+     * @return The recorded value, or 0 if the breakdown was not recorded
+     */
+    public double getAssetTypeValue(AssetType type) {
+        return assetTypeValues == null ? 0 : assetTypeValues[type.ordinal()];
+    }
+
+    /**
+     * Gets the quantity and price of every holding at the time of this snapshot
+     * @return The positions, or {@code null} if they were not recorded
+     */
+    public PositionFrame getPositions() {
+        return positions;
+    }
 }
@@ -0,0 +1,113 @@
+package com.investtrack.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One immutable version of a {@link Portfolio}: its holdings, cash and valuation totals.
+ * <p>
+ * The portfolio publishes a new version after every mutation. Versions share the unchanged parts of
+ * their holdings vector (see {@link PersistentVector}), so a price change costs a few small array
+ * copies, and a reader on any thread can hold on to a version for as long as it needs a consistent
+ * view (e.g. while saving or drawing a chart) without locking or copying.
+ * </p>
+ */
+public final class PortfolioState {
+    private final long version;
+    private final PersistentVector<HoldingState> holdings;
+    /** Number of {@code null} slots left in {@link #holdings} by removed holdings. */
+    private final int removedSlots;
+    /** {@link #holdings} without the empty slots, built on first use by any thread. */
+    private volatile List<HoldingState> holdingList;
+    private final double cashBalance;
+    private final double totalInvested;
+    private final long marketValue;
+    private final long costBasis;
+    /** Value per asset type in micros; shared with the previous version while unchanged, never modified. */
+    private final long[] valueByAssetType;
+    private final AssetTypeValues assetTypeValues;
+
+    PortfolioState(long version, PersistentVector<HoldingState> holdings, int removedSlots, double cashBalance,
+                   double totalInvested, long marketValue, long costBasis, long[] valueByAssetType) {
+        this.version = version;
+        this.holdings = holdings;
+        this.removedSlots = removedSlots;
+        this.cashBalance = cashBalance;
+        this.totalInvested = totalInvested;
+        this.marketValue = marketValue;
+        this.costBasis = costBasis;
+        this.valueByAssetType = valueByAssetType;
+        this.assetTypeValues = new AssetTypeValues(valueByAssetType);
+    }
+
+    /** @return The version number; each published version is one higher than the previous. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** @return The holdings of this version, in portfolio order. */
+    public List<HoldingState> getHoldings() {
+        if (removedSlots == 0) {
+            return holdings.asList();
+        }
+        List<HoldingState> list = holdingList;
+        if (list == null) {
+            list = new ArrayList<>(holdings.size() - removedSlots);
+            for (int i = 0; i < holdings.size(); i++) {
+                if (holdings.get(i) != null) {
+                    list.add(holdings.get(i));
+                }
+            }
+            holdingList = list = Collections.unmodifiableList(list);
+        }
+        return list;
+    }
+
+    /**
+     * @return The holdings of this version as a persistent vector, in portfolio order; holdings removed since
+     *         the portfolio last compacted its holdings leave {@code null} slots
+     */
+    public PersistentVector<HoldingState> getHoldingVector() {
+        return holdings;
+    }
+
+    /** @return The cash balance. */
+    public double getCashBalance() {
+        return cashBalance;
+    }
+
+    /** @return The total invested amount. */
+    public double getTotalInvested() {
+        return totalInvested;
+    }
+
+    /** @return The total value of all holdings. */
+    public double getTotalValue() {
+        return Money.toDouble(marketValue);
+    }
+
+    /** @return The total value of all holdings in {@link Money} micros. */
+    public long getTotalValueMicros() {
+        return marketValue;
+    }
+
+    /** @return The total purchase value (cost basis) of all holdings. */
+    public double getTotalCostBasis() {
+        return Money.toDouble(costBasis);
+    }
+
+    /** @return The total assets value (holdings value + cash balance). */
+    public double getTotalAssetValue() {
+        return Money.toDouble(Money.add(marketValue, Money.fromDouble(cashBalance)));
+    }
+
+    /** @return The holdings value per {@link AssetType} of this version. */
+    public AssetTypeValues getAssetTypeValues() {
+        return assetTypeValues;
+    }
+
+    long[] valueByAssetType() {
+        return valueByAssetType;
+    }
+}
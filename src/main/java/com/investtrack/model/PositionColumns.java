@@ -0,0 +1,542 @@
+package com.investtrack.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The positions of a columnar {@link Portfolio}, stored as parallel primitive columns instead of
+ * {@link Holding} objects: instrument ID, quantity, cost (purchase price per unit), last price and asset
+ * type ordinal per row, plus a row key. A row costs 37 bytes, against several hundred for a holding with
+ * its ID string, strings, price history and lots.
+ * <p>
+ * Rows are kept in the order they were added; each gets the next key, so the keys are ascending and a row
+ * is found by binary search. The holding ID of a row is derived from its key ({@link #idOf(long)}), the symbol
+ * from its instrument ID, and the name is kept once per instrument. Positions keep no price history and no
+ * tax lots. The market value, cost basis and value per asset type are maintained by delta on every change,
+ * like {@link Portfolio} does for holdings. Not thread-safe.
+ * </p>
+ */
+public final class PositionColumns {
+    private static final String ID_PREFIX = "#";
+    private static final byte NO_TYPE = -1;
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    /** Kinds of undo log entries holding a row's fields. */
+    private static final long UNDO_REMOVED = 0;
+    private static final long UNDO_CHANGED = 1;
+
+    private long[] keys = new long[16];
+    private int[] instrumentIds = new int[16];
+    private double[] quantities = new double[16];
+    private double[] costs = new double[16];
+    private double[] prices = new double[16];
+    private byte[] types = new byte[16];
+    private int size;
+    private long nextKey = 1;
+    /** Incremented whenever rows move, so views know when to look up their row again. */
+    private int layoutVersion;
+    /** Name per instrument ID; {@code null} entries for instruments without a name. */
+    private String[] namesByInstrument = new String[16];
+
+    private long marketValue;
+    private long costBasis;
+    private final long[] valueByAssetType = new long[ASSET_TYPES.length];
+
+    /** Rows added, removed and changed since {@link #beginUndo()}, newest last; {@code null} when not recording. */
+    private List<long[]> undoLog;
+    private long undoNextKey;
+
+    /** @return The number of rows. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param instrumentId The {@link InstrumentRegistry} ID of the symbol
+     * @param quantity The quantity held
+     * @param cost The purchase price per unit
+     * @param price The current price per unit
+     * @param type The asset type, or {@code null}
+     * @return The index of the new row
+     */
+    public int add(int instrumentId, double quantity, double cost, double price, AssetType type) {
+        if (instrumentId < 0) {
+            throw new IllegalArgumentException("Invalid instrument ID: " + instrumentId);
+        }
+        long key = nextKey++;
+        insert(size, key, instrumentId, quantity, cost, price, type == null ? NO_TYPE : (byte) type.ordinal());
+        if (undoLog != null) {
+            undoLog.add(new long[] {key});
+        }
+        return size - 1;
+    }
+
+    /**
+     * Removes a row; the rows after it move up by one.
+     *
+     * @param row The index of the row
+     */
+    public void remove(int row) {
+        checkRow(row);
+        if (undoLog != null) {
+            undoLog.add(rowEntry(row, UNDO_REMOVED));
+        }
+        unbook(row);
+        int moved = size - row - 1;
+        System.arraycopy(keys, row + 1, keys, row, moved);
+        System.arraycopy(instrumentIds, row + 1, instrumentIds, row, moved);
+        System.arraycopy(quantities, row + 1, quantities, row, moved);
+        System.arraycopy(costs, row + 1, costs, row, moved);
+        System.arraycopy(prices, row + 1, prices, row, moved);
+        System.arraycopy(types, row + 1, types, row, moved);
+        size--;
+        layoutVersion++;
+    }
+
+    /** Removes all rows. Keys are not reused. */
+    public void clear() {
+        if (undoLog != null) {
+            // Record every row, so that a failed batch can restore them
+            while (size > 0) {
+                remove(size - 1);
+            }
+            return;
+        }
+        size = 0;
+        marketValue = 0;
+        costBasis = 0;
+        Arrays.fill(valueByAssetType, 0);
+        layoutVersion++;
+    }
+
+    private void insert(int row, long key, int instrumentId, double quantity, double cost, double price, byte type) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            instrumentIds = Arrays.copyOf(instrumentIds, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            costs = Arrays.copyOf(costs, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        int moved = size - row;
+        if (moved > 0) {
+            System.arraycopy(keys, row, keys, row + 1, moved);
+            System.arraycopy(instrumentIds, row, instrumentIds, row + 1, moved);
+            System.arraycopy(quantities, row, quantities, row + 1, moved);
+            System.arraycopy(costs, row, costs, row + 1, moved);
+            System.arraycopy(prices, row, prices, row + 1, moved);
+            System.arraycopy(types, row, types, row + 1, moved);
+            layoutVersion++;
+        }
+        keys[row] = key;
+        instrumentIds[row] = instrumentId;
+        quantities[row] = quantity;
+        costs[row] = cost;
+        prices[row] = price;
+        types[row] = type;
+        size++;
+        book(row);
+    }
+
+    // --- Undo of added, removed and changed rows, for failed batches ---
+
+    /** @return An undo log entry holding the fields of a row, removed or about to change. */
+    private long[] rowEntry(int row, long kind) {
+        return new long[] {keys[row], instrumentIds[row], Double.doubleToRawLongBits(quantities[row]),
+                           Double.doubleToRawLongBits(costs[row]), Double.doubleToRawLongBits(prices[row]), types[row], kind};
+    }
+
+    /** Records the fields of a row before they change, if a batch is being recorded. */
+    private void recordChange(int row) {
+        if (undoLog != null) {
+            undoLog.add(rowEntry(row, UNDO_CHANGED));
+        }
+    }
+
+    /** Starts recording added, removed and changed rows, so that {@link #rollback()} can restore them. */
+    void beginUndo() {
+        undoLog = new ArrayList<>();
+        undoNextKey = nextKey;
+    }
+
+    /** Stops recording and keeps the changes. */
+    void endUndo() {
+        undoLog = null;
+    }
+
+    /** Reverts the rows added, removed and changed since {@link #beginUndo()} and stops recording. */
+    void rollback() {
+        List<long[]> log = undoLog;
+        undoLog = null;
+        for (int i = log.size() - 1; i >= 0; i--) {
+            long[] entry = log.get(i);
+            if (entry.length == 1) {
+                int row = rowOf(entry[0]);
+                if (row >= 0) {
+                    remove(row);
+                }
+            } else if (entry[6] == UNDO_CHANGED) {
+                int row = rowOf(entry[0]);
+                unbook(row);
+                instrumentIds[row] = (int) entry[1];
+                quantities[row] = Double.longBitsToDouble(entry[2]);
+                costs[row] = Double.longBitsToDouble(entry[3]);
+                prices[row] = Double.longBitsToDouble(entry[4]);
+                types[row] = (byte) entry[5];
+                book(row);
+            } else {
+                int row = -Arrays.binarySearch(keys, 0, size, entry[0]) - 1;
+                insert(row, entry[0], (int) entry[1], Double.longBitsToDouble(entry[2]),
+                       Double.longBitsToDouble(entry[3]), Double.longBitsToDouble(entry[4]), (byte) entry[5]);
+            }
+        }
+        nextKey = undoNextKey;
+    }
+
+    // --- Lookup ---
+
+    /**
+     * @param key A row key
+     * @return The index of the row with that key, or -1 if there is none
+     */
+    public int rowOf(long key) {
+        int row = Arrays.binarySearch(keys, 0, size, key);
+        return row >= 0 ? row : -1;
+    }
+
+    /**
+     * @param id A holding ID
+     * @return The index of the row with that ID, or -1 if there is none
+     */
+    public int rowOf(String id) {
+        long key = keyOf(id);
+        return key < 0 ? -1 : rowOf(key);
+    }
+
+    /**
+     * @param key A row key
+     * @return The holding ID of the row with that key
+     */
+    public static String idOf(long key) {
+        return ID_PREFIX + key;
+    }
+
+    /**
+     * @param id A holding ID
+     * @return The row key encoded in the ID, or -1 if it is not the ID of a row
+     */
+    public static long keyOf(String id) {
+        if (id == null || !id.startsWith(ID_PREFIX) || id.length() == ID_PREFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(id, ID_PREFIX.length(), id.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** @return A counter that changes whenever rows move to another index. */
+    int layoutVersion() {
+        return layoutVersion;
+    }
+
+    // --- Columns ---
+
+    /**
+     * @param row A row index
+     * @return The key of the row
+     */
+    public long keyAt(int row) {
+        return keys[checkRow(row)];
+    }
+
+    /**
+     * @param row A row index
+     * @return The instrument ID of the row
+     */
+    public int instrumentIdAt(int row) {
+        return instrumentIds[checkRow(row)];
+    }
+
+    /**
+     * @param row A row index
+     * @return The symbol of the row
+     */
+    public String symbolAt(int row) {
+        return InstrumentRegistry.getInstance().symbolOf(instrumentIdAt(row));
+    }
+
+    /**
+     * @param row A row index
+     * @return The name of the row's instrument, or {@code null}
+     */
+    public String nameAt(int row) {
+        int instrumentId = instrumentIdAt(row);
+        return instrumentId < namesByInstrument.length ? namesByInstrument[instrumentId] : null;
+    }
+
+    /**
+     * @param row A row index
+     * @return The quantity held
+     */
+    public double quantityAt(int row) {
+        return quantities[checkRow(row)];
+    }
+
+    /**
+     * @param row A row index
+     * @return The purchase price per unit
+     */
+    public double costAt(int row) {
+        return costs[checkRow(row)];
+    }
+
+    /**
+     * @param row A row index
+     * @return The current price per unit
+     */
+    public double priceAt(int row) {
+        return prices[checkRow(row)];
+    }
+
+    /**
+     * @param row A row index
+     * @return The asset type, or {@code null}
+     */
+    public AssetType typeAt(int row) {
+        byte type = types[checkRow(row)];
+        return type == NO_TYPE ? null : ASSET_TYPES[type];
+    }
+
+    /**
+     * Sets the name of an instrument, shared by all its rows.
+     *
+     * @param instrumentId The instrument ID
+     * @param name The name, or {@code null}
+     */
+    public void setName(int instrumentId, String name) {
+        if (instrumentId >= namesByInstrument.length) {
+            if (name == null) {
+                return;
+            }
+            namesByInstrument = Arrays.copyOf(namesByInstrument, Math.max(instrumentId + 1, namesByInstrument.length * 2));
+        }
+        namesByInstrument[instrumentId] = name;
+    }
+
+    /**
+     * @param row A row index
+     * @param instrumentId The new instrument ID
+     */
+    public void setInstrumentId(int row, int instrumentId) {
+        if (instrumentId < 0) {
+            throw new IllegalArgumentException("Invalid instrument ID: " + instrumentId);
+        }
+        recordChange(checkRow(row));
+        instrumentIds[row] = instrumentId;
+    }
+
+    /**
+     * @param row A row index
+     * @param quantity The new quantity
+     */
+    public void setQuantity(int row, double quantity) {
+        recordChange(checkRow(row));
+        unbook(row);
+        quantities[row] = quantity;
+        book(row);
+    }
+
+    /**
+     * @param row A row index
+     * @param cost The new purchase price per unit
+     */
+    public void setCost(int row, double cost) {
+        recordChange(checkRow(row));
+        unbook(row);
+        costs[row] = cost;
+        book(row);
+    }
+
+    /**
+     * @param row A row index
+     * @param price The new current price per unit
+     */
+    public void setPrice(int row, double price) {
+        recordChange(checkRow(row));
+        unbook(row);
+        prices[row] = price;
+        book(row);
+    }
+
+    /**
+     * @param row A row index
+     * @param type The new asset type, or {@code null}
+     */
+    public void setType(int row, AssetType type) {
+        recordChange(checkRow(row));
+        unbook(row);
+        types[row] = type == null ? NO_TYPE : (byte) type.ordinal();
+        book(row);
+    }
+
+    /**
+     * Sets the quantity and cost of a row at once, e.g. for a trade.
+     *
+     * @param row A row index
+     * @param quantity The new quantity
+     * @param cost The new purchase price per unit
+     */
+    void setPosition(int row, double quantity, double cost) {
+        recordChange(checkRow(row));
+        unbook(row);
+        quantities[row] = quantity;
+        costs[row] = cost;
+        book(row);
+    }
+
+    /**
+     * Sets the price of every row from a price per instrument ID and recomputes the totals in one pass.
+     *
+     * @param pricesByInstrument Price indexed by instrument ID; instruments beyond its length, or with a
+     *                           price that is not positive, keep their price
+     * @return The number of rows whose price changed
+     */
+    public int markPrices(double[] pricesByInstrument) {
+        int changed = 0;
+        for (int row = 0; row < size; row++) {
+            int instrumentId = instrumentIds[row];
+            if (instrumentId < pricesByInstrument.length) {
+                double price = pricesByInstrument[instrumentId];
+                if (price > 0 && price != prices[row]) {
+                    recordChange(row);
+                    prices[row] = price;
+                    changed++;
+                }
+            }
+        }
+        if (changed > 0) {
+            recomputeTotals();
+        }
+        return changed;
+    }
+
+    // --- Totals ---
+
+    /** @return The sum of the row values (quantity * price) in {@link Money} micros. */
+    public long getMarketValue() {
+        return marketValue;
+    }
+
+    /** @return The sum of the row costs (quantity * cost) in {@link Money} micros. */
+    public long getCostBasis() {
+        return costBasis;
+    }
+
+    /**
+     * @return The heap used by the columns at their current capacity, including the names, which are shared
+     *         by all positions in an instrument
+     */
+    long estimateMemoryBytes() {
+        long bytes = HeapLayout.object(9 * HeapLayout.REFERENCE + 2 * Integer.BYTES + 3 * Long.BYTES)
+                + HeapLayout.array(keys.length, Long.BYTES)
+                + HeapLayout.array(instrumentIds.length, Integer.BYTES)
+                + 3 * HeapLayout.array(quantities.length, Double.BYTES)
+                + HeapLayout.array(types.length, Byte.BYTES)
+                + HeapLayout.array(namesByInstrument.length, HeapLayout.REFERENCE)
+                + HeapLayout.array(valueByAssetType.length, Long.BYTES);
+        for (String name : namesByInstrument) {
+            bytes += HeapLayout.string(name);
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies the value per asset type into an array indexed by {@link AssetType#ordinal()}.
+     *
+     * @param valueByAssetType Receives the values in micros; rows without a type count as {@link AssetType#OTHER}
+     */
+    public void copyValueByAssetType(long[] valueByAssetType) {
+        System.arraycopy(this.valueByAssetType, 0, valueByAssetType, 0, this.valueByAssetType.length);
+    }
+
+    /** Recomputes the totals from all rows, e.g. after the columns were loaded. */
+    public void recomputeTotals() {
+        long value = 0;
+        long cost = 0;
+        Arrays.fill(valueByAssetType, 0);
+        for (int row = 0; row < size; row++) {
+            long rowValue = Money.value(quantities[row], prices[row]);
+            value = Money.add(value, rowValue);
+            cost = Money.add(cost, Money.value(quantities[row], costs[row]));
+            int bucket = typeIndex(row);
+            valueByAssetType[bucket] = Money.add(valueByAssetType[bucket], rowValue);
+        }
+        marketValue = value;
+        costBasis = cost;
+    }
+
+    private void book(int row) {
+        long value = Money.value(quantities[row], prices[row]);
+        marketValue = Money.add(marketValue, value);
+        costBasis = Money.add(costBasis, Money.value(quantities[row], costs[row]));
+        int bucket = typeIndex(row);
+        valueByAssetType[bucket] = Money.add(valueByAssetType[bucket], value);
+    }
+
+    /** Takes a row out of the totals; values are recomputed from the columns, so they match what was booked. */
+    private void unbook(int row) {
+        long value = Money.value(quantities[row], prices[row]);
+        marketValue = Money.subtract(marketValue, value);
+        costBasis = Money.subtract(costBasis, Money.value(quantities[row], costs[row]));
+        int bucket = typeIndex(row);
+        valueByAssetType[bucket] = Money.subtract(valueByAssetType[bucket], value);
+    }
+
+    /** Rows without a type are counted as {@link AssetType#OTHER}. */
+    private int typeIndex(int row) {
+        return types[row] == NO_TYPE ? AssetType.OTHER.ordinal() : types[row];
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + size + " rows");
+        }
+        return row;
+    }
+
+    // --- Persistence ---
+
+    /** @return The key the next row will get; saved so that keys, and with them IDs, are never reused. */
+    public long getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Restores a saved row. Used when loading a portfolio: rows are restored in key order, followed by
+     * {@link #restoreNextKey(long)} and {@link #recomputeTotals()}.
+     *
+     * @param key The row key
+     * @param instrumentId The instrument ID
+     * @param quantity The quantity held
+     * @param cost The purchase price per unit
+     * @param price The current price per unit
+     * @param type The asset type, or {@code null}
+     */
+    public void restoreRow(long key, int instrumentId, double quantity, double cost, double price, AssetType type) {
+        if (size > 0 && key <= keys[size - 1]) {
+            throw new IllegalArgumentException("Rows must be restored in ascending key order: " + key);
+        }
+        insert(size, key, instrumentId, quantity, cost, price, type == null ? NO_TYPE : (byte) type.ordinal());
+        nextKey = Math.max(nextKey, key + 1);
+    }
+
+    /** @param nextKey The saved {@link #getNextKey()} */
+    public void restoreNextKey(long nextKey) {
+        this.nextKey = Math.max(this.nextKey, nextKey);
+    }
+}
@@ -0,0 +1,270 @@
+package com.investtrack.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Quantity and price of every holding as of one {@link PortfolioSnapshot}, delta-encoded.
+ * <p>
+ * Positions are identified by dense slot numbers assigned by an {@link Encoder} (one slot per holding ID
+ * and symbol). A frame stores only the slots whose quantity or price changed since the previous frame,
+ * in three parallel columns (slot, quantity, price) sorted by slot, and refers to that previous frame
+ * as its base. Every {@value #KEYFRAME_INTERVAL}th frame is a key frame holding all open positions,
+ * which bounds the work to read a frame and lets older frames be collected once no snapshot refers
+ * to them. A slot with quantity 0 is not held.
+ * </p>
+ */
+public final class PositionFrame {
+    /** Number of frames from one key frame to the next. */
+    static final int KEYFRAME_INTERVAL = 32;
+
+    /** The frame this one is a delta against, or {@code null} for a key frame. */
+    private final PositionFrame base;
+    private final Dictionary dictionary;
+    /** Number of slots that existed when the frame was encoded. */
+    private final int slotCount;
+    private final int[] slots;
+    private final double[] quantities;
+    private final double[] prices;
+
+    private PositionFrame(PositionFrame base, Dictionary dictionary, int slotCount,
+                          int[] slots, double[] quantities, double[] prices) {
+        this.base = base;
+        this.dictionary = dictionary;
+        this.slotCount = slotCount;
+        this.slots = slots;
+        this.quantities = quantities;
+        this.prices = prices;
+    }
+
+    /** @return {@code true} if this frame does not depend on an earlier one. */
+    public boolean isKeyFrame() {
+        return base == null;
+    }
+
+    /** @return The number of entries stored in this frame itself (changed positions, or all for a key frame). */
+    public int entryCount() {
+        return slots.length;
+    }
+
+    /** @return The heap used by this frame itself; the base frame and the dictionary are shared and not counted. */
+    long estimateMemoryBytes() {
+        return HeapLayout.object(5 * HeapLayout.REFERENCE + Integer.BYTES)
+                + HeapLayout.array(slots.length, Integer.BYTES)
+                + HeapLayout.array(quantities.length, Double.BYTES)
+                + HeapLayout.array(prices.length, Double.BYTES);
+    }
+
+    /** @return The number of slots; slot numbers of this frame are below this value. */
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @param slot A slot number
+     * @return The ID of the holding in that slot
+     */
+    public String holdingIdAt(int slot) {
+        return dictionary.ids[checkSlot(slot)];
+    }
+
+    /**
+     * @param slot A slot number
+     * @return The symbol of the holding in that slot
+     */
+    public String symbolAt(int slot) {
+        return dictionary.symbols[checkSlot(slot)];
+    }
+
+    /**
+     * @param slot A slot number
+     * @return The quantity held in that slot; 0 if the position was not held
+     */
+    public double quantityAt(int slot) {
+        checkSlot(slot);
+        for (PositionFrame frame = this; frame != null; frame = frame.base) {
+            int index = Arrays.binarySearch(frame.slots, slot);
+            if (index >= 0) {
+                return frame.quantities[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param slot A slot number
+     * @return The price per unit in that slot; 0 if the position was not held
+     */
+    public double priceAt(int slot) {
+        checkSlot(slot);
+        for (PositionFrame frame = this; frame != null; frame = frame.base) {
+            int index = Arrays.binarySearch(frame.slots, slot);
+            if (index >= 0) {
+                return frame.prices[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Rebuilds all positions of this frame into the given columns, indexed by slot.
+     *
+     * @param quantities Receives the quantity per slot; at least {@link #slotCount()} elements
+     * @param prices Receives the price per slot; at least {@link #slotCount()} elements
+     */
+    public void copyTo(double[] quantities, double[] prices) {
+        if (base == null) {
+            Arrays.fill(quantities, 0, slotCount, 0);
+            Arrays.fill(prices, 0, slotCount, 0);
+        } else {
+            base.copyTo(quantities, prices);
+            // Slots added after the base was encoded
+            Arrays.fill(quantities, base.slotCount, slotCount, 0);
+            Arrays.fill(prices, base.slotCount, slotCount, 0);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            quantities[slots[i]] = this.quantities[i];
+            prices[slots[i]] = this.prices[i];
+        }
+    }
+
+    /**
+     * Sums the value (quantity * price) of all positions with the given symbol.
+     *
+     * @param symbol The ticker symbol
+     * @return The value of the symbol's positions in this frame; 0 if none was held
+     */
+    public double valueOf(String symbol) {
+        double value = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (symbol.equals(dictionary.symbols[slot])) {
+                value += quantityAt(slot) * priceAt(slot);
+            }
+        }
+        return value;
+    }
+
+    private int checkSlot(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of bounds for " + slotCount + " slots");
+        }
+        return slot;
+    }
+
+    /** Append-only slot table shared by all frames of one encoder. */
+    private static final class Dictionary {
+        private String[] ids = new String[16];
+        private String[] symbols = new String[16];
+    }
+
+    /**
+     * Encodes successive sets of positions into delta frames. Call {@link #put} for every holding,
+     * then {@link #finish()}; positions not put are recorded as closed. Not thread-safe.
+     */
+    public static final class Encoder {
+        private final Dictionary dictionary = new Dictionary();
+        private final Map<String, Integer> slotsById = new HashMap<>();
+        private int slotCount;
+        private double[] previousQuantities = new double[16];
+        private double[] previousPrices = new double[16];
+        private double[] quantities = new double[16];
+        private double[] prices = new double[16];
+        private PositionFrame previous;
+        private int framesSinceKey;
+
+        /**
+         * Records the position of one holding in the frame being built.
+         *
+         * @param holdingId The holding ID
+         * @param symbol The ticker symbol
+         * @param quantity The quantity held
+         * @param price The price per unit
+         */
+        public void put(String holdingId, String symbol, double quantity, double price) {
+            Integer slot = slotsById.get(holdingId);
+            if (slot == null || !Objects.equals(symbol, dictionary.symbols[slot])) {
+                // New holding, or its symbol changed: the position continues in a new slot
+                slot = newSlot(holdingId, symbol);
+            }
+            quantities[slot] = quantity;
+            prices[slot] = price;
+        }
+
+        /**
+         * Completes the frame from the positions put since the previous call.
+         *
+         * @return The encoded frame
+         */
+        public PositionFrame finish() {
+            boolean key = previous == null || framesSinceKey + 1 >= KEYFRAME_INTERVAL;
+            int changed = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (key ? quantities[slot] != 0 : isChanged(slot)) {
+                    changed++;
+                }
+            }
+            int[] slots = new int[changed];
+            double[] frameQuantities = new double[changed];
+            double[] framePrices = new double[changed];
+            int i = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (key ? quantities[slot] != 0 : isChanged(slot)) {
+                    slots[i] = slot;
+                    frameQuantities[i] = quantities[slot];
+                    framePrices[i] = quantities[slot] == 0 ? 0 : prices[slot];
+                    i++;
+                }
+            }
+            previous = new PositionFrame(key ? null : previous, dictionary, slotCount, slots, frameQuantities, framePrices);
+            framesSinceKey = key ? 0 : framesSinceKey + 1;
+
+            // The current columns become the previous ones; start the next frame empty
+            double[] swap = previousQuantities;
+            previousQuantities = quantities;
+            quantities = swap;
+            swap = previousPrices;
+            previousPrices = prices;
+            prices = swap;
+            Arrays.fill(quantities, 0, slotCount, 0);
+            Arrays.fill(prices, 0, slotCount, 0);
+            return previous;
+        }
+
+        /** Forgets all previous frames; the next frame is a key frame. Slots are kept. */
+        public void reset() {
+            previous = null;
+            framesSinceKey = 0;
+            Arrays.fill(previousQuantities, 0, slotCount, 0);
+            Arrays.fill(previousPrices, 0, slotCount, 0);
+            Arrays.fill(quantities, 0, slotCount, 0);
+            Arrays.fill(prices, 0, slotCount, 0);
+        }
+
+        private boolean isChanged(int slot) {
+            if (quantities[slot] != previousQuantities[slot]) {
+                return true;
+            }
+            // The price of a closed position is irrelevant
+            return quantities[slot] != 0 && prices[slot] != previousPrices[slot];
+        }
+
+        private int newSlot(String holdingId, String symbol) {
+            int slot = slotCount++;
+            if (slot == dictionary.ids.length) {
+                int capacity = slot * 2;
+                dictionary.ids = Arrays.copyOf(dictionary.ids, capacity);
+                dictionary.symbols = Arrays.copyOf(dictionary.symbols, capacity);
+                previousQuantities = Arrays.copyOf(previousQuantities, capacity);
+                previousPrices = Arrays.copyOf(previousPrices, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+            }
+            dictionary.ids[slot] = holdingId;
+            dictionary.symbols[slot] = symbol;
+            slotsById.put(holdingId, slot);
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.investtrack.model;
+
+import java.util.Objects;
+
+/**
+ * A {@link Holding} backed by one row of a columnar portfolio's {@link PositionColumns}, created on demand
+ * by {@link Portfolio#getHoldings()} and the lookup methods. Reads and writes go to the row, and changes
+ * notify the portfolio like the setters of a holding do. Its ID is derived from the row key, so like holdings,
+ * views are equal if their IDs are.
+ * <p>
+ * The view follows its row by key when other rows are added or removed. It has no price history, and its
+ * lots are a single lot at the purchase price, built on each call; trades use the average cost.
+ * </p>
+ */
+final class PositionView extends Holding {
+    private final Portfolio portfolio;
+    private final PositionColumns columns;
+    private final long key;
+    private int row;
+    private int layoutVersion;
+
+    PositionView(Portfolio portfolio, PositionColumns columns, int row) {
+        super(PositionColumns.idOf(columns.keyAt(row)));
+        this.portfolio = portfolio;
+        this.columns = columns;
+        this.key = columns.keyAt(row);
+        this.row = row;
+        this.layoutVersion = columns.layoutVersion();
+    }
+
+    /** @return The current index of the row. */
+    private int row() {
+        if (layoutVersion != columns.layoutVersion()) {
+            row = columns.rowOf(key);
+            layoutVersion = columns.layoutVersion();
+        }
+        if (row < 0) {
+            throw new IllegalStateException("Position " + getId() + " was removed from the portfolio.");
+        }
+        return row;
+    }
+
+    /** @return {@code true} if the row of this view is still part of the given columns. */
+    boolean isRowOf(PositionColumns columns) {
+        return this.columns == columns && columns.rowOf(key) >= 0;
+    }
+
+    @Override
+    public void addPricePoint(double price) {
+        // Positions keep no price history
+    }
+
+    // --- Getters ---
+
+    @Override
+    public String getSymbol() { return columns.symbolAt(row()); }
+    @Override
+    public int getInstrumentId() { return columns.instrumentIdAt(row()); }
+    @Override
+    public String getName() { return columns.nameAt(row()); }
+    @Override
+    public double getQuantity() { return columns.quantityAt(row()); }
+    @Override
+    public double getPricePerUnit() { return columns.priceAt(row()); }
+    @Override
+    public double getPurchasePricePerUnit() { return columns.costAt(row()); }
+    @Override
+    public AssetType getAssetType() { return columns.typeAt(row()); }
+
+    /** @return A new single lot of the whole quantity at the purchase price; changing it does not affect the position. */
+    @Override
+    public TaxLots getLots() {
+        TaxLots lots = new TaxLots();
+        double quantity = getQuantity();
+        if (quantity > 0) {
+            lots.buy(quantity, getPurchasePricePerUnit(), MarketClock.getDefault().millis());
+        }
+        return lots;
+    }
+
+    // --- Trades ---
+
+    @Override
+    TaxLot buy(double quantity, double price) {
+        int row = row();
+        double held = columns.quantityAt(row);
+        double total = held + quantity;
+        double cost = total > 0 ? (held * columns.costAt(row) + quantity * price) / total : price;
+        columns.setPosition(row, total, cost);
+        portfolio.onValuationChanged(this);
+        return new TaxLot(MarketClock.getDefault().millis(), quantity, price);
+    }
+
+    /** Sells at the average cost, whatever the method, as a position has no lots. */
+    @Override
+    double sell(double quantity, double price, LotMethod method) {
+        int row = row();
+        double held = columns.quantityAt(row);
+        if (!(quantity > 0)) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+        if (quantity > held * (1 + 1e-9)) {
+            throw new IllegalArgumentException("Cannot sell " + quantity + " units, only " + held + " held.");
+        }
+        double cost = columns.costAt(row);
+        double left = held - quantity;
+        columns.setPosition(row, left > 1e-9 * held ? left : 0, cost);
+        portfolio.onValuationChanged(this);
+        return quantity * (price - cost);
+    }
+
+    // --- Setters ---
+
+    @Override
+    public void setSymbol(String symbol) {
+        String oldSymbol = getSymbol();
+        if (!Objects.equals(oldSymbol, symbol)) {
+            columns.setInstrumentId(row(), InstrumentRegistry.getInstance().intern(symbol));
+            portfolio.onSymbolChanged(this, oldSymbol);
+        }
+    }
+
+    /** Sets the name of the instrument, which all positions in it share. */
+    @Override
+    public void setName(String name) {
+        columns.setName(getInstrumentId(), name);
+        portfolio.onHoldingChanged(this);
+    }
+
+    @Override
+    public void setQuantity(double quantity) {
+        columns.setQuantity(row(), quantity);
+        portfolio.onHoldingEdited(this);
+    }
+
+    @Override
+    public void setPricePerUnit(double pricePerUnit) {
+        columns.setPrice(row(), pricePerUnit);
+        portfolio.onPriceMarked(this);
+    }
+
+    @Override
+    public void setPurchasePricePerUnit(double purchasePricePerUnit) {
+        columns.setCost(row(), purchasePricePerUnit);
+        portfolio.onHoldingEdited(this);
+    }
+
+    @Override
+    public void setAssetType(AssetType assetType) {
+        columns.setType(row(), assetType);
+        portfolio.onHoldingEdited(this);
+    }
+
+    // --- Valuation ---
+
+    @Override
+    public double getCurrentValue() {
+        int row = row();
+        return columns.quantityAt(row) * columns.priceAt(row);
+    }
+
+    @Override
+    public double getPurchaseValue() {
+        int row = row();
+        return columns.quantityAt(row) * columns.costAt(row);
+    }
+
+    @Override
+    public long getCurrentValueMicros() {
+        int row = row();
+        return Money.value(columns.quantityAt(row), columns.priceAt(row));
+    }
+
+    @Override
+    public long getPurchaseValueMicros() {
+        int row = row();
+        return Money.value(columns.quantityAt(row), columns.costAt(row));
+    }
+
+    @Override
+    public double getPriceChange() {
+        int row = row();
+        return columns.priceAt(row) - columns.costAt(row);
+    }
+
+    @Override
+    public double getPriceChangePercentage() {
+        double cost = getPurchasePricePerUnit();
+        if (cost == 0) return 0;
+        return (getPriceChange() / cost) * 100;
+    }
+
+    // --- Object Overrides ---
+
+    @Override
+    public String toString() {
+        return getSymbol() + " - " + getQuantity() + " units @ " + getPricePerUnit();
+    }
+}
@@ -0,0 +1,80 @@
+package com.investtrack.model;
+
+import java.util.Arrays;
+
+/**
+ * Error tolerances for the online compression of price histories, per {@link AssetType}.
+ * <p>
+ * A tolerance is relative to the price (0.005 = 0.5%). {@link PriceSeries#addCompressed(double, long, double)}
+ * keeps only the points needed so that linear interpolation between the stored points stays within
+ * that tolerance of every recorded price. A tolerance of 0 still drops points lying exactly on a line
+ * (e.g. an unchanged price); a negative tolerance disables compression.
+ * </p><p>
+ * Instances are immutable; the one used by {@link Holding} is set with {@link #setDefault(PriceCompression)}.
+ * </p>
+ */
+public final class PriceCompression {
+    /** Tolerance of a type that records every point. */
+    private static final double DISABLED = -1;
+
+    private static volatile PriceCompression defaultCompression = new PriceCompression(new double[AssetType.values().length])
+            .withTolerance(AssetType.STOCK, 0.0025)
+            .withTolerance(AssetType.BOND, 0.001)
+            .withTolerance(AssetType.ETF, 0.0025)
+            .withTolerance(AssetType.FUND, 0.0025)
+            .withTolerance(AssetType.CRYPTO, 0.005);
+
+    private final double[] toleranceByType;
+
+    private PriceCompression(double[] toleranceByType) {
+        this.toleranceByType = toleranceByType;
+    }
+
+    /** @return A configuration that records every price point. */
+    public static PriceCompression none() {
+        double[] tolerances = new double[AssetType.values().length];
+        Arrays.fill(tolerances, DISABLED);
+        return new PriceCompression(tolerances);
+    }
+
+    /** @return The configuration used when holdings record prices. */
+    public static PriceCompression getDefault() {
+        return defaultCompression;
+    }
+
+    /**
+     * Replaces the configuration used when holdings record prices.
+     *
+     * @param compression The new configuration
+     */
+    public static void setDefault(PriceCompression compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("Compression cannot be null.");
+        }
+        defaultCompression = compression;
+    }
+
+    /**
+     * Returns a copy of this configuration with a different tolerance for one asset type.
+     *
+     * @param type The asset type
+     * @param relativeTolerance The maximum deviation relative to the price, or a negative value to disable compression
+     * @return The new configuration
+     */
+    public PriceCompression withTolerance(AssetType type, double relativeTolerance) {
+        if (Double.isNaN(relativeTolerance)) {
+            throw new IllegalArgumentException("Tolerance cannot be NaN.");
+        }
+        double[] tolerances = toleranceByType.clone();
+        tolerances[type.ordinal()] = relativeTolerance;
+        return new PriceCompression(tolerances);
+    }
+
+    /**
+     * @param type The asset type; {@code null} is treated as {@link AssetType#OTHER}
+     * @return The relative tolerance for that type; negative if compression is disabled
+     */
+    public double toleranceFor(AssetType type) {
+        return toleranceByType[type == null ? AssetType.OTHER.ordinal() : type.ordinal()];
+    }
+}
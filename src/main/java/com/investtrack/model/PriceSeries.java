@@ -0,0 +1,222 @@
+package com.investtrack.model;
+
+import java.util.Arrays;
+
+/**
+ * Append-only price history stored in primitive columns.
+ * Prices and timestamps are kept in parallel {@code double[]} / {@code long[]} chunks,
+ * so recording a tick does not allocate a point object or a {@link java.time.LocalDateTime}.
+ * Timestamps are stored as nanoseconds since the epoch (UTC).
+ * <p>
+ * Points can be recorded with {@link #addCompressed(double, long, double)}, an error-bounded
+ * swinging-door compression: the newest point is kept provisionally and replaced by the next one as long
+ * as a straight line from the last archived point to the new point passes within the tolerance of every
+ * price in between. A flat price is the special case of a horizontal door, i.e. a deadband.
+ * </p>
+ */
+public class PriceSeries {
+    /** Number of points per full chunk (must be a power of two). */
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    /** Capacity of a freshly started chunk; it doubles until it reaches {@link #CHUNK_SIZE}. */
+    private static final int INITIAL_CHUNK_CAPACITY = 8;
+
+    private double[][] priceChunks = new double[1][];
+    private long[][] timeChunks = new long[1][];
+    private int size;
+
+    /** Last archived point; compressed segments start here. */
+    private double doorPrice;
+    private long doorEpochNanos;
+    /** Range of slopes (price per nano) from the door point that fit every point since it. */
+    private double minSlope;
+    private double maxSlope;
+    /** Whether the last point is provisional, i.e. may still be replaced by a compressed add. */
+    private boolean provisionalLast;
+
+    /**
+     * Appends a point to the series.
+     *
+     * @param price The recorded price
+     * @param epochNanos The time of the point in nanoseconds since the epoch
+     */
+    public void add(double price, long epochNanos) {
+        append(price, epochNanos);
+        openDoor(price, epochNanos);
+    }
+
+    /**
+     * Records a point, keeping only the points needed to rebuild the series within the tolerance.
+     * Linear interpolation between consecutive stored points deviates from any recorded price by at most
+     * {@code relativeTolerance} times the price at the start of the segment. The newest recorded
+     * point is always the last point of the series.
+     *
+     * @param price The recorded price
+     * @param epochNanos The time of the point in nanoseconds since the epoch
+     * @param relativeTolerance The allowed deviation relative to the price; negative to store the point as is
+     */
+    public void addCompressed(double price, long epochNanos, double relativeTolerance) {
+        if (relativeTolerance < 0 || size == 0 || epochNanos <= doorEpochNanos) {
+            add(price, epochNanos);
+            return;
+        }
+        double band = relativeTolerance * Math.abs(doorPrice);
+        double elapsed = epochNanos - doorEpochNanos;
+        double low = (price - band - doorPrice) / elapsed;
+        double high = (price + band - doorPrice) / elapsed;
+        if (!provisionalLast) {
+            append(price, epochNanos);
+            provisionalLast = true;
+            minSlope = low;
+            maxSlope = high;
+            return;
+        }
+        low = Math.max(low, minSlope);
+        high = Math.min(high, maxSlope);
+        double slope = (price - doorPrice) / elapsed;
+        if (slope >= low && slope <= high) {
+            // The line to the new point still fits everything since the door: it replaces the provisional point
+            int last = size - 1;
+            priceChunks[last >>> CHUNK_SHIFT][last & CHUNK_MASK] = price;
+            timeChunks[last >>> CHUNK_SHIFT][last & CHUNK_MASK] = epochNanos;
+            minSlope = low;
+            maxSlope = high;
+            return;
+        }
+        // The door closed: archive the provisional point and start a new segment from it
+        int last = size - 1;
+        openDoor(priceChunks[last >>> CHUNK_SHIFT][last & CHUNK_MASK], timeChunks[last >>> CHUNK_SHIFT][last & CHUNK_MASK]);
+        addCompressed(price, epochNanos, relativeTolerance);
+    }
+
+    private void openDoor(double price, long epochNanos) {
+        doorPrice = price;
+        doorEpochNanos = epochNanos;
+        provisionalLast = false;
+    }
+
+    private void append(double price, long epochNanos) {
+        int chunk = size >>> CHUNK_SHIFT;
+        int offset = size & CHUNK_MASK;
+        if (chunk == priceChunks.length) {
+            priceChunks = Arrays.copyOf(priceChunks, chunk * 2);
+            timeChunks = Arrays.copyOf(timeChunks, chunk * 2);
+        }
+        double[] prices = priceChunks[chunk];
+        if (prices == null || offset == prices.length) {
+            // Grow the current chunk; full chunks are never copied again
+            int capacity = prices == null ? INITIAL_CHUNK_CAPACITY : Math.min(CHUNK_SIZE, prices.length * 2);
+            prices = priceChunks[chunk] = prices == null ? new double[capacity] : Arrays.copyOf(prices, capacity);
+            long[] times = timeChunks[chunk];
+            timeChunks[chunk] = times == null ? new long[capacity] : Arrays.copyOf(times, capacity);
+        }
+        prices[offset] = price;
+        timeChunks[chunk][offset] = epochNanos;
+        size++;
+    }
+
+    /** @return The heap used by the series: its chunks at their current capacity and the chunk tables. */
+    long estimateMemoryBytes() {
+        long bytes = HeapLayout.object(2 * HeapLayout.REFERENCE + Integer.BYTES + 4 * Double.BYTES + 1)
+                + 2 * HeapLayout.array(priceChunks.length, HeapLayout.REFERENCE);
+        for (int chunk = 0; chunk < priceChunks.length && priceChunks[chunk] != null; chunk++) {
+            bytes += HeapLayout.array(priceChunks[chunk].length, Double.BYTES)
+                    + HeapLayout.array(timeChunks[chunk].length, Long.BYTES);
+        }
+        return bytes;
+    }
+
+    /** @return The number of points in the series. */
+    public int size() {
+        return size;
+    }
+
+    /** @return {@code true} if no point has been recorded. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index The point index (0 = oldest)
+     * @return The price at the given index
+     */
+    public double priceAt(int index) {
+        checkIndex(index);
+        return priceChunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @param index The point index (0 = oldest)
+     * @return The timestamp at the given index in nanoseconds since the epoch
+     */
+    public long epochNanosAt(int index) {
+        checkIndex(index);
+        return timeChunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Copies a range of prices into the destination array without boxing.
+     *
+     * @param from Index of the first point to copy
+     * @param dest The destination array
+     * @param destPos Start position in the destination array
+     * @param length Number of points to copy
+     */
+    public void copyPrices(int from, double[] dest, int destPos, int length) {
+        checkRange(from, length);
+        while (length > 0) {
+            int offset = from & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - offset);
+            System.arraycopy(priceChunks[from >>> CHUNK_SHIFT], offset, dest, destPos, n);
+            from += n;
+            destPos += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Copies a range of timestamps (epoch nanos) into the destination array.
+     *
+     * @param from Index of the first point to copy
+     * @param dest The destination array
+     * @param destPos Start position in the destination array
+     * @param length Number of points to copy
+     */
+    public void copyEpochNanos(int from, long[] dest, int destPos, int length) {
+        checkRange(from, length);
+        while (length > 0) {
+            int offset = from & CHUNK_MASK;
+            int n = Math.min(length, CHUNK_SIZE - offset);
+            System.arraycopy(timeChunks[from >>> CHUNK_SHIFT], offset, dest, destPos, n);
+            from += n;
+            destPos += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Returns the prices of the most recent points, oldest first.
+     *
+     * @param count The maximum number of points to return
+     * @return A new array with at most {@code count} prices
+     */
+    public double[] lastPrices(int count) {
+        int n = Math.min(count, size);
+        double[] result = new double[n];
+        copyPrices(size - n, result, 0, n);
+        return result;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private void checkRange(int from, int length) {
+        if (from < 0 || length < 0 || from + length > size) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + length) + ") out of bounds for size " + size);
+        }
+    }
+}
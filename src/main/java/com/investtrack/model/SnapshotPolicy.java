@@ -0,0 +1,130 @@
+package com.investtrack.model;
+
+import java.time.Duration;
+
+/**
+ * Decides when a {@link Portfolio} records a new {@link PortfolioSnapshot}.
+ * <p>
+ * A snapshot is due once {@link #getMinInterval()} has passed since the previous one, or earlier if the
+ * total asset value moved by at least {@link #getMinRelativeChange()}; either way no more than
+ * {@link #getMaxPerMinute()} snapshots are recorded in any 60-second window. Requests that are not due are
+ * dropped, as the next due snapshot captures the then current state. Changes the portfolio must not lose
+ * (trades, cash movements) are merged into the latest snapshot instead.
+ * </p><p>
+ * Instances are immutable; the one used by new portfolios is set with {@link #setDefault(SnapshotPolicy)}.
+ * </p>
+ */
+public final class SnapshotPolicy {
+    private static final long WINDOW_MILLIS = 60_000L;
+
+    /** Records every request, as portfolios did before sampling was introduced. */
+    private static final SnapshotPolicy ALWAYS = new SnapshotPolicy(0, 0, Integer.MAX_VALUE);
+
+    private static volatile SnapshotPolicy defaultPolicy = interval(Duration.ofSeconds(1)).withMaxPerMinute(60);
+
+    private final long minIntervalMillis;
+    private final double minRelativeChange;
+    private final int maxPerMinute;
+
+    private SnapshotPolicy(long minIntervalMillis, double minRelativeChange, int maxPerMinute) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.minRelativeChange = minRelativeChange;
+        this.maxPerMinute = maxPerMinute;
+    }
+
+    /** @return A policy that records every snapshot request. */
+    public static SnapshotPolicy always() {
+        return ALWAYS;
+    }
+
+    /**
+     * @param minInterval The minimum time between two snapshots
+     * @return A policy recording at most one snapshot per interval
+     */
+    public static SnapshotPolicy interval(Duration minInterval) {
+        if (minInterval.isNegative()) {
+            throw new IllegalArgumentException("Interval cannot be negative: " + minInterval);
+        }
+        return new SnapshotPolicy(minInterval.toMillis(), 0, Integer.MAX_VALUE);
+    }
+
+    /** @return The policy used by new portfolios. */
+    public static SnapshotPolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Replaces the policy used by new portfolios.
+     *
+     * @param policy The new policy
+     */
+    public static void setDefault(SnapshotPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy cannot be null.");
+        }
+        defaultPolicy = policy;
+    }
+
+    /**
+     * Returns a copy of this policy that also records a snapshot before the interval has passed
+     * when the total asset value moved by at least the given fraction.
+     *
+     * @param minRelativeChange The relative change (0.01 = 1%), or 0 to rely on the interval only
+     * @return The new policy
+     */
+    public SnapshotPolicy withMinRelativeChange(double minRelativeChange) {
+        if (!(minRelativeChange >= 0)) {
+            throw new IllegalArgumentException("Relative change must be non-negative: " + minRelativeChange);
+        }
+        return new SnapshotPolicy(minIntervalMillis, minRelativeChange, maxPerMinute);
+    }
+
+    /**
+     * Returns a copy of this policy recording at most the given number of snapshots per minute.
+     *
+     * @param maxPerMinute The maximum number of snapshots in any 60-second window
+     * @return The new policy
+     */
+    public SnapshotPolicy withMaxPerMinute(int maxPerMinute) {
+        if (maxPerMinute <= 0) {
+            throw new IllegalArgumentException("maxPerMinute must be positive: " + maxPerMinute);
+        }
+        return new SnapshotPolicy(minIntervalMillis, minRelativeChange, maxPerMinute);
+    }
+
+    /** @return The minimum time between two snapshots. */
+    public Duration getMinInterval() {
+        return Duration.ofMillis(minIntervalMillis);
+    }
+
+    /** @return The relative value change that makes a snapshot due early; 0 if disabled. */
+    public double getMinRelativeChange() {
+        return minRelativeChange;
+    }
+
+    /** @return The maximum number of snapshots per minute; {@link Integer#MAX_VALUE} if unlimited. */
+    public int getMaxPerMinute() {
+        return maxPerMinute;
+    }
+
+    /**
+     * Decides whether a snapshot may be recorded now.
+     *
+     * @param nowMillis The current time in epoch milliseconds
+     * @param value The current total asset value
+     * @param lastMillis The time of the latest snapshot
+     * @param lastValue The total asset value of the latest snapshot
+     * @param windowStartMillis The time of the {@link #getMaxPerMinute()}-th most recent snapshot,
+     *                          or {@link Long#MIN_VALUE} if fewer have been recorded
+     * @return {@code true} if a new snapshot should be recorded
+     */
+    public boolean isDue(long nowMillis, double value, long lastMillis, double lastValue, long windowStartMillis) {
+        if (windowStartMillis != Long.MIN_VALUE && nowMillis - windowStartMillis < WINDOW_MILLIS) {
+            return false;
+        }
+        if (nowMillis - lastMillis >= minIntervalMillis) {
+            return true;
+        }
+        return minRelativeChange > 0 && Math.abs(value - lastValue) >= minRelativeChange * Math.abs(lastValue);
+    }
+}
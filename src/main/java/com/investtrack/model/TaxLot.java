@@ -0,0 +1,68 @@
+package com.investtrack.model;
+
+/**
+ * One purchase of a {@link Holding}: the units bought together at one price, and what became of them.
+ * Lots are created and matched by {@link TaxLots}; their remaining quantity only ever decreases.
+ */
+public final class TaxLot {
+    private final long acquiredMillis;
+    private final double quantity;
+    private final double costPerUnit;
+    /** Units not yet sold. */
+    double remaining;
+    /** Profit or loss realized by the sales matched against this lot. */
+    double realizedProfitLoss;
+
+    TaxLot(long acquiredMillis, double quantity, double costPerUnit) {
+        this.acquiredMillis = acquiredMillis;
+        this.quantity = quantity;
+        this.costPerUnit = costPerUnit;
+        this.remaining = quantity;
+    }
+
+    /** @return A copy of this lot, including its sales. */
+    TaxLot copy() {
+        TaxLot copy = new TaxLot(acquiredMillis, quantity, costPerUnit);
+        copy.remaining = remaining;
+        copy.realizedProfitLoss = realizedProfitLoss;
+        return copy;
+    }
+
+    /** @return The time of the purchase in epoch milliseconds. */
+    public long getAcquiredMillis() {
+        return acquiredMillis;
+    }
+
+    /** @return The number of units bought. */
+    public double getQuantity() {
+        return quantity;
+    }
+
+    /** @return The price paid per unit. */
+    public double getCostPerUnit() {
+        return costPerUnit;
+    }
+
+    /** @return The number of units not sold yet. */
+    public double getRemainingQuantity() {
+        return remaining;
+    }
+
+    /** @return {@code true} once all units of the lot were sold. */
+    public boolean isClosed() {
+        return remaining == 0;
+    }
+
+    /** @return The profit or loss realized by the units sold from this lot. */
+    public double getRealizedProfitLoss() {
+        return realizedProfitLoss;
+    }
+
+    /**
+     * @param price The current price per unit
+     * @return The profit or loss of the remaining units at that price, against this lot's own cost
+     */
+    public double getUnrealizedProfitLoss(double price) {
+        return remaining * (price - costPerUnit);
+    }
+}
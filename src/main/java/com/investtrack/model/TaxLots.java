@@ -0,0 +1,318 @@
+package com.investtrack.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The purchase lots of one {@link Holding}, matched against sales by a {@link LotMethod}.
+ * <p>
+ * Open lots are kept in a deque in purchase order, so FIFO, LIFO and average-cost sales take lots from
+ * one of its ends; HIFO uses a heap by cost that is built on first use. A lot closed through one
+ * structure stays in the other until it reaches the front there, or until closed lots make up more than
+ * half of it and it is compacted. Each lot is therefore added, closed and dropped once, and a sale costs
+ * O(1) amortized per lot it touches (O(log n) with HIFO), however many lots a holding has.
+ * </p><p>
+ * The cost basis is the cost of the open units: the sum of their lot costs, except that average-cost
+ * sales remove units at the average cost instead of their lot's cost. Not thread-safe.
+ * </p>
+ */
+public final class TaxLots {
+    /** Relative amount by which a sale may exceed the open quantity, absorbing rounding of summed quantities. */
+    private static final double QUANTITY_TOLERANCE = 1e-9;
+
+    private static final Comparator<TaxLot> HIGHEST_COST_FIRST =
+            Comparator.comparingDouble(TaxLot::getCostPerUnit).reversed()
+                      .thenComparingLong(TaxLot::getAcquiredMillis);
+
+    /** Open lots in purchase order; may also hold lots closed through {@link #byCost}. */
+    private final ArrayDeque<TaxLot> open = new ArrayDeque<>();
+    /** Closed lots in the order they were closed. */
+    private final List<TaxLot> closed = new ArrayList<>();
+    /** Open lots by descending cost; {@code null} until the first HIFO sale. May also hold closed lots. */
+    private PriorityQueue<TaxLot> byCost;
+    private int openCount;
+    private double quantity;
+    private double costBasis;
+    private double realizedProfitLoss;
+
+    /**
+     * Records a purchase as a new lot.
+     *
+     * @param quantity The number of units bought
+     * @param costPerUnit The price paid per unit
+     * @param acquiredMillis The time of the purchase in epoch milliseconds
+     * @return The new lot
+     */
+    public TaxLot buy(double quantity, double costPerUnit, long acquiredMillis) {
+        if (!(quantity > 0) || Double.isInfinite(quantity)) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+        if (!(costPerUnit >= 0) || Double.isInfinite(costPerUnit)) {
+            throw new IllegalArgumentException("Cost must be non-negative: " + costPerUnit);
+        }
+        TaxLot lot = new TaxLot(acquiredMillis, quantity, costPerUnit);
+        open.addLast(lot);
+        if (byCost != null) {
+            byCost.add(lot);
+        }
+        openCount++;
+        this.quantity += quantity;
+        this.costBasis += quantity * costPerUnit;
+        return lot;
+    }
+
+    /**
+     * Matches a sale against the open lots.
+     *
+     * @param quantity The number of units sold; at most {@link #getQuantity()}
+     * @param price The sale price per unit
+     * @param method Which lots to sell first
+     * @return The profit or loss realized by the sale
+     */
+    public double sell(double quantity, double price, LotMethod method) {
+        if (!(quantity > 0)) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+        if (quantity > this.quantity * (1 + QUANTITY_TOLERANCE)) {
+            throw new IllegalArgumentException("Cannot sell " + quantity + " units, only " + this.quantity + " held.");
+        }
+        double averageCost = getAverageCost();
+        double left = quantity;
+        double realized = 0;
+        double soldCost = 0;
+        while (left > QUANTITY_TOLERANCE * quantity && openCount > 0) {
+            TaxLot lot = next(method);
+            double take = Math.min(lot.remaining, left);
+            if (lot.remaining - take <= QUANTITY_TOLERANCE * lot.remaining) {
+                take = lot.remaining; // close the lot instead of leaving the rounding residue of fractional quantities open
+            }
+            double cost = method == LotMethod.AVERAGE_COST ? averageCost : lot.getCostPerUnit();
+            double profitLoss = take * (price - cost);
+            lot.realizedProfitLoss += profitLoss;
+            realized += profitLoss;
+            soldCost += take * cost;
+            left -= take;
+            if (take == lot.remaining) {
+                lot.remaining = 0;
+                closed.add(lot);
+                openCount--;
+            } else {
+                lot.remaining -= take;
+            }
+        }
+        if (openCount == 0) {
+            // Sold out: drop the rounding residue of the running sums
+            this.quantity = 0;
+            this.costBasis = 0;
+            open.clear();
+            byCost = null;
+        } else {
+            this.quantity -= quantity - left;
+            this.costBasis -= soldCost;
+            compact();
+        }
+        realizedProfitLoss += realized;
+        return realized;
+    }
+
+    /** @return The lot the next unit sold with the given method comes from; there must be an open lot. */
+    private TaxLot next(LotMethod method) {
+        switch (method) {
+            case LIFO:
+                while (open.peekLast().remaining == 0) {
+                    open.pollLast();
+                }
+                return open.peekLast();
+            case HIFO:
+                if (byCost == null) {
+                    byCost = new PriorityQueue<>(Math.max(1, openCount), HIGHEST_COST_FIRST);
+                    for (TaxLot lot : open) {
+                        if (lot.remaining > 0) {
+                            byCost.add(lot);
+                        }
+                    }
+                }
+                while (byCost.peek().remaining == 0) {
+                    byCost.poll();
+                }
+                return byCost.peek();
+            default:
+                while (open.peekFirst().remaining == 0) {
+                    open.pollFirst();
+                }
+                return open.peekFirst();
+        }
+    }
+
+    /** Drops closed lots from a structure once they make up more than half of it. */
+    private void compact() {
+        if (open.size() > 2 * openCount + 16) {
+            open.removeIf(lot -> lot.remaining == 0);
+        }
+        if (byCost != null && byCost.size() > 2 * openCount + 16) {
+            byCost.removeIf(lot -> lot.remaining == 0);
+        }
+    }
+
+    /**
+     * Copies the lots, so that the copy can be restored if a batch of changes fails.
+     *
+     * @return A copy whose lots are independent of these
+     */
+    TaxLots copy() {
+        TaxLots copy = new TaxLots();
+        for (TaxLot lot : open) {
+            if (lot.remaining > 0) {
+                copy.open.addLast(lot.copy());
+            }
+        }
+        for (TaxLot lot : closed) {
+            copy.closed.add(lot.copy());
+        }
+        copy.openCount = openCount;
+        copy.quantity = quantity;
+        copy.costBasis = costBasis;
+        copy.realizedProfitLoss = realizedProfitLoss;
+        return copy;
+    }
+
+    /**
+     * Changes the open quantity without a trade, e.g. after the quantity of the holding was corrected by hand.
+     * Additional units are added as a new lot; fewer units are taken from every open lot in proportion,
+     * which keeps the average cost and the purchase dates of the lots. Setting it to 0 instead disposes of
+     * all open lots at the given price, which closes them like a sale, so their history and realized
+     * profit or loss are kept.
+     *
+     * @param quantity The number of units held; 0 for none
+     * @param costPerUnit The cost per unit of a new lot
+     * @param price The current price per unit, at which the lots are disposed of when the quantity is 0
+     * @param acquiredMillis The purchase time of a new lot in epoch milliseconds
+     * @return The profit or loss realized by disposing of the lots; 0 unless the quantity is set to 0
+     */
+    double resize(double quantity, double costPerUnit, double price, long acquiredMillis) {
+        if (!(quantity >= 0) || Double.isInfinite(quantity)) {
+            throw new IllegalArgumentException("Quantity must not be negative: " + quantity);
+        }
+        if (quantity > this.quantity) {
+            buy(quantity - this.quantity, costPerUnit, acquiredMillis);
+        } else if (quantity == 0) {
+            return openCount > 0 ? sell(this.quantity, price, LotMethod.FIFO) : 0;
+        } else if (quantity < this.quantity) {
+            double ratio = quantity / this.quantity;
+            for (TaxLot lot : open) {
+                lot.remaining *= ratio;
+            }
+            this.quantity = quantity;
+            this.costBasis *= ratio;
+        }
+        return 0;
+    }
+
+    /**
+     * Restores a lot as saved, including its sales. Used when loading a portfolio; lots are restored
+     * in purchase order, followed by {@link #restoreCostBasis(double)}.
+     *
+     * @param acquiredMillis The time of the purchase in epoch milliseconds
+     * @param quantity The number of units bought
+     * @param costPerUnit The price paid per unit
+     * @param remaining The number of units not sold
+     * @param realizedProfitLoss The profit or loss realized by the units sold
+     */
+    public void restoreLot(long acquiredMillis, double quantity, double costPerUnit,
+                           double remaining, double realizedProfitLoss) {
+        TaxLot lot = new TaxLot(acquiredMillis, quantity, costPerUnit);
+        lot.remaining = Math.max(0, Math.min(remaining, quantity));
+        lot.realizedProfitLoss = realizedProfitLoss;
+        this.realizedProfitLoss += realizedProfitLoss;
+        if (lot.remaining == 0) {
+            closed.add(lot);
+            return;
+        }
+        open.addLast(lot);
+        openCount++;
+        this.quantity += lot.remaining;
+        this.costBasis += lot.remaining * costPerUnit;
+    }
+
+    /**
+     * Sets the cost basis saved with the lots, which differs from the sum of the lot costs
+     * after average-cost sales.
+     *
+     * @param costBasis The saved cost basis of the open units
+     */
+    public void restoreCostBasis(double costBasis) {
+        this.costBasis = costBasis;
+    }
+
+    /**
+     * @return The heap used by the lots: the lots kept, open and closed, and the structures holding them, whose
+     *         spare capacity is taken as up to the number of elements they hold
+     */
+    long estimateMemoryBytes() {
+        long lot = HeapLayout.object(Long.BYTES + 4 * Double.BYTES);
+        long bytes = HeapLayout.object(4 * HeapLayout.REFERENCE + Integer.BYTES + 3 * Double.BYTES)
+                + HeapLayout.object(HeapLayout.REFERENCE + 2 * Integer.BYTES)
+                + HeapLayout.array(2L * open.size() + 1, HeapLayout.REFERENCE)
+                + HeapLayout.object(HeapLayout.REFERENCE + 2 * Integer.BYTES)
+                + HeapLayout.array(closed.size() + closed.size() / 2, HeapLayout.REFERENCE)
+                + (open.size() + closed.size()) * lot;
+        if (byCost != null) {
+            bytes += HeapLayout.object(2 * HeapLayout.REFERENCE + 2 * Integer.BYTES)
+                    + HeapLayout.array(2L * byCost.size() + 1, HeapLayout.REFERENCE);
+        }
+        return bytes;
+    }
+
+    /** @return The number of open units. */
+    public double getQuantity() {
+        return quantity;
+    }
+
+    /** @return The cost of the open units. */
+    public double getCostBasis() {
+        return costBasis;
+    }
+
+    /** @return The cost basis per open unit; 0 if nothing is held. */
+    public double getAverageCost() {
+        return quantity > 0 ? costBasis / quantity : 0;
+    }
+
+    /** @return The profit or loss realized by all sales. */
+    public double getRealizedProfitLoss() {
+        return realizedProfitLoss;
+    }
+
+    /**
+     * @param price The current price per unit
+     * @return The profit or loss of the open units at that price, against the cost basis
+     */
+    public double getUnrealizedProfitLoss(double price) {
+        return quantity * price - costBasis;
+    }
+
+    /** @return The number of open lots. */
+    public int getOpenLotCount() {
+        return openCount;
+    }
+
+    /** @return A new list of the open lots in purchase order. */
+    public List<TaxLot> getOpenLots() {
+        List<TaxLot> lots = new ArrayList<>(openCount);
+        for (TaxLot lot : open) {
+            if (lot.remaining > 0) {
+                lots.add(lot);
+            }
+        }
+        return lots;
+    }
+
+    /** @return The closed lots in the order they were closed. */
+    public List<TaxLot> getClosedLots() {
+        return Collections.unmodifiableList(closed);
+    }
+}
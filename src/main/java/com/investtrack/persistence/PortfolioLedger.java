@@ -0,0 +1,730 @@
+package com.investtrack.persistence;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.model.Holding;
+import com.investtrack.model.LotMethod;
+import com.investtrack.model.MarketClock;
+import com.investtrack.model.Portfolio;
+import com.investtrack.model.PortfolioJournal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Append-only ledger of the changes made to a {@link Portfolio}, from which the portfolio is rebuilt.
+ * <p>
+ * Every change (buy, sell, cash in/out, price mark, reset, ...) is appended as a small binary record to
+ * a segment file next to the portfolio JSON file. Every {@code checkpointInterval} records the whole
+ * portfolio is written to the JSON file as a checkpoint, together with the sequence number of the last
+ * record it contains, and a new segment starting at that number replaces the previous one.
+ * {@link #open()} loads the latest checkpoint and replays the records of its segment, with the
+ * {@link MarketClock} pinned to the time of each record so that price histories, lots and snapshots
+ * come out as they were recorded.
+ * </p><p>
+ * A segment starts with a header (magic, format version, sequence number of the checkpoint it follows).
+ * Each record is a type byte, the time in epoch milliseconds and a type-specific payload; holdings are
+ * referenced by their ordinal within the segment: the holdings of the checkpoint in list order, followed
+ * by the holdings added since. A top-level {@link Portfolio#batch batch} is enclosed in begin and end
+ * records and replayed as one batch; a rolled-back batch is never written, and a torn record at the end
+ * of a segment (a crash during a write) is dropped, as is a batch whose end record is missing, which is
+ * not replayed at all.
+ * </p><p>
+ * Records are buffered; {@link #flush()} writes them out and takes a checkpoint when one is due. Like
+ * the portfolio, the ledger must only be used from the thread that changes the portfolio.
+ * </p>
+ */
+public class PortfolioLedger implements PortfolioJournal {
+    /** Records between two automatic checkpoints, unless configured otherwise. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10_000;
+
+    private static final int MAGIC = 0x49544C47; // "ITLG"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_SUFFIX = ".ledger";
+    /** Buffered bytes after which records are written out even without {@link #flush()}. */
+    private static final int WRITE_THRESHOLD = 64 * 1024;
+
+    private static final byte BATCH_BEGIN = 1;
+    private static final byte BATCH_END = 2;
+    private static final byte ADD = 3;
+    private static final byte REMOVE = 4;
+    private static final byte EDIT = 5;
+    private static final byte BUY = 6;
+    private static final byte SELL = 7;
+    private static final byte MARK = 8;
+    private static final byte CASH_IN = 9;
+    private static final byte CASH_OUT = 10;
+    private static final byte INVESTED = 11;
+    private static final byte LOT_METHOD = 12;
+    private static final byte SNAPSHOT = 13;
+    private static final byte CLEAR = 14;
+    private static final byte RESET = 15;
+
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    private static final LotMethod[] LOT_METHODS = LotMethod.values();
+
+    private final PortfolioRepository repository;
+    private final int checkpointInterval;
+
+    private Portfolio portfolio;
+    private FileChannel channel;
+    /** Sequence number of the checkpoint the current segment follows. */
+    private long segmentBase;
+    /** Sequence number of the last record. */
+    private long sequence;
+    /** Records not written to the segment yet. */
+    private ByteBuffer buffer = ByteBuffer.allocate(WRITE_THRESHOLD * 2);
+    /** Holdings by ordinal within the current segment. */
+    private final List<Holding> holdings = new ArrayList<>();
+    /** Ordinals by holding, compared by ID: a columnar portfolio passes a new view of a position each time. */
+    private final Map<Holding, Integer> ordinals = new HashMap<>();
+
+    private boolean inBatch;
+    /** Buffer position, sequence number and holding count before the current batch. */
+    private int batchPosition;
+    private long batchSequence;
+    private int batchHoldings;
+
+    /**
+     * Creates a ledger kept next to the repository's JSON file, which holds the checkpoints.
+     *
+     * @param repository The repository whose file stores the checkpoints
+     * @param checkpointInterval The number of records after which a checkpoint is taken
+     */
+    public PortfolioLedger(PortfolioRepository repository, int checkpointInterval) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null.");
+        }
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        }
+        this.repository = repository;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Rebuilds the portfolio from the latest checkpoint and the records appended since, and starts
+     * recording its changes. A portfolio file written without a ledger is used as the first checkpoint.
+     *
+     * @return The rebuilt portfolio, journaling to this ledger
+     * @throws IOException If the ledger could not be read or opened for appending
+     */
+    public Portfolio open() throws IOException {
+        if (portfolio != null) {
+            throw new IllegalStateException("Ledger is already open.");
+        }
+        Portfolio loaded = repository.load();
+        segmentBase = loaded.getLedgerSequence();
+        sequence = segmentBase;
+        resetOrdinals(loaded);
+
+        Path segment = segmentPath(segmentBase);
+        if (Files.exists(segment) && Files.size(segment) >= HEADER_BYTES) {
+            long validLength = replay(segment, loaded);
+            channel = FileChannel.open(segment, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+        } else {
+            openSegment(segmentBase);
+        }
+        for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+            if (entry.getKey() < segmentBase) {
+                Files.deleteIfExists(entry.getValue()); // superseded by the checkpoint
+            } else if (entry.getKey() > segmentBase) {
+                System.err.println("Warning: Ledger segment " + entry.getValue() + " is newer than the checkpoint and was ignored.");
+            }
+        }
+        portfolio = loaded;
+        portfolio.setJournal(this);
+        return portfolio;
+    }
+
+    /**
+     * Writes the buffered records to the segment, and takes a checkpoint if one is due. Does nothing
+     * inside a batch. Errors are logged; the records stay buffered and are written by the next call.
+     */
+    public void flush() {
+        if (inBatch || portfolio == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+            if (sequence - segmentBase >= checkpointInterval) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing portfolio ledger: " + segmentPath(segmentBase));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the buffered records without a checkpoint, which may only be taken between two changes
+     * (a change is complete once the portfolio took its snapshot for it).
+     */
+    private void write() {
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            System.err.println("Error writing portfolio ledger: " + segmentPath(segmentBase));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the buffered records, saves the portfolio as a checkpoint and starts a new segment after it.
+     *
+     * @throws IOException If the checkpoint or the new segment could not be written; the current
+     *                     segment is then kept
+     */
+    public void checkpoint() throws IOException {
+        if (inBatch) {
+            throw new IllegalStateException("Cannot take a checkpoint inside a batch.");
+        }
+        writeBuffer();
+        portfolio.setLedgerSequence(sequence);
+        repository.write(portfolio);
+        if (sequence == segmentBase) {
+            return; // nothing recorded since the previous checkpoint
+        }
+        Path previous = segmentPath(segmentBase);
+        channel.close();
+        openSegment(sequence);
+        segmentBase = sequence;
+        resetOrdinals(portfolio);
+        Files.deleteIfExists(previous);
+    }
+
+    /**
+     * Writes the buffered records and stops recording changes of the portfolio.
+     *
+     * @throws IOException If the records could not be written
+     */
+    public void close() throws IOException {
+        if (portfolio == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+        } finally {
+            channel.close();
+            portfolio.setJournal(null);
+            portfolio = null;
+        }
+    }
+
+    /** @return The sequence number of the last record. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    // --- Replay ---
+
+    /** @return The length of the segment up to the last complete record. */
+    private long replay(Path segment, Portfolio target) throws IOException {
+        ByteBuffer records;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            records = ByteBuffer.allocate(Math.toIntExact(in.size()));
+            while (records.hasRemaining() && in.read(records) >= 0) {
+                // read the whole segment
+            }
+            records.flip();
+        }
+        if (records.getInt() != MAGIC || records.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a ledger segment of a supported version: " + segment);
+        }
+        if (records.getLong() != segmentBase) {
+            throw new IOException("Ledger segment " + segment + " does not follow checkpoint " + segmentBase);
+        }
+        int validLength = records.position();
+        MarketClock clock = MarketClock.getDefault();
+        while (records.hasRemaining()) {
+            long sequenceBefore = sequence;
+            int holdingsBefore = holdings.size();
+            try {
+                byte type = records.get();
+                long millis = records.getLong();
+                if (type == BATCH_BEGIN) {
+                    if (!isBatchComplete(records)) {
+                        System.err.println("Warning: Dropping incomplete batch at the end of " + segment);
+                        break;
+                    }
+                    sequence++;
+                    clock.runAt(millis, () -> target.batch(b -> replayBatch(records, target, clock)));
+                } else {
+                    clock.runAt(millis, () -> apply(type, records, target));
+                }
+            } catch (BufferUnderflowException e) {
+                // Torn write at the end of the segment; records are read in full before they are applied
+                System.err.println("Warning: Dropping incomplete record at the end of " + segment);
+                sequence = sequenceBefore;
+                forgetHoldings(holdingsBefore);
+                break;
+            } catch (RuntimeException e) {
+                throw new IOException("Cannot replay record " + (sequenceBefore + 1) + " of " + segment, e);
+            }
+            validLength = records.position();
+        }
+        return validLength;
+    }
+
+    /**
+     * Checks that the batch starting at the current position ends within the segment, without applying
+     * or consuming its records.
+     *
+     * @return {@code false} if the segment ends before the batch's end record
+     */
+    private static boolean isBatchComplete(ByteBuffer records) {
+        ByteBuffer scan = records.duplicate();
+        try {
+            while (true) {
+                byte type = scan.get();
+                scan.getLong(); // time
+                if (type == BATCH_END) {
+                    return true;
+                }
+                skipPayload(type, scan);
+            }
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    /** Skips the payload of a record of the given type, as written by the recording methods below. */
+    private static void skipPayload(byte type, ByteBuffer records) {
+        switch (type) {
+            case ADD:
+                skipString(records);
+                skipString(records);
+                skipString(records);
+                skip(records, 1 + 3 * Double.BYTES);
+                break;
+            case REMOVE:
+                skip(records, Integer.BYTES);
+                break;
+            case EDIT:
+                skip(records, Integer.BYTES);
+                skipString(records);
+                skipString(records);
+                skip(records, 1 + 2 * Double.BYTES);
+                break;
+            case BUY:
+            case SELL:
+                skip(records, Integer.BYTES + 2 * Double.BYTES);
+                break;
+            case MARK:
+                skip(records, Integer.BYTES + Double.BYTES);
+                break;
+            case CASH_IN:
+            case CASH_OUT:
+            case INVESTED:
+                skip(records, Double.BYTES);
+                break;
+            case LOT_METHOD:
+                skip(records, 1);
+                break;
+            case SNAPSHOT:
+            case CLEAR:
+            case RESET:
+                break;
+            default:
+                throw new IllegalStateException("Unknown ledger record type " + type);
+        }
+    }
+
+    private static void skipString(ByteBuffer records) {
+        int length = records.getInt();
+        if (length > 0) {
+            skip(records, length);
+        }
+    }
+
+    private static void skip(ByteBuffer records, int bytes) {
+        if (records.remaining() < bytes) {
+            throw new BufferUnderflowException();
+        }
+        records.position(records.position() + bytes);
+    }
+
+    /** Replays the records of a batch up to and including its end record. */
+    private void replayBatch(ByteBuffer records, Portfolio target, MarketClock clock) {
+        while (true) {
+            byte type = records.get();
+            long millis = records.getLong();
+            if (type == BATCH_END) {
+                sequence++;
+                return;
+            }
+            clock.runAt(millis, () -> apply(type, records, target));
+        }
+    }
+
+    private void apply(byte type, ByteBuffer records, Portfolio target) {
+        sequence++;
+        switch (type) {
+            case ADD: {
+                String id = getString(records);
+                String symbol = getString(records);
+                String name = getString(records);
+                AssetType assetType = getAssetType(records);
+                double quantity = records.getDouble();
+                double price = records.getDouble();
+                double purchasePrice = records.getDouble();
+                Holding holding = new Holding(id, symbol, name, quantity, price, assetType);
+                if (purchasePrice != price) {
+                    holding.setPurchasePricePerUnit(purchasePrice);
+                }
+                target.addHolding(holding);
+                // A columnar portfolio adds a copy; its ID matches, as row keys are replayed in order
+                assignOrdinal(target.findHoldingById(id).orElse(holding));
+                break;
+            }
+            case REMOVE:
+                target.removeHolding(holding(records));
+                break;
+            case EDIT: {
+                Holding holding = holding(records);
+                String symbol = getString(records);
+                String name = getString(records);
+                AssetType assetType = getAssetType(records);
+                double quantity = records.getDouble();
+                double purchasePrice = records.getDouble();
+                if (!Objects.equals(symbol, holding.getSymbol())) {
+                    holding.setSymbol(symbol);
+                }
+                if (!Objects.equals(name, holding.getName())) {
+                    holding.setName(name);
+                }
+                if (assetType != holding.getAssetType()) {
+                    holding.setAssetType(assetType);
+                }
+                if (purchasePrice != holding.getPurchasePricePerUnit()) {
+                    holding.setPurchasePricePerUnit(purchasePrice);
+                }
+                if (quantity != holding.getQuantity()) {
+                    holding.setQuantity(quantity);
+                }
+                break;
+            }
+            case BUY: {
+                Holding holding = holding(records);
+                target.buy(holding, records.getDouble(), records.getDouble());
+                break;
+            }
+            case SELL: {
+                Holding holding = holding(records);
+                target.sell(holding, records.getDouble(), records.getDouble());
+                break;
+            }
+            case MARK: {
+                Holding holding = holding(records);
+                holding.setPricePerUnit(records.getDouble());
+                break;
+            }
+            case CASH_IN:
+                target.addCash(records.getDouble());
+                break;
+            case CASH_OUT:
+                target.deductCash(records.getDouble());
+                break;
+            case INVESTED:
+                target.updateTotalInvested(records.getDouble());
+                break;
+            case LOT_METHOD:
+                target.setLotMethod(LOT_METHODS[records.get()]);
+                break;
+            case SNAPSHOT:
+                target.takeSnapshot();
+                break;
+            case CLEAR:
+                target.clear();
+                break;
+            case RESET:
+                target.reset();
+                break;
+            default:
+                throw new IllegalStateException("Unknown ledger record type " + type);
+        }
+    }
+
+    private Holding holding(ByteBuffer records) {
+        int ordinal = records.getInt();
+        if (ordinal < 0 || ordinal >= holdings.size()) {
+            throw new IllegalStateException("Ledger refers to unknown holding " + ordinal);
+        }
+        return holdings.get(ordinal);
+    }
+
+    private static String getString(ByteBuffer records) {
+        int length = records.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        records.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static AssetType getAssetType(ByteBuffer records) {
+        byte ordinal = records.get();
+        return ordinal < 0 ? null : ASSET_TYPES[ordinal];
+    }
+
+    // --- Recording ---
+
+    @Override
+    public void batchStarted() {
+        batchPosition = buffer.position();
+        batchSequence = sequence;
+        batchHoldings = holdings.size();
+        inBatch = true;
+        begin(BATCH_BEGIN);
+        end();
+    }
+
+    @Override
+    public void batchFinished(boolean committed) {
+        if (!committed) {
+            forgetHoldings(batchHoldings);
+        }
+        if (!committed || sequence == batchSequence + 1) {
+            // Rolled back, or nothing changed: drop the batch
+            buffer.position(batchPosition);
+            sequence = batchSequence;
+        } else {
+            begin(BATCH_END);
+            end();
+        }
+        inBatch = false;
+        if (buffer.position() >= WRITE_THRESHOLD) {
+            write();
+        }
+    }
+
+    @Override
+    public void holdingAdded(Holding holding) {
+        begin(ADD);
+        assignOrdinal(holding);
+        putString(holding.getId());
+        putString(holding.getSymbol());
+        putString(holding.getName());
+        putAssetType(holding.getAssetType());
+        buffer.putDouble(holding.getQuantity());
+        buffer.putDouble(holding.getPricePerUnit());
+        buffer.putDouble(holding.getPurchasePricePerUnit());
+        end();
+    }
+
+    @Override
+    public void holdingRemoved(Holding holding) {
+        begin(REMOVE);
+        putHolding(holding);
+        end();
+    }
+
+    @Override
+    public void holdingEdited(Holding holding) {
+        begin(EDIT);
+        putHolding(holding);
+        putString(holding.getSymbol());
+        putString(holding.getName());
+        putAssetType(holding.getAssetType());
+        buffer.putDouble(holding.getQuantity());
+        buffer.putDouble(holding.getPurchasePricePerUnit());
+        end();
+    }
+
+    @Override
+    public void bought(Holding holding, double quantity, double price) {
+        begin(BUY);
+        putHolding(holding);
+        buffer.putDouble(quantity);
+        buffer.putDouble(price);
+        end();
+    }
+
+    @Override
+    public void sold(Holding holding, double quantity, double price) {
+        begin(SELL);
+        putHolding(holding);
+        buffer.putDouble(quantity);
+        buffer.putDouble(price);
+        end();
+    }
+
+    @Override
+    public void priceMarked(Holding holding) {
+        begin(MARK);
+        putHolding(holding);
+        buffer.putDouble(holding.getPricePerUnit());
+        end();
+    }
+
+    @Override
+    public void cashChanged(double amount) {
+        begin(amount < 0 ? CASH_OUT : CASH_IN);
+        buffer.putDouble(Math.abs(amount));
+        end();
+    }
+
+    @Override
+    public void investedChanged(double amount) {
+        begin(INVESTED);
+        buffer.putDouble(amount);
+        end();
+    }
+
+    @Override
+    public void lotMethodChanged(LotMethod method) {
+        begin(LOT_METHOD);
+        buffer.put((byte) method.ordinal());
+        end();
+    }
+
+    @Override
+    public void snapshotRequested() {
+        begin(SNAPSHOT);
+        end();
+    }
+
+    @Override
+    public void cleared() {
+        begin(CLEAR);
+        end();
+    }
+
+    @Override
+    public void reset() {
+        begin(RESET);
+        end();
+    }
+
+    /** Starts a record of the given type at the current time, with room for its payload. */
+    private void begin(byte type) {
+        if (buffer.remaining() < 1024) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        buffer.put(type);
+        buffer.putLong(MarketClock.getDefault().millis());
+    }
+
+    private void end() {
+        sequence++;
+        if (!inBatch && buffer.position() >= WRITE_THRESHOLD) {
+            write();
+        }
+    }
+
+    private void putHolding(Holding holding) {
+        Integer ordinal = ordinals.get(holding);
+        if (ordinal == null) {
+            throw new IllegalStateException("Holding is not recorded in the ledger: " + holding);
+        }
+        buffer.putInt(ordinal);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < bytes.length + 1024) {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + bytes.length + 2048);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putAssetType(AssetType type) {
+        buffer.put(type == null ? -1 : (byte) type.ordinal());
+    }
+
+    // --- Segments ---
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private void openSegment(long base) throws IOException {
+        channel = FileChannel.open(segmentPath(base), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(base).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void resetOrdinals(Portfolio source) {
+        holdings.clear();
+        ordinals.clear();
+        for (Holding holding : source.getHoldings()) {
+            assignOrdinal(holding);
+        }
+    }
+
+    private void assignOrdinal(Holding holding) {
+        ordinals.put(holding, holdings.size());
+        holdings.add(holding);
+    }
+
+    /** Forgets the holdings added after the first {@code count}. */
+    private void forgetHoldings(int count) {
+        while (holdings.size() > count) {
+            Holding holding = holdings.remove(holdings.size() - 1);
+            if (Objects.equals(ordinals.get(holding), holdings.size())) {
+                ordinals.remove(holding);
+            }
+        }
+    }
+
+    private Path segmentPath(long base) {
+        Path file = repository.getPortfolioFilePath();
+        return file.resolveSibling(file.getFileName() + "." + base + SEGMENT_SUFFIX);
+    }
+
+    /** @return The existing segment files by the checkpoint sequence number they follow. */
+    private Map<Long, Path> listSegments() throws IOException {
+        Path file = repository.getPortfolioFilePath().toAbsolutePath();
+        String prefix = file.getFileName() + ".";
+        Map<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), prefix + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+                } catch (NumberFormatException e) {
+                    // not a segment of this ledger
+                }
+            }
+        }
+        return segments;
+    }
+}
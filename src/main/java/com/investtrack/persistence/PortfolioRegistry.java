@@ -0,0 +1,356 @@
+package com.investtrack.persistence;
+
+import com.investtrack.model.InstrumentRegistry;
+import com.investtrack.model.Portfolio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Holds many named portfolios (model portfolios, client accounts), stored as {@code <name>.json} files in one
+ * directory, of which only the recently used ones are kept in memory.
+ * <p>
+ * All portfolios share one instrument universe, the {@link InstrumentRegistry} (holding symbols are replaced
+ * by its strings when loaded), and one price universe: the prices passed to {@link #markPrices(double[])} are
+ * applied to every loaded portfolio, and to the others as they are loaded. Price changes alone do not make a
+ * portfolio count as changed, as they are applied again on the next load.
+ * </p><p>
+ * The heap used by each loaded portfolio is estimated with {@link Portfolio#estimateMemoryBytes()} when it is
+ * loaded, and estimated again when its state version changed since, on {@link #get(String)}, before unloading
+ * portfolios and on every {@link #markPrices(double[])}. Whenever the loaded portfolios exceed the memory budget, the
+ * least recently used ones that are not pinned are saved, if they changed, and dropped; the next
+ * {@link #get(String)} loads them again. Memory thus grows with the number of active portfolios rather than
+ * the number of portfolios. The portfolio returned by {@link #get(String)} must not be kept after it may have
+ * been unloaded; {@link #pin(String)} it to keep it loaded.
+ * </p><p>
+ * Not thread-safe: like the portfolios themselves, the registry is used from a single thread.
+ * </p>
+ */
+public final class PortfolioRegistry {
+    private static final String FILE_SUFFIX = ".json";
+    /** Portfolio names are used as file names. */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+    private final Path directory;
+    private final long memoryBudget;
+    /** Loaded portfolios in access order, least recently used first. */
+    private final LinkedHashMap<String, Entry> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    /** Latest price per instrument ID; {@code null} until prices were marked. */
+    private double[] prices;
+    private long loadedMemoryBytes;
+    private long loadCount;
+    private long unloadCount;
+
+    /** A loaded portfolio and its accounting. */
+    private static final class Entry {
+        final PortfolioRepository repository;
+        final Portfolio portfolio;
+        /** State version as of the last load or save, advanced past price marks. */
+        long savedVersion;
+        /** State version as of the last memory estimate. */
+        long estimatedVersion;
+        long memoryBytes;
+        int pins;
+
+        Entry(PortfolioRepository repository, Portfolio portfolio) {
+            this.repository = repository;
+            this.portfolio = portfolio;
+        }
+
+        boolean isChanged() {
+            return portfolio.getState().getVersion() != savedVersion;
+        }
+    }
+
+    /**
+     * Creates a registry for the portfolio files in a directory.
+     *
+     * @param directory The directory holding the portfolio files; created when the first portfolio is saved
+     * @param memoryBudget The estimated heap in bytes the loaded portfolios may use before inactive ones are unloaded
+     */
+    public PortfolioRegistry(Path directory, long memoryBudget) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Lists all portfolios: those saved in the directory and those created but not saved yet.
+     *
+     * @return The sorted portfolio names
+     * @throws IOException If the directory cannot be read
+     */
+    public List<String> getNames() throws IOException {
+        TreeSet<String> names = new TreeSet<>(loaded.keySet());
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    String name = fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+                    if (NAME.matcher(name).matches()) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * @param name A portfolio name
+     * @return {@code true} if the portfolio is loaded or saved in the directory
+     */
+    public boolean exists(String name) {
+        return loaded.containsKey(checkName(name)) || Files.exists(fileOf(name));
+    }
+
+    /**
+     * Returns a portfolio, loading it if needed, and marks it as the most recently used.
+     * Loading may unload other portfolios to stay within the memory budget.
+     *
+     * @param name The portfolio name
+     * @return The portfolio
+     * @throws IllegalArgumentException If there is no portfolio with that name
+     * @throws IOException If the portfolios to unload cannot be saved
+     */
+    public Portfolio get(String name) throws IOException {
+        Entry entry = loaded.get(checkName(name));
+        if (entry != null) {
+            if (estimate(entry)) {
+                evict();
+            }
+            return entry.portfolio;
+        }
+        if (!Files.exists(fileOf(name))) {
+            throw new IllegalArgumentException("No portfolio named " + name);
+        }
+        PortfolioRepository repository = new PortfolioRepository(fileOf(name));
+        return add(name, new Entry(repository, repository.load()));
+    }
+
+    /**
+     * Creates a new, empty portfolio. It is saved when it is unloaded or by {@link #saveAll()}.
+     *
+     * @param name The portfolio name: letters, digits, '.', '_' and '-'
+     * @param columnar {@code true} to store the positions as columns (see {@link Portfolio#columnar()})
+     * @return The new portfolio
+     * @throws IllegalArgumentException If a portfolio with that name exists
+     * @throws IOException If the portfolios to unload cannot be saved
+     */
+    public Portfolio create(String name, boolean columnar) throws IOException {
+        if (exists(name)) {
+            throw new IllegalArgumentException("Portfolio " + name + " already exists.");
+        }
+        Entry entry = new Entry(new PortfolioRepository(fileOf(name)), columnar ? Portfolio.columnar() : new Portfolio());
+        add(name, entry);
+        entry.savedVersion = -1; // not saved yet
+        return entry.portfolio;
+    }
+
+    private Portfolio add(String name, Entry entry) throws IOException {
+        if (prices != null) {
+            entry.portfolio.markPrices(prices);
+        }
+        entry.savedVersion = entry.portfolio.getState().getVersion();
+        loaded.put(name, entry);
+        estimate(entry);
+        loadCount++;
+        evict();
+        return entry.portfolio;
+    }
+
+    /**
+     * @param name A portfolio name
+     * @return {@code true} if the portfolio is in memory
+     */
+    public boolean isLoaded(String name) {
+        return loaded.containsKey(checkName(name));
+    }
+
+    /**
+     * Keeps a portfolio loaded until it is unpinned as often as it was pinned, e.g. while it is shown.
+     *
+     * @param name The portfolio name
+     * @throws IOException If the portfolio must be loaded and others cannot be saved to make room
+     */
+    public void pin(String name) throws IOException {
+        get(name);
+        loaded.get(name).pins++;
+    }
+
+    /**
+     * Releases a {@link #pin(String)}; the portfolio may be unloaded once no pins are left.
+     *
+     * @param name The portfolio name
+     * @throws IOException If unpinning makes room for the budget and portfolios cannot be saved
+     */
+    public void unpin(String name) throws IOException {
+        Entry entry = loaded.get(checkName(name));
+        if (entry == null || entry.pins == 0) {
+            throw new IllegalStateException("Portfolio " + name + " is not pinned.");
+        }
+        entry.pins--;
+        evict();
+    }
+
+    /**
+     * Saves a portfolio if it changed and drops it from memory, even if it is pinned.
+     *
+     * @param name The portfolio name
+     * @return {@code true} if the portfolio was loaded
+     * @throws IOException If the portfolio cannot be saved; it then stays loaded
+     */
+    public boolean unload(String name) throws IOException {
+        Entry entry = loaded.get(checkName(name));
+        if (entry == null) {
+            return false;
+        }
+        save(entry);
+        loaded.remove(name);
+        loadedMemoryBytes -= entry.memoryBytes;
+        unloadCount++;
+        return true;
+    }
+
+    /**
+     * Saves all loaded portfolios that changed.
+     *
+     * @throws IOException If a portfolio cannot be saved
+     */
+    public void saveAll() throws IOException {
+        for (Entry entry : loaded.values()) {
+            save(entry);
+        }
+    }
+
+    private void save(Entry entry) throws IOException {
+        if (entry.isChanged()) {
+            entry.repository.write(entry.portfolio);
+            entry.savedVersion = entry.portfolio.getState().getVersion();
+        }
+    }
+
+    /**
+     * Estimates the heap use of a loaded portfolio again if its state changed since the last estimate.
+     *
+     * @return {@code true} if the estimate grew
+     */
+    private boolean estimate(Entry entry) {
+        long version = entry.portfolio.getState().getVersion();
+        if (entry.memoryBytes > 0 && entry.estimatedVersion == version) {
+            return false;
+        }
+        long bytes = entry.portfolio.estimateMemoryBytes();
+        loadedMemoryBytes += bytes - entry.memoryBytes;
+        boolean grew = bytes > entry.memoryBytes;
+        entry.memoryBytes = bytes;
+        entry.estimatedVersion = version;
+        return grew;
+    }
+
+    /**
+     * Refreshes the estimates of the portfolios that changed, then unloads the least recently used ones that
+     * are not pinned until the loaded ones fit the budget.
+     */
+    private void evict() throws IOException {
+        for (Entry entry : loaded.values()) {
+            estimate(entry);
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = loaded.entrySet().iterator();
+        // The most recently used portfolio stays, even if it alone exceeds the budget
+        int candidates = loaded.size() - 1;
+        while (loadedMemoryBytes > memoryBudget && candidates-- > 0) {
+            Entry entry = eldest.next().getValue();
+            if (entry.pins > 0) {
+                continue;
+            }
+            save(entry);
+            eldest.remove();
+            loadedMemoryBytes -= entry.memoryBytes;
+            unloadCount++;
+        }
+    }
+
+    /**
+     * Sets the prices of the shared price universe and applies them to all loaded portfolios; the
+     * others get them when they are loaded. Also refreshes the memory estimates.
+     *
+     * @param pricesByInstrument Price indexed by instrument ID, e.g. read from a price board; not copied,
+     *                           so the caller must pass a new array rather than change this one
+     * @throws IOException If portfolios cannot be saved to stay within the budget
+     */
+    public void markPrices(double[] pricesByInstrument) throws IOException {
+        prices = pricesByInstrument;
+        for (Entry entry : loaded.values()) {
+            boolean saved = !entry.isChanged();
+            entry.portfolio.markPrices(pricesByInstrument);
+            if (saved) {
+                entry.savedVersion = entry.portfolio.getState().getVersion();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @param name A portfolio name
+     * @return The estimated heap use of the portfolio; 0 if it is not loaded
+     */
+    public long getMemoryBytes(String name) {
+        Entry entry = loaded.get(checkName(name));
+        if (entry == null) {
+            return 0;
+        }
+        estimate(entry);
+        return entry.memoryBytes;
+    }
+
+    /** @return The estimated heap use of all loaded portfolios. */
+    public long getLoadedMemoryBytes() {
+        return loadedMemoryBytes;
+    }
+
+    /** @return The memory budget in bytes. */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** @return The number of portfolios in memory. */
+    public int getLoadedCount() {
+        return loaded.size();
+    }
+
+    /** @return The number of portfolios loaded or created since the registry was created. */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /** @return The number of portfolios unloaded since the registry was created. */
+    public long getUnloadCount() {
+        return unloadCount;
+    }
+
+    private Path fileOf(String name) {
+        return directory.resolve(checkName(name) + FILE_SUFFIX);
+    }
+
+    private static String checkName(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid portfolio name: " + name);
+        }
+        return name;
+    }
+}
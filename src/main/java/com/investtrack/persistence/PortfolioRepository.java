@@ -9,18 +9,41 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.investtrack.model.AssetType;
+import com.investtrack.model.InstrumentRegistry;
+import com.investtrack.model.MarketClock;
+import com.investtrack.model.PerformanceHistory;
 import com.investtrack.model.Portfolio;
+import com.investtrack.model.PortfolioSnapshot;
+import com.investtrack.model.PositionColumns;
+import com.investtrack.model.PositionFrame;
+import com.investtrack.model.PriceSeries;
+import com.investtrack.model.TaxLot;
+import com.investtrack.model.TaxLots;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Handles the persistence (saving and loading) of the {@link Portfolio} object
@@ -32,6 +55,10 @@ public class PortfolioRepository {
     private static final Gson GSON = new GsonBuilder()
             .setPrettyPrinting() // Makes the JSON file human-readable
             .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .registerTypeAdapter(PriceSeries.class, new PriceSeriesAdapter().nullSafe())
+            .registerTypeAdapter(PerformanceHistory.class, new PerformanceHistoryAdapter().nullSafe())
+            .registerTypeAdapter(TaxLots.class, new TaxLotsAdapter().nullSafe())
+            .registerTypeAdapter(PositionColumns.class, new PositionColumnsAdapter().nullSafe())
             .create();
             
     /**
@@ -51,6 +78,591 @@ public class PortfolioRepository {
         }
     }
 
+    /**
+     * Streaming type adapter for {@link PriceSeries}. Writes the same
+     * {@code [{"price": ..., "timestamp": "..."}]} layout as the former list of price points,
+     * so existing files stay readable, without building an intermediate JSON tree.
+     */
+    private static class PriceSeriesAdapter extends TypeAdapter<PriceSeries> {
+        private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+        @Override
+        public void write(JsonWriter out, PriceSeries series) throws IOException {
+            ZoneId zone = ZoneId.systemDefault();
+            out.beginArray();
+            for (int i = 0; i < series.size(); i++) {
+                long epochNanos = series.epochNanosAt(i);
+                Instant instant = Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                                                        Math.floorMod(epochNanos, NANOS_PER_SECOND));
+                out.beginObject();
+                out.name("price").value(series.priceAt(i));
+                out.name("timestamp").value(FORMATTER.format(LocalDateTime.ofInstant(instant, zone)));
+                out.endObject();
+            }
+            out.endArray();
+        }
+
+        @Override
+        public PriceSeries read(JsonReader in) throws IOException {
+            ZoneId zone = ZoneId.systemDefault();
+            PriceSeries series = new PriceSeries();
+            in.beginArray();
+            while (in.hasNext()) {
+                double price = 0;
+                long epochNanos = 0;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if ("price".equals(name)) {
+                        price = in.nextDouble();
+                    } else if ("timestamp".equals(name) && in.peek() != JsonToken.NULL) {
+                        Instant instant = LocalDateTime.parse(in.nextString(), FORMATTER).atZone(zone).toInstant();
+                        epochNanos = instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+                series.add(price, epochNanos);
+            }
+            in.endArray();
+            return series;
+        }
+    }
+
+    /**
+     * Streaming type adapter for {@link TaxLots}. Writes
+     * {@code {"costBasis": ..., "lots": [{"acquired": "...", "quantity": ..., "cost": ..., "remaining": ..., "realized": ...}]}}
+     * with the closed lots first, then the open lots in purchase order. Holdings saved before lots were
+     * tracked have no {@code "lots"} and start with a single lot (see {@link com.investtrack.model.Holding#getLots()}).
+     */
+    private static class TaxLotsAdapter extends TypeAdapter<TaxLots> {
+        private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+        @Override
+        public void write(JsonWriter out, TaxLots lots) throws IOException {
+            out.beginObject();
+            out.name("costBasis").value(lots.getCostBasis());
+            out.name("lots").beginArray();
+            for (TaxLot lot : lots.getClosedLots()) {
+                writeLot(out, lot);
+            }
+            for (TaxLot lot : lots.getOpenLots()) {
+                writeLot(out, lot);
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        private static void writeLot(JsonWriter out, TaxLot lot) throws IOException {
+            out.beginObject();
+            out.name("acquired").value(FORMATTER.format(MarketClock.toLocalDateTime(lot.getAcquiredMillis())));
+            out.name("quantity").value(lot.getQuantity());
+            out.name("cost").value(lot.getCostPerUnit());
+            out.name("remaining").value(lot.getRemainingQuantity());
+            out.name("realized").value(lot.getRealizedProfitLoss());
+            out.endObject();
+        }
+
+        @Override
+        public TaxLots read(JsonReader in) throws IOException {
+            ZoneId zone = ZoneId.systemDefault();
+            TaxLots lots = new TaxLots();
+            Double costBasis = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if ("costBasis".equals(name)) {
+                    costBasis = in.nextDouble();
+                } else if ("lots".equals(name)) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        long acquiredMillis = 0;
+                        double quantity = 0;
+                        double cost = 0;
+                        double remaining = 0;
+                        double realized = 0;
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            switch (in.nextName()) {
+                                case "acquired":
+                                    acquiredMillis = LocalDateTime.parse(in.nextString(), FORMATTER)
+                                            .atZone(zone).toInstant().toEpochMilli();
+                                    break;
+                                case "quantity":
+                                    quantity = in.nextDouble();
+                                    break;
+                                case "cost":
+                                    cost = in.nextDouble();
+                                    break;
+                                case "remaining":
+                                    remaining = in.nextDouble();
+                                    break;
+                                case "realized":
+                                    realized = in.nextDouble();
+                                    break;
+                                default:
+                                    in.skipValue();
+                            }
+                        }
+                        in.endObject();
+                        lots.restoreLot(acquiredMillis, quantity, cost, remaining, realized);
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            if (costBasis != null) {
+                lots.restoreCostBasis(costBasis);
+            }
+            return lots;
+        }
+    }
+
+    /**
+     * Streaming type adapter for {@link PositionColumns}, the positions of a columnar portfolio. Writes
+     * {@code {"nextKey": ..., "instruments": [[symbol, name], ...], "key": [...], "instrument": [...],
+     * "quantity": [...], "cost": [...], "price": [...], "type": [...]}}: one array per column, with the
+     * instruments as indexes into the file's own instrument list (registry IDs differ between runs) and
+     * the asset types by name.
+     */
+    private static class PositionColumnsAdapter extends TypeAdapter<PositionColumns> {
+        @Override
+        public void write(JsonWriter out, PositionColumns columns) throws IOException {
+            int rows = columns.size();
+            // Index of each instrument in the written list, by registry ID
+            int[] indexes = new int[InstrumentRegistry.getInstance().size()];
+            Arrays.fill(indexes, -1);
+            int[] instruments = new int[rows];
+            out.beginObject();
+            out.name("nextKey").value(columns.getNextKey());
+            out.name("instruments").beginArray();
+            int count = 0;
+            for (int row = 0; row < rows; row++) {
+                int instrumentId = columns.instrumentIdAt(row);
+                if (indexes[instrumentId] < 0) {
+                    indexes[instrumentId] = count++;
+                    out.beginArray().value(columns.symbolAt(row)).value(columns.nameAt(row)).endArray();
+                }
+                instruments[row] = indexes[instrumentId];
+            }
+            out.endArray();
+            out.name("key").beginArray();
+            for (int row = 0; row < rows; row++) {
+                out.value(columns.keyAt(row));
+            }
+            out.endArray();
+            out.name("instrument").beginArray();
+            for (int row = 0; row < rows; row++) {
+                out.value(instruments[row]);
+            }
+            out.endArray();
+            out.name("quantity").beginArray();
+            for (int row = 0; row < rows; row++) {
+                out.value(columns.quantityAt(row));
+            }
+            out.endArray();
+            out.name("cost").beginArray();
+            for (int row = 0; row < rows; row++) {
+                out.value(columns.costAt(row));
+            }
+            out.endArray();
+            out.name("price").beginArray();
+            for (int row = 0; row < rows; row++) {
+                out.value(columns.priceAt(row));
+            }
+            out.endArray();
+            out.name("type").beginArray();
+            for (int row = 0; row < rows; row++) {
+                AssetType type = columns.typeAt(row);
+                out.value(type == null ? null : type.name());
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public PositionColumns read(JsonReader in) throws IOException {
+            long nextKey = 0;
+            List<Integer> instrumentIds = new ArrayList<>();
+            long[] keys = new long[0];
+            int[] instruments = new int[0];
+            double[] quantities = new double[0];
+            double[] costs = new double[0];
+            double[] prices = new double[0];
+            AssetType[] types = new AssetType[0];
+            PositionColumns columns = new PositionColumns();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "nextKey":
+                        nextKey = in.nextLong();
+                        break;
+                    case "instruments":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            in.beginArray();
+                            int instrumentId = InstrumentRegistry.getInstance().intern(in.nextString());
+                            String name = null;
+                            if (in.peek() == JsonToken.NULL) {
+                                in.nextNull();
+                            } else {
+                                name = in.nextString();
+                            }
+                            in.endArray();
+                            columns.setName(instrumentId, name);
+                            instrumentIds.add(instrumentId);
+                        }
+                        in.endArray();
+                        break;
+                    case "key":
+                        keys = readLongs(in);
+                        break;
+                    case "instrument":
+                        instruments = readInts(in);
+                        break;
+                    case "quantity":
+                        quantities = readDoubles(in);
+                        break;
+                    case "cost":
+                        costs = readDoubles(in);
+                        break;
+                    case "price":
+                        prices = readDoubles(in);
+                        break;
+                    case "type":
+                        types = readTypes(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            // The file is written with all columns of the same length; anything else is a damaged file
+            int rows = keys.length;
+            if (instruments.length != rows || quantities.length != rows || costs.length != rows
+                    || prices.length != rows || types.length != rows) {
+                throw new IOException(String.format(
+                        "Position columns differ in length: key %d, instrument %d, quantity %d, cost %d, price %d, type %d",
+                        rows, instruments.length, quantities.length, costs.length, prices.length, types.length));
+            }
+            for (int row = 0; row < rows; row++) {
+                if (instruments[row] < 0 || instruments[row] >= instrumentIds.size()) {
+                    throw new IOException("Position " + keys[row] + " refers to unknown instrument " + instruments[row]);
+                }
+                try {
+                    columns.restoreRow(keys[row], instrumentIds.get(instruments[row]), quantities[row],
+                                       costs[row], prices[row], types[row]);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid position column: " + e.getMessage(), e);
+                }
+            }
+            columns.restoreNextKey(nextKey);
+            return columns;
+        }
+
+        private static long[] readLongs(JsonReader in) throws IOException {
+            long[] values = new long[16];
+            int count = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = in.nextLong();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, count);
+        }
+
+        private static int[] readInts(JsonReader in) throws IOException {
+            int[] values = new int[16];
+            int count = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = in.nextInt();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, count);
+        }
+
+        private static double[] readDoubles(JsonReader in) throws IOException {
+            double[] values = new double[16];
+            int count = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = in.nextDouble();
+            }
+            in.endArray();
+            return Arrays.copyOf(values, count);
+        }
+
+        /** Reads asset types by name; {@code null} entries for positions without a type. */
+        private static AssetType[] readTypes(JsonReader in) throws IOException {
+            AssetType[] values = new AssetType[16];
+            int count = 0;
+            in.beginArray();
+            while (in.hasNext()) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    count++;
+                } else {
+                    values[count++] = parseAssetType(in.nextString());
+                }
+            }
+            in.endArray();
+            return Arrays.copyOf(values, count);
+        }
+
+        private static AssetType parseAssetType(String name) {
+            try {
+                return AssetType.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return AssetType.OTHER; // type of a newer version
+            }
+        }
+    }
+
+    /**
+     * Streaming type adapter for {@link PerformanceHistory}. The history is written as a flat,
+     * chronological array of snapshots like the former snapshot list; rolled-up buckets additionally
+     * carry their open/high/low and sample count. Reading replays the snapshots into a fresh history,
+     * which re-applies the retention tiers.
+     * <p>
+     * Recorded positions are written as {@code "positions": [[id, symbol, quantity, price], ...]} with only
+     * the holdings that changed since the previous snapshot with positions ({@code "positionsDelta": true});
+     * a closed position is written with quantity 0.
+     * </p>
+     */
+    private static class PerformanceHistoryAdapter extends TypeAdapter<PerformanceHistory> {
+        private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+        @Override
+        public void write(JsonWriter out, PerformanceHistory history) throws IOException {
+            // Positions of the previously written frame and of the current one, indexed by slot
+            double[] previousQuantities = new double[0];
+            double[] previousPrices = new double[0];
+            double[] quantities = new double[0];
+            double[] prices = new double[0];
+            int previousSlots = -1;
+            out.beginArray();
+            for (PortfolioSnapshot snapshot : history.asList()) {
+                out.beginObject();
+                out.name("totalValue").value(snapshot.getTotalValue());
+                out.name("cashBalance").value(snapshot.getCashBalance());
+                out.name("timestamp").value(FORMATTER.format(MarketClock.toLocalDateTime(snapshot.getEpochMillis())));
+                if (snapshot.getSampleCount() > 1) {
+                    out.name("open").value(snapshot.getOpen());
+                    out.name("high").value(snapshot.getHigh());
+                    out.name("low").value(snapshot.getLow());
+                    out.name("sampleCount").value(snapshot.getSampleCount());
+                }
+                if (snapshot.hasAssetTypeValues()) {
+                    // Keyed by name so the file does not depend on the enum order; zero entries are omitted
+                    out.name("assetTypeValues").beginObject();
+                    for (AssetType type : AssetType.values()) {
+                        double value = snapshot.getAssetTypeValue(type);
+                        if (value != 0) {
+                            out.name(type.name()).value(value);
+                        }
+                    }
+                    out.endObject();
+                }
+                PositionFrame positions = snapshot.getPositions();
+                if (positions != null) {
+                    int slots = positions.slotCount();
+                    if (quantities.length < slots) {
+                        quantities = Arrays.copyOf(quantities, slots * 2);
+                        prices = Arrays.copyOf(prices, slots * 2);
+                        previousQuantities = Arrays.copyOf(previousQuantities, slots * 2);
+                        previousPrices = Arrays.copyOf(previousPrices, slots * 2);
+                    }
+                    positions.copyTo(quantities, prices);
+                    boolean delta = previousSlots >= 0;
+                    if (delta) {
+                        out.name("positionsDelta").value(true);
+                    }
+                    out.name("positions").beginArray();
+                    for (int slot = 0; slot < slots; slot++) {
+                        boolean known = slot < previousSlots;
+                        boolean changed = delta
+                                ? quantities[slot] != (known ? previousQuantities[slot] : 0)
+                                  || (quantities[slot] != 0 && prices[slot] != previousPrices[slot])
+                                : quantities[slot] != 0;
+                        if (changed) {
+                            out.beginArray();
+                            out.value(positions.holdingIdAt(slot));
+                            out.value(positions.symbolAt(slot));
+                            out.value(quantities[slot]);
+                            out.value(prices[slot]);
+                            out.endArray();
+                        }
+                    }
+                    out.endArray();
+                    double[] swap = previousQuantities;
+                    previousQuantities = quantities;
+                    quantities = swap;
+                    swap = previousPrices;
+                    previousPrices = prices;
+                    prices = swap;
+                    previousSlots = slots;
+                } else {
+                    previousSlots = -1;
+                }
+                out.endObject();
+            }
+            out.endArray();
+        }
+
+        @Override
+        public PerformanceHistory read(JsonReader in) throws IOException {
+            PerformanceHistory history = new PerformanceHistory();
+            double[] previousAssetTypeValues = null;
+            // Open positions of the previous snapshot with positions, by holding ID
+            Map<String, Position> openPositions = new LinkedHashMap<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                double totalValue = 0;
+                double cashBalance = 0;
+                long epochMillis = Long.MIN_VALUE;
+                double open = Double.NaN;
+                double high = Double.NaN;
+                double low = Double.NaN;
+                int sampleCount = 1;
+                double[] assetTypeValues = null;
+                boolean positionsDelta = false;
+                List<Position> positionEntries = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.skipValue();
+                        continue;
+                    }
+                    switch (name) {
+                        case "totalValue": totalValue = in.nextDouble(); break;
+                        case "cashBalance": cashBalance = in.nextDouble(); break;
+                        case "timestamp":
+                            epochMillis = MarketClock.toEpochMillis(LocalDateTime.parse(in.nextString(), FORMATTER));
+                            break;
+                        case "open": open = in.nextDouble(); break;
+                        case "high": high = in.nextDouble(); break;
+                        case "low": low = in.nextDouble(); break;
+                        case "sampleCount": sampleCount = in.nextInt(); break;
+                        case "assetTypeValues": assetTypeValues = readAssetTypeValues(in); break;
+                        case "positionsDelta": positionsDelta = in.nextBoolean(); break;
+                        case "positions": positionEntries = readPositions(in); break;
+                        default: in.skipValue();
+                    }
+                }
+                in.endObject();
+                if (epochMillis == Long.MIN_VALUE) {
+                    continue; // Cannot place a snapshot without a time
+                }
+                // Share the breakdown array with the previous snapshot when unchanged, as Portfolio does
+                if (assetTypeValues != null && Arrays.equals(assetTypeValues, previousAssetTypeValues)) {
+                    assetTypeValues = previousAssetTypeValues;
+                }
+                previousAssetTypeValues = assetTypeValues;
+                PositionFrame positions = null;
+                if (positionEntries != null) {
+                    if (!positionsDelta) {
+                        openPositions.clear();
+                    }
+                    for (Position position : positionEntries) {
+                        if (position.quantity == 0) {
+                            openPositions.remove(position.holdingId);
+                        } else {
+                            openPositions.put(position.holdingId, position);
+                        }
+                    }
+                    // Re-encode so the frames are delta-encoded in memory as well
+                    PositionFrame.Encoder encoder = history.getPositionEncoder();
+                    for (Position position : openPositions.values()) {
+                        encoder.put(position.holdingId, position.symbol, position.quantity, position.price);
+                    }
+                    positions = encoder.finish();
+                } else {
+                    openPositions.clear();
+                }
+                double close = totalValue + cashBalance;
+                history.add(new PortfolioSnapshot(totalValue, cashBalance, epochMillis,
+                        Double.isNaN(open) ? close : open,
+                        Double.isNaN(high) ? close : high,
+                        Double.isNaN(low) ? close : low,
+                        sampleCount, assetTypeValues, positions));
+            }
+            in.endArray();
+            return history;
+        }
+
+        private static List<Position> readPositions(JsonReader in) throws IOException {
+            List<Position> positions = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                String holdingId = in.nextString();
+                String symbol = null;
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else {
+                    symbol = in.nextString();
+                }
+                double quantity = in.nextDouble();
+                double price = in.nextDouble();
+                while (in.hasNext()) {
+                    in.skipValue();
+                }
+                in.endArray();
+                positions.add(new Position(holdingId, symbol, quantity, price));
+            }
+            in.endArray();
+            return positions;
+        }
+
+        /** One entry of a snapshot's {@code positions} array. */
+        private static final class Position {
+            final String holdingId;
+            final String symbol;
+            final double quantity;
+            final double price;
+
+            Position(String holdingId, String symbol, double quantity, double price) {
+                this.holdingId = holdingId;
+                this.symbol = symbol;
+                this.quantity = quantity;
+                this.price = price;
+            }
+        }
+
+        private static double[] readAssetTypeValues(JsonReader in) throws IOException {
+            double[] values = new double[AssetType.values().length];
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                try {
+                    values[AssetType.valueOf(name).ordinal()] = in.nextDouble();
+                } catch (IllegalArgumentException e) {
+                    in.skipValue(); // Asset type no longer known
+                }
+            }
+            in.endObject();
+            return values;
+        }
+    }
+
     /** The file path where the portfolio data is stored. */
     private final Path portfolioFilePath;
 
@@ -87,7 +699,12 @@ public class PortfolioRepository {
         try (BufferedReader reader = Files.newBufferedReader(portfolioFilePath, StandardCharsets.UTF_8)) {
             Portfolio portfolio = GSON.fromJson(reader, Portfolio.class);
             // Gson returns null if the JSON is empty or represents 'null'
-            return portfolio != null ? portfolio : new Portfolio();
+            if (portfolio == null) {
+                return new Portfolio();
+            }
+            // Gson fills the holdings list directly, so the lookup indexes must be rebuilt
+            portfolio.rebuildDerivedState();
+            return portfolio;
         } catch (IOException e) {
             System.err.println("Error reading portfolio file: " + portfolioFilePath);
             e.printStackTrace(); // Log the full stack trace for debugging
@@ -109,7 +726,7 @@ public class PortfolioRepository {
      * This method will:
      * 1. Ensure the parent directory for the file exists, creating it if necessary.
      * 2. Serialize the {@link Portfolio} object to JSON using Gson.
-     * 3. Write the JSON data to the file, overwriting existing content.
+     * 3. Write the JSON data to the file, replacing existing content atomically (see {@link #write(Portfolio)}).
      * </p><p>
      * If an error occurs during directory creation or file writing, an error message
      * is printed to stderr.
@@ -126,22 +743,7 @@ public class PortfolioRepository {
         }
 
         try {
-            // Ensure parent directory exists
-            Path parentDir = portfolioFilePath.getParent();
-            if (parentDir != null && !Files.exists(parentDir)) {
-                Files.createDirectories(parentDir);
-                System.out.println("Created directory: " + parentDir);
-            }
-
-            // Use try-with-resources for automatic closing of the writer
-            try (BufferedWriter writer = Files.newBufferedWriter(portfolioFilePath, StandardCharsets.UTF_8,
-                                                                StandardOpenOption.CREATE, // Create file if it doesn't exist
-                                                                StandardOpenOption.TRUNCATE_EXISTING)) // Overwrite if exists
-            {
-                GSON.toJson(portfolio, writer);
-            }
-            // System.out.println("Portfolio saved successfully to " + portfolioFilePath); // Optional success message
-
+            write(portfolio);
         } catch (IOException e) {
             System.err.println("Error saving portfolio file: " + portfolioFilePath);
             e.printStackTrace(); // Log the full stack trace
@@ -153,4 +755,40 @@ public class PortfolioRepository {
              e.printStackTrace();
         }
     }
+
+    /**
+     * Writes the portfolio to the JSON file, replacing it atomically: the JSON is written to a temporary
+     * file next to it, which is then moved over the previous file, so a crash never leaves a partial file.
+     *
+     * @param portfolio The {@link Portfolio} to write
+     * @throws IOException If the file could not be written
+     */
+    public void write(Portfolio portfolio) throws IOException {
+        // Ensure parent directory exists
+        Path parentDir = portfolioFilePath.toAbsolutePath().getParent();
+        if (parentDir != null && !Files.exists(parentDir)) {
+            Files.createDirectories(parentDir);
+            System.out.println("Created directory: " + parentDir);
+        }
+
+        // Gson reads the holdings list directly, which must not contain the slots of removed holdings
+        portfolio.compact();
+        Path tempFile = portfolioFilePath.resolveSibling(portfolioFilePath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8,
+                                                            StandardOpenOption.CREATE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            GSON.toJson(portfolio, writer);
+        }
+        try {
+            Files.move(tempFile, portfolioFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, portfolioFilePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** @return The path of the JSON file. */
+    public Path getPortfolioFilePath() {
+        return portfolioFilePath;
+    }
 }
@@ -0,0 +1,157 @@
+package com.investtrack.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Correlation structure of the simulated price shocks as a low-rank factor model: every shock is a mix of
+ * one market factor, the factor of the instrument's group and an idiosyncratic part,
+ * {@code sqrt(market) * M + sqrt(group - market) * G + sqrt(1 - group) * e}, all standard normal. Two
+ * instruments thus have the market correlation, or the group correlation if they share a group. A tick
+ * costs one draw per factor plus one per instrument, instead of the O(N²) of a full Cholesky factor.
+ * <p>
+ * Instruments without a group only load on the market factor. Instances are immutable; the one used by
+ * the simulation is set with {@link #setDefault(FactorModel)} before {@link StockDataService} is first used.
+ * </p>
+ */
+public final class FactorModel {
+
+    private static final FactorModel INDEPENDENT = new FactorModel(0, 0, new HashMap<>());
+
+    private static volatile FactorModel defaultModel = INDEPENDENT;
+
+    private final double marketCorrelation;
+    private final double groupCorrelation;
+    private final Map<String, Double> groupCorrelations;
+
+    private FactorModel(double marketCorrelation, double groupCorrelation, Map<String, Double> groupCorrelations) {
+        this.marketCorrelation = marketCorrelation;
+        this.groupCorrelation = groupCorrelation;
+        this.groupCorrelations = groupCorrelations;
+    }
+
+    /** @return A model without correlation: every instrument moves independently. */
+    public static FactorModel independent() {
+        return INDEPENDENT;
+    }
+
+    /**
+     * @param marketCorrelation The correlation between any two instruments, from 0 to the group correlation
+     * @param groupCorrelation The correlation between two instruments of the same group, up to 1
+     * @return A model with the same group correlation for all groups
+     */
+    public static FactorModel of(double marketCorrelation, double groupCorrelation) {
+        checkCorrelation(marketCorrelation, 0, 1);
+        checkCorrelation(groupCorrelation, marketCorrelation, 1);
+        return new FactorModel(marketCorrelation, groupCorrelation, new HashMap<>());
+    }
+
+    /** @return The model used by the simulation. */
+    public static FactorModel getDefault() {
+        return defaultModel;
+    }
+
+    /**
+     * Replaces the model used by the simulation; takes effect when the simulation is set up.
+     *
+     * @param model The new model
+     */
+    public static void setDefault(FactorModel model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Model cannot be null.");
+        }
+        defaultModel = model;
+    }
+
+    /**
+     * Returns a copy of this model with another correlation between any two instruments.
+     *
+     * @param correlation The correlation, from 0 to the lowest group correlation
+     * @return The new model
+     */
+    public FactorModel withMarketCorrelation(double correlation) {
+        checkCorrelation(correlation, 0, lowestGroupCorrelation());
+        return new FactorModel(correlation, groupCorrelation, groupCorrelations);
+    }
+
+    /**
+     * Returns a copy of this model with another correlation between two instruments of the same group,
+     * for the groups without their own.
+     *
+     * @param correlation The correlation, from the market correlation to 1
+     * @return The new model
+     */
+    public FactorModel withGroupCorrelation(double correlation) {
+        checkCorrelation(correlation, marketCorrelation, 1);
+        return new FactorModel(marketCorrelation, correlation, groupCorrelations);
+    }
+
+    /**
+     * Returns a copy of this model with another correlation between two instruments of the given group.
+     *
+     * @param group The group, e.g. "US Tech"
+     * @param correlation The correlation, from the market correlation to 1
+     * @return The new model
+     */
+    public FactorModel withGroupCorrelation(String group, double correlation) {
+        if (group == null) {
+            throw new IllegalArgumentException("Group cannot be null.");
+        }
+        checkCorrelation(correlation, marketCorrelation, 1);
+        Map<String, Double> correlations = new HashMap<>(groupCorrelations);
+        correlations.put(group, correlation);
+        return new FactorModel(marketCorrelation, groupCorrelation, correlations);
+    }
+
+    /** @return {@code true} if the shocks are not correlated at all. */
+    public boolean isIndependent() {
+        if (marketCorrelation > 0 || groupCorrelation > 0) {
+            return false;
+        }
+        for (double correlation : groupCorrelations.values()) {
+            if (correlation > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return The correlation between any two instruments. */
+    public double getMarketCorrelation() {
+        return marketCorrelation;
+    }
+
+    /**
+     * @param group A group, or {@code null}
+     * @return The correlation between two instruments of the group; the market correlation without a group
+     */
+    public double getGroupCorrelation(String group) {
+        if (group == null) {
+            return marketCorrelation;
+        }
+        return groupCorrelations.getOrDefault(group, groupCorrelation);
+    }
+
+    /**
+     * @param groupA The group of one instrument, or {@code null}
+     * @param groupB The group of another instrument, or {@code null}
+     * @return The correlation of their shocks
+     */
+    public double correlation(String groupA, String groupB) {
+        return groupA != null && groupA.equals(groupB) ? getGroupCorrelation(groupA) : marketCorrelation;
+    }
+
+    private double lowestGroupCorrelation() {
+        double lowest = groupCorrelation;
+        for (double correlation : groupCorrelations.values()) {
+            lowest = Math.min(lowest, correlation);
+        }
+        return lowest;
+    }
+
+    private static void checkCorrelation(double correlation, double min, double max) {
+        if (!(correlation >= min && correlation <= max)) {
+            throw new IllegalArgumentException("Correlation must be between " + min + " and " + max + ": " + correlation);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.investtrack.service;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Live prices of an instrument universe, stored off-heap in fixed-width slots indexed by instrument ID
+ * (see {@link com.investtrack.model.InstrumentRegistry}).
+ * <p>
+ * Each slot holds {@code sequence, last, bid, ask, high, low, epochMillis} in one 64-byte cache line.
+ * The board lives in a direct buffer, or in a memory-mapped file that another JVM on the same machine
+ * can open with {@link #openReadOnly(Path)} to read the live prices. Either way the prices cost no heap
+ * objects, so any number of threads and views can read them without GC pressure.
+ * </p><p>
+ * One thread writes a slot (the simulation); readers never lock. The sequence of a slot works as a
+ * seqlock: the writer makes it odd before and even after changing the slot, and {@link #read(int, PriceQuote)}
+ * retries until it saw the same even sequence before and after copying the fields. Single fields such as
+ * {@link #last(int)} are read atomically without the retry loop. The sequence also counts the updates
+ * of the slot (sequence / 2), and 0 marks a slot that was never written.
+ * </p>
+ */
+public final class PriceBoard implements AutoCloseable {
+    /** Bytes per instrument slot: one cache line. */
+    public static final int SLOT_BYTES = 64;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int MAGIC = 0x49545042; // "ITPB"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int SEQUENCE = 0;
+    private static final int LAST = 8;
+    private static final int BID = 16;
+    private static final int ASK = 24;
+    private static final int HIGH = 32;
+    private static final int LOW = 40;
+    private static final int EPOCH_MILLIS = 48;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle DOUBLES = MethodHandles.byteBufferViewVarHandle(double[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final boolean readOnly;
+
+    private PriceBoard(ByteBuffer buffer, int capacity, boolean readOnly) {
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Creates a board in a direct buffer, outside the Java heap.
+     *
+     * @param capacity The number of instrument slots; instrument IDs must be below this value
+     * @return The new board, with all slots unwritten
+     */
+    public static PriceBoard allocate(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size(capacity));
+        writeHeader(buffer.order(ByteOrder.nativeOrder()), capacity);
+        return new PriceBoard(buffer, capacity, false);
+    }
+
+    /**
+     * Creates a board backed by a memory-mapped file, replacing the file's previous content.
+     * Other processes can read the board through {@link #openReadOnly(Path)} while this one writes it.
+     *
+     * @param file The file to map
+     * @param capacity The number of instrument slots
+     * @return The new board, with all slots unwritten
+     * @throws IOException If the file cannot be created or mapped
+     */
+    public static PriceBoard map(Path file, int capacity) throws IOException {
+        long size = size(capacity);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            writeHeader(buffer.order(ByteOrder.nativeOrder()), capacity);
+            return new PriceBoard(buffer, capacity, false);
+        }
+    }
+
+    /**
+     * Maps a board file written by {@link #map(Path, int)}, possibly in another JVM, for reading.
+     *
+     * @param file The board file
+     * @return A read-only view of the board
+     * @throws IOException If the file cannot be mapped or is not a price board
+     */
+    public static PriceBoard openReadOnly(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a price board: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(12) != SLOT_BYTES) {
+                throw new IOException("Not a price board of a supported version: " + file);
+            }
+            int capacity = buffer.getInt(8);
+            if (channel.size() < size(capacity)) {
+                throw new IOException("Price board file is truncated: " + file);
+            }
+            return new PriceBoard(buffer, capacity, true);
+        }
+    }
+
+    private static long size(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        long size = HEADER_BYTES + (long) capacity * SLOT_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity too large for one buffer: " + capacity);
+        }
+        return size;
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int capacity) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, SLOT_BYTES);
+    }
+
+    /** @return The number of instrument slots. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return {@code true} if this board was opened with {@link #openReadOnly(Path)}. */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Publishes a new price for an instrument; the high and low are updated from the last price.
+     * Must only be called by the one thread writing this slot.
+     *
+     * @param instrumentId The instrument ID
+     * @param last The last traded price
+     * @param bid The best bid
+     * @param ask The best ask
+     * @param epochMillis The time of the price in epoch milliseconds
+     */
+    public void publish(int instrumentId, double last, double bid, double ask, long epochMillis) {
+        if (readOnly) {
+            throw new IllegalStateException("Price board is read-only.");
+        }
+        int slot = offset(instrumentId);
+        long sequence = (long) LONGS.get(buffer, slot + SEQUENCE);
+        double high = sequence == 0 ? last : Math.max(last, (double) DOUBLES.get(buffer, slot + HIGH));
+        double low = sequence == 0 ? last : Math.min(last, (double) DOUBLES.get(buffer, slot + LOW));
+        LONGS.setOpaque(buffer, slot + SEQUENCE, sequence + 1);
+        VarHandle.storeStoreFence();
+        DOUBLES.setOpaque(buffer, slot + LAST, last);
+        DOUBLES.setOpaque(buffer, slot + BID, bid);
+        DOUBLES.setOpaque(buffer, slot + ASK, ask);
+        DOUBLES.setOpaque(buffer, slot + HIGH, high);
+        DOUBLES.setOpaque(buffer, slot + LOW, low);
+        LONGS.setOpaque(buffer, slot + EPOCH_MILLIS, epochMillis);
+        LONGS.setRelease(buffer, slot + SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Publishes a price without a separate bid and ask (both are set to the last price).
+     *
+     * @param instrumentId The instrument ID
+     * @param last The last price
+     * @param epochMillis The time of the price in epoch milliseconds
+     */
+    public void publish(int instrumentId, double last, long epochMillis) {
+        publish(instrumentId, last, last, last, epochMillis);
+    }
+
+    /**
+     * Copies a consistent view of one slot.
+     *
+     * @param instrumentId The instrument ID
+     * @param quote Receives the fields of the slot
+     * @return {@code false} if the slot was never written (the quote is then all zeros)
+     */
+    public boolean read(int instrumentId, PriceQuote quote) {
+        int slot = offset(instrumentId);
+        while (true) {
+            long sequence = (long) LONGS.getAcquire(buffer, slot + SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.onSpinWait(); // the writer is changing the slot
+                continue;
+            }
+            double last = (double) DOUBLES.getOpaque(buffer, slot + LAST);
+            double bid = (double) DOUBLES.getOpaque(buffer, slot + BID);
+            double ask = (double) DOUBLES.getOpaque(buffer, slot + ASK);
+            double high = (double) DOUBLES.getOpaque(buffer, slot + HIGH);
+            double low = (double) DOUBLES.getOpaque(buffer, slot + LOW);
+            long epochMillis = (long) LONGS.getOpaque(buffer, slot + EPOCH_MILLIS);
+            VarHandle.loadLoadFence();
+            if ((long) LONGS.getOpaque(buffer, slot + SEQUENCE) == sequence) {
+                quote.set(instrumentId, sequence, last, bid, ask, high, low, epochMillis);
+                return sequence != 0;
+            }
+        }
+    }
+
+    /**
+     * @param instrumentId The instrument ID
+     * @return The last price; 0 if the slot was never written
+     */
+    public double last(int instrumentId) {
+        return (double) DOUBLES.getAcquire(buffer, offset(instrumentId) + LAST);
+    }
+
+    /**
+     * @param instrumentId The instrument ID
+     * @return The highest last price published
+     */
+    public double high(int instrumentId) {
+        return (double) DOUBLES.getAcquire(buffer, offset(instrumentId) + HIGH);
+    }
+
+    /**
+     * @param instrumentId The instrument ID
+     * @return The lowest last price published
+     */
+    public double low(int instrumentId) {
+        return (double) DOUBLES.getAcquire(buffer, offset(instrumentId) + LOW);
+    }
+
+    /**
+     * @param instrumentId The instrument ID
+     * @return The time of the latest price in epoch milliseconds
+     */
+    public long epochMillis(int instrumentId) {
+        return (long) LONGS.getAcquire(buffer, offset(instrumentId) + EPOCH_MILLIS);
+    }
+
+    /**
+     * @param instrumentId The instrument ID
+     * @return The sequence of the slot: twice the number of updates, odd while an update is in progress
+     */
+    public long sequence(int instrumentId) {
+        return (long) LONGS.getAcquire(buffer, offset(instrumentId) + SEQUENCE);
+    }
+
+    /** Writes a file-backed board to its file; the mapping itself stays valid until garbage collected. */
+    @Override
+    public void close() {
+        if (buffer instanceof MappedByteBuffer && !readOnly) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    private int offset(int instrumentId) {
+        if (instrumentId < 0 || instrumentId >= capacity) {
+            throw new IndexOutOfBoundsException("Instrument " + instrumentId + " out of bounds for " + capacity + " slots");
+        }
+        return HEADER_BYTES + instrumentId * SLOT_BYTES;
+    }
+}
@@ -0,0 +1,40 @@
+package com.investtrack.service;
+
+import java.util.SplittableRandom;
+
+/**
+ * Dynamics of the simulated prices: moves the prices of a set of instruments of a {@link TickKernel} by
+ * one tick. Built-in models are created with {@link PriceModels}; {@link PriceModelConfig} assigns them to
+ * asset types and groups.
+ * <p>
+ * A model works on the kernel's columns ({@link TickKernel#prices()}, {@link TickKernel#volatilities()},
+ * {@link TickKernel#drifts()} and {@link TickKernel#state(int)}) and must not allocate in
+ * {@link #step(TickKernel, int[], int, int, SplittableRandom)}, which runs for every instrument on every
+ * tick. One instance may drive instruments of several shards at once, so it must not keep mutable fields;
+ * per-instrument state belongs in the state columns. Shocks drawn with {@link TickKernel#gaussianShock} or
+ * {@link TickKernel#uniformShock} follow the kernel's {@link FactorModel}.
+ * </p>
+ */
+public interface PriceModel {
+
+    /**
+     * Sets up the state of an instrument when it is assigned to this model. Its price, volatility and
+     * drift are already set.
+     *
+     * @param kernel The kernel holding the instrument
+     * @param index The instrument index
+     */
+    default void initialize(TickKernel kernel, int index) {
+    }
+
+    /**
+     * Moves the prices of some instruments by one tick, drawing their shocks in the given order.
+     *
+     * @param kernel The kernel holding the instruments
+     * @param indices Ascending instrument indices driven by this model
+     * @param from The first position in {@code indices} to move (inclusive)
+     * @param to The last position in {@code indices} to move (exclusive)
+     * @param random The stream to draw the shocks from
+     */
+    void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random);
+}
@@ -0,0 +1,118 @@
+package com.investtrack.service;
+
+import com.investtrack.model.AssetType;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a {@link PriceModel} to every simulated asset: the model of its group if one is set, else the model
+ * of its asset type, else the fallback model ({@link PriceModels#uniform()} unless changed).
+ * <p>
+ * Instances are immutable; the one used by the simulation is set with {@link #setDefault(PriceModelConfig)}
+ * before {@link StockDataService} is first used.
+ * </p>
+ */
+public final class PriceModelConfig {
+
+    private static final PriceModelConfig UNIFORM = new PriceModelConfig(PriceModels.uniform(),
+        new EnumMap<>(AssetType.class), new HashMap<>());
+
+    private static volatile PriceModelConfig defaultConfig = UNIFORM;
+
+    private final PriceModel fallback;
+    private final EnumMap<AssetType, PriceModel> byType;
+    private final Map<String, PriceModel> byGroup;
+
+    private PriceModelConfig(PriceModel fallback, EnumMap<AssetType, PriceModel> byType, Map<String, PriceModel> byGroup) {
+        this.fallback = fallback;
+        this.byType = byType;
+        this.byGroup = byGroup;
+    }
+
+    /** @return A configuration moving every asset with {@link PriceModels#uniform()}. */
+    public static PriceModelConfig uniform() {
+        return UNIFORM;
+    }
+
+    /** @return The configuration used by the simulation. */
+    public static PriceModelConfig getDefault() {
+        return defaultConfig;
+    }
+
+    /**
+     * Replaces the configuration used by the simulation; takes effect when the simulation is set up.
+     *
+     * @param config The new configuration
+     */
+    public static void setDefault(PriceModelConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("Config cannot be null.");
+        }
+        defaultConfig = config;
+    }
+
+    /**
+     * Returns a copy of this configuration with another model for assets without a group or type model.
+     *
+     * @param model The model
+     * @return The new configuration
+     */
+    public PriceModelConfig withFallback(PriceModel model) {
+        return new PriceModelConfig(requireModel(model), byType, byGroup);
+    }
+
+    /**
+     * Returns a copy of this configuration that moves the assets of a type with the given model.
+     *
+     * @param type The asset type
+     * @param model The model
+     * @return The new configuration
+     */
+    public PriceModelConfig withModel(AssetType type, PriceModel model) {
+        if (type == null) {
+            throw new IllegalArgumentException("Asset type cannot be null.");
+        }
+        EnumMap<AssetType, PriceModel> models = new EnumMap<>(byType);
+        models.put(type, requireModel(model));
+        return new PriceModelConfig(fallback, models, byGroup);
+    }
+
+    /**
+     * Returns a copy of this configuration that moves the assets of a group with the given model,
+     * whatever their type.
+     *
+     * @param group The group, e.g. "US Tech" or "Meme"
+     * @param model The model
+     * @return The new configuration
+     */
+    public PriceModelConfig withGroupModel(String group, PriceModel model) {
+        if (group == null) {
+            throw new IllegalArgumentException("Group cannot be null.");
+        }
+        Map<String, PriceModel> models = new HashMap<>(byGroup);
+        models.put(group, requireModel(model));
+        return new PriceModelConfig(fallback, byType, models);
+    }
+
+    /**
+     * @param type The asset type
+     * @param group The asset group, or {@code null}
+     * @return The model moving such assets
+     */
+    public PriceModel modelFor(AssetType type, String group) {
+        PriceModel model = group != null ? byGroup.get(group) : null;
+        if (model == null && type != null) {
+            model = byType.get(type);
+        }
+        return model != null ? model : fallback;
+    }
+
+    private static PriceModel requireModel(PriceModel model) {
+        if (model == null) {
+            throw new IllegalArgumentException("Model cannot be null.");
+        }
+        return model;
+    }
+}
@@ -0,0 +1,215 @@
+package com.investtrack.service;
+
+import java.util.SplittableRandom;
+
+/**
+ * The built-in {@link PriceModel}s. Except for {@link #uniform()}, they move the logarithm of the price, so
+ * an instrument's volatility is the standard deviation of its log return per tick and its drift the
+ * expected relative move per tick. All prices are floored at {@link TickKernel#MIN_PRICE}.
+ */
+public final class PriceModels {
+
+    private static final PriceModel UNIFORM = new Uniform();
+    private static final PriceModel GBM = new GeometricBrownianMotion();
+
+    private PriceModels() {
+    }
+
+    /**
+     * The simulator's original dynamics: {@code price * (1 + drift + volatility * u)} with {@code u} uniform in
+     * [-1, 1), so the volatility is the largest relative move per tick. Kernels whose instruments all use it
+     * keep their column loop.
+     *
+     * @return The uniform model
+     */
+    public static PriceModel uniform() {
+        return UNIFORM;
+    }
+
+    /** @return Geometric Brownian motion: normally distributed log returns, independent from tick to tick. */
+    public static PriceModel gbm() {
+        return GBM;
+    }
+
+    /**
+     * Merton jump-diffusion: geometric Brownian motion plus rare jumps with a normally distributed log size.
+     * The drift is compensated for the jumps, so it stays the expected move per tick.
+     *
+     * @param intensity The probability of a jump per tick
+     * @param meanJump The mean log size of a jump (-0.1 for drops of about 10%)
+     * @param jumpVolatility The standard deviation of the log size of a jump
+     * @return The model
+     */
+    public static PriceModel jumpDiffusion(double intensity, double meanJump, double jumpVolatility) {
+        if (!(intensity >= 0 && intensity <= 1)) {
+            throw new IllegalArgumentException("Jump intensity must be between 0 and 1: " + intensity);
+        }
+        if (!(jumpVolatility >= 0)) {
+            throw new IllegalArgumentException("Jump volatility must be non-negative: " + jumpVolatility);
+        }
+        return new JumpDiffusion(intensity, meanJump, jumpVolatility);
+    }
+
+    /**
+     * GARCH(1,1) volatility clustering: the variance of each tick is
+     * {@code omega + alpha * shock² + beta * variance} of the previous tick, with {@code omega} chosen so that
+     * the long-run variance is the instrument's volatility squared. Large moves are thus followed by large moves.
+     *
+     * @param alpha The weight of the previous shock
+     * @param beta The weight of the previous variance
+     * @return The model
+     */
+    public static PriceModel garch(double alpha, double beta) {
+        if (!(alpha >= 0 && beta >= 0 && alpha + beta < 1)) {
+            throw new IllegalArgumentException("GARCH needs alpha, beta >= 0 and alpha + beta < 1: " + alpha + ", " + beta);
+        }
+        return new Garch(alpha, beta);
+    }
+
+    /**
+     * Mean reversion (Ornstein-Uhlenbeck on the log price): each tick the log price moves back towards the
+     * price the instrument had when the model was assigned by the given fraction of the distance, plus
+     * drift and a normal shock.
+     *
+     * @param speed The fraction of the distance to the anchor price closed per tick, from 0 to 1
+     * @return The model
+     */
+    public static PriceModel meanReversion(double speed) {
+        if (!(speed >= 0 && speed <= 1)) {
+            throw new IllegalArgumentException("Reversion speed must be between 0 and 1: " + speed);
+        }
+        return new MeanReversion(speed);
+    }
+
+    private static void move(double[] prices, int index, double logReturn) {
+        prices[index] = Math.max(TickKernel.MIN_PRICE, prices[index] * Math.exp(logReturn));
+    }
+
+    private static final class Uniform implements PriceModel {
+        @Override
+        public void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random) {
+            double[] prices = kernel.prices();
+            double[] volatilities = kernel.volatilities();
+            double[] drifts = kernel.drifts();
+            for (int k = from; k < to; k++) {
+                int i = indices[k];
+                double shock = kernel.uniformShock(i, random);
+                prices[i] = Math.max(TickKernel.MIN_PRICE, prices[i] * Math.fma(shock, volatilities[i], 1.0 + drifts[i]));
+            }
+        }
+    }
+
+    private static final class GeometricBrownianMotion implements PriceModel {
+        @Override
+        public void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random) {
+            double[] prices = kernel.prices();
+            double[] volatilities = kernel.volatilities();
+            double[] drifts = kernel.drifts();
+            for (int k = from; k < to; k++) {
+                int i = indices[k];
+                double volatility = volatilities[i];
+                move(prices, i, drifts[i] - 0.5 * volatility * volatility + volatility * kernel.gaussianShock(i, random));
+            }
+        }
+    }
+
+    private static final class JumpDiffusion implements PriceModel {
+        private final double intensity;
+        private final double meanJump;
+        private final double jumpVolatility;
+        /** Expected relative move of the jumps per tick, taken off the drift. */
+        private final double compensation;
+
+        JumpDiffusion(double intensity, double meanJump, double jumpVolatility) {
+            this.intensity = intensity;
+            this.meanJump = meanJump;
+            this.jumpVolatility = jumpVolatility;
+            this.compensation = intensity * Math.expm1(meanJump + 0.5 * jumpVolatility * jumpVolatility);
+        }
+
+        @Override
+        public void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random) {
+            double[] prices = kernel.prices();
+            double[] volatilities = kernel.volatilities();
+            double[] drifts = kernel.drifts();
+            for (int k = from; k < to; k++) {
+                int i = indices[k];
+                double volatility = volatilities[i];
+                double logReturn = drifts[i] - compensation - 0.5 * volatility * volatility
+                    + volatility * kernel.gaussianShock(i, random);
+                if (random.nextDouble() < intensity) {
+                    logReturn += meanJump + jumpVolatility * random.nextGaussian();
+                }
+                move(prices, i, logReturn);
+            }
+        }
+    }
+
+    private static final class Garch implements PriceModel {
+        private static final int VARIANCE = 0;
+        private static final int SHOCK = 1;
+
+        private final double alpha;
+        private final double beta;
+
+        Garch(double alpha, double beta) {
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        @Override
+        public void initialize(TickKernel kernel, int index) {
+            double volatility = kernel.volatilities()[index];
+            kernel.state(VARIANCE)[index] = volatility * volatility;
+            kernel.state(SHOCK)[index] = 0.0;
+        }
+
+        @Override
+        public void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random) {
+            double[] prices = kernel.prices();
+            double[] volatilities = kernel.volatilities();
+            double[] drifts = kernel.drifts();
+            double[] variances = kernel.state(VARIANCE);
+            double[] shocks = kernel.state(SHOCK);
+            double persistence = 1.0 - alpha - beta;
+            for (int k = from; k < to; k++) {
+                int i = indices[k];
+                double longRun = volatilities[i] * volatilities[i];
+                double previousShock = shocks[i];
+                double variance = persistence * longRun + alpha * previousShock * previousShock + beta * variances[i];
+                double shock = Math.sqrt(variance) * kernel.gaussianShock(i, random);
+                variances[i] = variance;
+                shocks[i] = shock;
+                move(prices, i, drifts[i] - 0.5 * variance + shock);
+            }
+        }
+    }
+
+    private static final class MeanReversion implements PriceModel {
+        private static final int ANCHOR = 0;
+
+        private final double speed;
+
+        MeanReversion(double speed) {
+            this.speed = speed;
+        }
+
+        @Override
+        public void initialize(TickKernel kernel, int index) {
+            kernel.state(ANCHOR)[index] = Math.log(Math.max(TickKernel.MIN_PRICE, kernel.prices()[index]));
+        }
+
+        @Override
+        public void step(TickKernel kernel, int[] indices, int from, int to, SplittableRandom random) {
+            double[] prices = kernel.prices();
+            double[] volatilities = kernel.volatilities();
+            double[] drifts = kernel.drifts();
+            double[] anchors = kernel.state(ANCHOR);
+            for (int k = from; k < to; k++) {
+                int i = indices[k];
+                double pull = speed * (anchors[i] - Math.log(prices[i]));
+                move(prices, i, pull + drifts[i] + volatilities[i] * kernel.gaussianShock(i, random));
+            }
+        }
+    }
+}
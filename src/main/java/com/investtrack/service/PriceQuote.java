@@ -0,0 +1,45 @@
+package com.investtrack.service;
+
+/**
+ * Mutable copy of one {@link PriceBoard} slot, filled by {@link PriceBoard#read(int, PriceQuote)}.
+ * Readers keep one instance per thread and reuse it, so reading the board allocates nothing.
+ */
+public final class PriceQuote {
+    private int instrumentId;
+    private long sequence;
+    private double last;
+    private double bid;
+    private double ask;
+    private double high;
+    private double low;
+    private long epochMillis;
+
+    void set(int instrumentId, long sequence, double last, double bid, double ask,
+             double high, double low, long epochMillis) {
+        this.instrumentId = instrumentId;
+        this.sequence = sequence;
+        this.last = last;
+        this.bid = bid;
+        this.ask = ask;
+        this.high = high;
+        this.low = low;
+        this.epochMillis = epochMillis;
+    }
+
+    /** @return The instrument ID of the slot read. */
+    public int getInstrumentId() { return instrumentId; }
+    /** @return The sequence of the slot; twice the number of updates. */
+    public long getSequence() { return sequence; }
+    /** @return The last price. */
+    public double getLast() { return last; }
+    /** @return The best bid. */
+    public double getBid() { return bid; }
+    /** @return The best ask. */
+    public double getAsk() { return ask; }
+    /** @return The highest last price published. */
+    public double getHigh() { return high; }
+    /** @return The lowest last price published. */
+    public double getLow() { return low; }
+    /** @return The time of the price in epoch milliseconds. */
+    public long getEpochMillis() { return epochMillis; }
+}
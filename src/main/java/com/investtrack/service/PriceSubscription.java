@@ -0,0 +1,109 @@
+package com.investtrack.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Conflated view of the live prices for one consumer: {@link #poll(Listener)} delivers only the latest quote of
+ * each instrument that changed since the consumer's previous poll, however many ticks happened in between.
+ * <p>
+ * After each tick the simulation signals the subscription; the notifier given to
+ * {@link StockDataService#subscribe(Runnable)} is run on the first signal only and then not again until the
+ * consumer polls. A consumer that schedules its poll from the notifier (e.g. with {@code Platform.runLater})
+ * thus has at most one poll queued, and a slow consumer skips ticks instead of falling behind.
+ * </p><p>
+ * The quotes come straight from the {@link PriceBoard}; the subscription remembers the slot sequence it
+ * delivered per instrument. Polls must come from one thread at a time; signals may come from any thread.
+ * </p>
+ */
+public final class PriceSubscription implements AutoCloseable {
+
+    /** Receives the quotes of a poll. */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param quote The latest quote of an instrument; reused for the next quote, so copy what you keep
+         */
+        void onQuote(PriceQuote quote);
+    }
+
+    private final PriceBoard board;
+    private final int[] instrumentIds;
+    /** Slot sequence delivered last per entry of {@link #instrumentIds}; 0 if none yet. */
+    private final long[] delivered;
+    private final PriceQuote quote = new PriceQuote();
+    private final Runnable notifier;
+    private final Consumer<PriceSubscription> onClose;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong signals = new AtomicLong();
+    private long polledSignals;
+    private long conflatedTicks;
+    private volatile boolean closed;
+
+    PriceSubscription(PriceBoard board, int[] instrumentIds, Runnable notifier, Consumer<PriceSubscription> onClose) {
+        this.board = board;
+        this.instrumentIds = instrumentIds;
+        this.delivered = new long[instrumentIds.length];
+        this.notifier = notifier;
+        this.onClose = onClose;
+    }
+
+    /** Called by the simulation after a tick was published; runs the notifier unless a poll is pending. */
+    void signal() {
+        signals.incrementAndGet();
+        if (!closed && pending.compareAndSet(false, true)) {
+            notifier.run();
+        }
+    }
+
+    /**
+     * Delivers the latest quote of every instrument that changed since the previous poll.
+     *
+     * @param listener Receives the quotes, in instrument order
+     * @return The number of quotes delivered
+     */
+    public int poll(Listener listener) {
+        // Cleared first: a tick published during the scan signals again rather than being missed
+        pending.set(false);
+        long signalled = signals.get();
+        if (signalled - polledSignals > 1) {
+            conflatedTicks += signalled - polledSignals - 1;
+        }
+        polledSignals = signalled;
+        int count = 0;
+        for (int k = 0; k < instrumentIds.length; k++) {
+            int instrumentId = instrumentIds[k];
+            if (board.sequence(instrumentId) != delivered[k] && board.read(instrumentId, quote)) {
+                delivered[k] = quote.getSequence();
+                listener.onQuote(quote);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return {@code true} if ticks were signalled since the last poll. */
+    public boolean isPending() {
+        return pending.get();
+    }
+
+    /** @return The number of ticks a poll did not see separately because a later tick came before it. */
+    public long getConflatedTicks() {
+        return conflatedTicks;
+    }
+
+    /** @return {@code true} once closed. */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Stops the signals; the notifier is not run again. */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            onClose.accept(this);
+        }
+    }
+}
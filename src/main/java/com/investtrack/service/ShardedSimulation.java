@@ -0,0 +1,161 @@
+package com.investtrack.service;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ticks a {@link TickKernel} in parallel: the instruments are split into shards that run as tasks on a
+ * {@link ForkJoinPool}, and the tick number advances once all shards finished, so a reader that sees tick
+ * {@code n} through {@link #getTickNumber()} sees every price of tick {@code n}.
+ * <p>
+ * The shocks come from one {@link SplittableRandom} stream per block of {@value #BLOCK_SIZE} instruments,
+ * split from the seed in block order, and a shard ticks whole blocks. The prices of each tick therefore
+ * depend only on the seed, not on the number of shards or threads. Shards can also publish their prices to a
+ * {@link PriceBoard} as part of the tick; each board slot is written by one shard only. If the kernel's
+ * shocks are correlated, the factors of a tick are drawn from one more stream before the shards are forked.
+ * </p><p>
+ * {@link #tick(long)} must not be called concurrently with itself.
+ * </p>
+ */
+public final class ShardedSimulation {
+    /** Instruments per random stream; shards are made of whole blocks. */
+    public static final int BLOCK_SIZE = 4096;
+
+    private final TickKernel kernel;
+    private final ForkJoinPool pool;
+    private final SplittableRandom[] streams;
+    /** Stream of the factors of correlated shocks. */
+    private final SplittableRandom factorStream;
+    private final Shard[] shards;
+    /** Where shards publish their prices, with the instrument ID per kernel index; {@code null} if they do not. */
+    private final PriceBoard board;
+    private final int[] instrumentIds;
+    private volatile long tickNumber;
+    /** Tick time handed to the shards for publishing; written before they are forked. */
+    private long tickMillis;
+
+    /**
+     * Creates a simulation that only moves the kernel's prices.
+     *
+     * @param kernel The prices to move
+     * @param seed The seed of the shocks
+     * @param shardCount The number of shards; at most one per block is used
+     * @param pool The pool running the shards
+     */
+    public ShardedSimulation(TickKernel kernel, long seed, int shardCount, ForkJoinPool pool) {
+        this(kernel, seed, shardCount, pool, null, null);
+    }
+
+    /**
+     * Creates a simulation whose shards also publish their prices.
+     *
+     * @param kernel The prices to move
+     * @param seed The seed of the shocks
+     * @param shardCount The number of shards; at most one per block is used
+     * @param pool The pool running the shards
+     * @param board The board to publish to, or {@code null}
+     * @param instrumentIds The instrument ID on the board of each kernel index; {@code null} without a board
+     */
+    public ShardedSimulation(TickKernel kernel, long seed, int shardCount, ForkJoinPool pool,
+                             PriceBoard board, int[] instrumentIds) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        if (board != null && (instrumentIds == null || instrumentIds.length < kernel.size())) {
+            throw new IllegalArgumentException("An instrument ID is needed for every kernel index.");
+        }
+        this.kernel = kernel;
+        this.pool = pool;
+        this.board = board;
+        this.instrumentIds = instrumentIds;
+        int blocks = (kernel.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        SplittableRandom root = new SplittableRandom(seed);
+        this.streams = new SplittableRandom[blocks];
+        for (int block = 0; block < blocks; block++) {
+            streams[block] = root.split();
+        }
+        this.factorStream = root.split();
+        int count = Math.max(1, Math.min(shardCount, blocks));
+        this.shards = new Shard[count];
+        for (int shard = 0; shard < count; shard++) {
+            // Spread the blocks evenly; the first shards take one more if they do not divide
+            shards[shard] = new Shard((int) ((long) blocks * shard / count), (int) ((long) blocks * (shard + 1) / count));
+        }
+    }
+
+    /** @return The number of shards. */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /** @return The kernel holding the prices. */
+    public TickKernel getKernel() {
+        return kernel;
+    }
+
+    /** @return The number of completed ticks; all prices of that tick are visible once it is read. */
+    public long getTickNumber() {
+        return tickNumber;
+    }
+
+    /**
+     * Runs one tick on all shards and waits for them.
+     *
+     * @param tickMillis The time of the tick, for the prices published to the board
+     * @return The number of the completed tick
+     */
+    public long tick(long tickMillis) {
+        this.tickMillis = tickMillis;
+        if (kernel.isCorrelated()) {
+            kernel.drawFactors(factorStream);
+        }
+        for (Shard shard : shards) {
+            shard.reinitialize();
+        }
+        if (shards.length == 1) {
+            shards[0].invoke();
+        } else {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(shards);
+                }
+            });
+        }
+        // All shards joined: publishing the number releases their prices to readers
+        long completed = tickNumber + 1;
+        tickNumber = completed;
+        return completed;
+    }
+
+    /** A range of blocks ticked by one task. */
+    private final class Shard extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromBlock;
+        private final int toBlock;
+
+        Shard(int fromBlock, int toBlock) {
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            int size = kernel.size();
+            for (int block = fromBlock; block < toBlock; block++) {
+                int from = block * BLOCK_SIZE;
+                int to = Math.min(size, from + BLOCK_SIZE);
+                kernel.tick(streams[block], from, to);
+                if (board != null) {
+                    double[] prices = kernel.prices();
+                    for (int i = from; i < to; i++) {
+                        board.publish(instrumentIds[i], prices[i], tickMillis);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,10 +2,18 @@ package com.investtrack.service;
 
 import com.investtrack.model.AssetType;
 import com.investtrack.model.Holding;
+import com.investtrack.model.InstrumentRegistry;
+import com.investtrack.model.MarketClock;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -13,8 +21,32 @@ import java.util.stream.Collectors;
 /**
  * Service class that provides predefined stock data and simulates price fluctuations.
  * It also tracks the initial purchase price to calculate performance metrics.
+ * <p>
+ * Live prices are kept off-heap on a {@link PriceBoard}. If the system property
+ * {@value #PRICE_BOARD_FILE_PROPERTY} names a file, the board is memory-mapped there so that
+ * other processes can read the live prices.
+ * </p><p>
+ * If {@value #SIMULATION_SHARDS_PROPERTY} is set to a positive number, each tick runs as that many
+ * shards on the common {@link ForkJoinPool} (see {@link ShardedSimulation}). The {@link PriceModel} of each
+ * asset is taken from {@link PriceModelConfig#getDefault()}, and the correlation of their moves from
+ * {@link FactorModel#getDefault()}, when the service is created.
+ * </p><p>
+ * The simulation ticks every {@value #TICK_PERIOD_PROPERTY} milliseconds (5 seconds if unset), or at the
+ * period passed to {@link #startPriceSimulation(Duration, Consumer)}, down to one millisecond. Consumers
+ * that cannot keep up with the ticks {@link #subscribe(Runnable)} to receive conflated updates.
+ * </p>
  */
 public class StockDataService {
+    /** System property naming the file to map the price board to; unset for an in-memory board. */
+    public static final String PRICE_BOARD_FILE_PROPERTY = "investtrack.priceBoardFile";
+    /** System property with the number of shards to tick in parallel; unset to tick on the scheduler thread. */
+    public static final String SIMULATION_SHARDS_PROPERTY = "investtrack.simulationShards";
+    /** System property with the default tick period in milliseconds. */
+    public static final String TICK_PERIOD_PROPERTY = "investtrack.tickPeriodMillis";
+    /** Shortest tick period the simulation accepts. */
+    public static final Duration MIN_TICK_PERIOD = Duration.ofMillis(1);
+    private static final long DEFAULT_TICK_PERIOD_MILLIS = 5_000;
+    
     // List of sample stocks with initial data
     private static final List<StockData> PREDEFINED_STOCKS = Arrays.asList(
             // US Tech
@@ -165,28 +197,108 @@ public class StockDataService {
         ALL_PREDEFINED_ASSETS.addAll(PREDEFINED_FUNDS);
         ALL_PREDEFINED_ASSETS.addAll(PREDEFINED_ETFS);
     }
+    
+    // Predefined assets indexed by instrument ID (null for IDs outside the simulated universe)
+    private static final StockData[] ASSETS_BY_ID;
+    
+    static {
+        int maxId = ALL_PREDEFINED_ASSETS.stream().mapToInt(StockData::getInstrumentId).max().orElse(-1);
+        ASSETS_BY_ID = new StockData[maxId + 1];
+        for (StockData asset : ALL_PREDEFINED_ASSETS) {
+            ASSETS_BY_ID[asset.getInstrumentId()] = asset;
+        }
+    }
 
-    // Map to track price history (purchase price, updates, etc.)
-    private final Map<String, PriceHistory> priceHistoryMap = new HashMap<>();
+    // Live price, high, low and update time per instrument ID, off-heap
+    private final PriceBoard priceBoard;
+    
+    // Price at service start (the reference for performance metrics) indexed by instrument ID
+    private final double[] initialPriceById = new double[ASSETS_BY_ID.length];
     
     // Callback for UI updates when prices change
     private Consumer<List<StockData>> priceUpdateCallback;
     
+    // Consumers signalled after every tick
+    private final List<PriceSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    
     // Timer for simulating price changes
     private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> simulationTask;
     
-    // Random for price fluctuations
-    private final Random random = new Random();
+    // Price, volatility and drift of ALL_PREDEFINED_ASSETS as primitive columns, in list order
+    private final TickKernel kernel;
+    
+    // Ticks the kernel in parallel shards; null when ticking on the scheduler thread
+    private final ShardedSimulation shardedSimulation;
+    
+    // Time of the most recent simulation tick in epoch milliseconds
+    private volatile long lastTickMillis;
     
     // Singleton instance
     private static StockDataService instance;
     
     // Private constructor for singleton
     private StockDataService() {
-        // Initialize price history for all predefined stocks
-        for (StockData stock : ALL_PREDEFINED_ASSETS) {
-            priceHistoryMap.put(stock.getSymbol(), new PriceHistory(stock.getCurrentPrice()));
+        priceBoard = createPriceBoard(Math.max(1, ASSETS_BY_ID.length));
+        // Publish the initial prices of all predefined stocks; from now on they live on the board
+        lastTickMillis = MarketClock.getDefault().tick();
+        long seed = new SplittableRandom().nextLong();
+        kernel = TickKernel.create(ALL_PREDEFINED_ASSETS.size(), seed);
+        int[] instrumentIds = new int[ALL_PREDEFINED_ASSETS.size()];
+        for (int i = 0; i < ALL_PREDEFINED_ASSETS.size(); i++) {
+            StockData stock = ALL_PREDEFINED_ASSETS.get(i);
+            initialPriceById[stock.getInstrumentId()] = stock.getCurrentPrice();
+            priceBoard.publish(stock.getInstrumentId(), stock.getCurrentPrice(), lastTickMillis);
+            kernel.set(i, stock.getCurrentPrice(), volatilityOf(stock), 0.0);
+            instrumentIds[i] = stock.getInstrumentId();
+            stock.simulationIndex = i;
+            stock.kernel = kernel;
+            stock.board = priceBoard;
         }
+        // Dynamics per asset type and group; all uniform unless configured
+        PriceModelConfig models = PriceModelConfig.getDefault();
+        kernel.setModels(i -> models.modelFor(ALL_PREDEFINED_ASSETS.get(i).getAssetType(),
+                                              ALL_PREDEFINED_ASSETS.get(i).getGroup()));
+        kernel.setCorrelation(FactorModel.getDefault(), i -> ALL_PREDEFINED_ASSETS.get(i).getGroup());
+        int shards = Integer.getInteger(SIMULATION_SHARDS_PROPERTY, 0);
+        shardedSimulation = shards > 0
+            ? new ShardedSimulation(kernel, seed, shards, ForkJoinPool.commonPool(), priceBoard, instrumentIds)
+            : null;
+    }
+    
+    /**
+     * Gets the scale of the relative price move per tick of an asset; for the uniform model the largest move.
+     *
+     * @param asset The asset
+     * @return The volatility as a fraction (0.025 = 2.5%)
+     */
+    private static double volatilityOf(StockData asset) {
+        // Apply super high volatility to meme coins
+        if (asset.getAssetType() == AssetType.CRYPTO && "Meme".equals(asset.getGroup())) {
+            return 0.25; // Much higher volatility for meme coins (25%)
+        }
+        switch (asset.getAssetType()) {
+            case CRYPTO:
+                return 0.075; // Regular crypto volatility
+            case ETF:
+            case FUND:
+                return 0.015; // Funds and ETFs are less volatile
+            default:
+                return 0.025; // Standard for stocks
+        }
+    }
+    
+    private static PriceBoard createPriceBoard(int capacity) {
+        String file = System.getProperty(PRICE_BOARD_FILE_PROPERTY);
+        if (file != null && !file.isBlank()) {
+            try {
+                return PriceBoard.map(Paths.get(file), capacity);
+            } catch (IOException e) {
+                System.err.println("Error mapping price board file " + file + ", keeping prices in memory.");
+                e.printStackTrace();
+            }
+        }
+        return PriceBoard.allocate(capacity);
     }
     
     /**
@@ -236,16 +348,21 @@ public class StockDataService {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Gets the simulated asset for an instrument ID
+     * @return The asset, or null if the instrument is not part of the predefined universe
+     */
+    public StockData getStock(int instrumentId) {
+        return instrumentId >= 0 && instrumentId < ASSETS_BY_ID.length ? ASSETS_BY_ID[instrumentId] : null;
+    }
+    
     /**
      * Create a holding from predefined stock data
      */
     public Holding createHoldingFromStock(String symbol, double quantity) {
-        Optional<StockData> stockOpt = ALL_PREDEFINED_ASSETS.stream()
-                .filter(s -> s.getSymbol().equals(symbol))
-                .findFirst();
+        StockData stock = getStock(InstrumentRegistry.getInstance().lookup(symbol));
                 
-        if (stockOpt.isPresent()) {
-            StockData stock = stockOpt.get();
+        if (stock != null) {
             return new Holding(
                 stock.getSymbol(),
                 stock.getName(),
@@ -262,22 +379,21 @@ public class StockDataService {
      * Get performance data for a specific stock
      */
     public PerformanceData getPerformanceData(String symbol) {
-        PriceHistory history = priceHistoryMap.get(symbol);
-        if (history == null) {
-            return null;
-        }
-        
-        StockData stock = ALL_PREDEFINED_ASSETS.stream()
-                .filter(s -> s.getSymbol().equals(symbol))
-                .findFirst()
-                .orElse(null);
-                
+        return getPerformanceData(InstrumentRegistry.getInstance().lookup(symbol));
+    }
+    
+    /**
+     * Get performance data for a specific instrument ID
+     */
+    public PerformanceData getPerformanceData(int instrumentId) {
+        StockData stock = getStock(instrumentId);
         if (stock == null) {
             return null;
         }
+        String symbol = stock.getSymbol();
         
-        double currentPrice = stock.getCurrentPrice();
-        double purchasePrice = history.getPurchasePrice();
+        double currentPrice = priceBoard.last(instrumentId);
+        double purchasePrice = initialPriceById[instrumentId];
         double priceChange = currentPrice - purchasePrice;
         double percentChange = (priceChange / purchasePrice) * 100;
         
@@ -287,30 +403,106 @@ public class StockDataService {
             currentPrice,
             priceChange,
             percentChange,
-            history.getHighestPrice(),
-            history.getLowestPrice(),
-            history.getLastUpdateTime()
+            priceBoard.high(instrumentId),
+            priceBoard.low(instrumentId),
+            priceBoard.epochMillis(instrumentId)
         );
     }
     
     /**
-     * Start simulating price changes
+     * Gets the time of the most recent price update. Consumers applying a tick should run inside
+     * {@link MarketClock#runAt(long, Runnable)} with this time so their records share the tick's timestamp.
+     *
+     * @return The tick time in epoch milliseconds
+     */
+    public long getLastTickMillis() {
+        return lastTickMillis;
+    }
+    
+    /**
+     * Gets the board holding the live prices of the predefined assets, indexed by instrument ID.
+     * Only the simulation writes to it.
+     *
+     * @return The price board
+     */
+    public PriceBoard getPriceBoard() {
+        return priceBoard;
+    }
+    
+    /**
+     * Gets the tick period used by {@link #startPriceSimulation()}: {@value #TICK_PERIOD_PROPERTY} if set,
+     * else 5 seconds.
+     *
+     * @return The default tick period
+     */
+    public static Duration getDefaultTickPeriod() {
+        return Duration.ofMillis(Math.max(MIN_TICK_PERIOD.toMillis(),
+                                          Long.getLong(TICK_PERIOD_PROPERTY, DEFAULT_TICK_PERIOD_MILLIS)));
+    }
+    
+    /**
+     * Start simulating price changes at the default tick period, for the {@link #subscribe(Runnable) subscribers}
+     */
+    public void startPriceSimulation() {
+        startPriceSimulation(getDefaultTickPeriod(), null);
+    }
+    
+    /**
+     * Start simulating price changes at the default tick period
+     *
+     * @param updateCallback Called on the simulation thread after every tick
      */
     public void startPriceSimulation(Consumer<List<StockData>> updateCallback) {
+        startPriceSimulation(getDefaultTickPeriod(), updateCallback);
+    }
+    
+    /**
+     * Start simulating price changes, replacing a running simulation
+     *
+     * @param tickPeriod The time between two ticks, at least {@link #MIN_TICK_PERIOD}
+     * @param updateCallback Called on the simulation thread after every tick, or {@code null}; consumers
+     *                       slower than the ticks should {@link #subscribe(Runnable)} instead
+     */
+    public void startPriceSimulation(Duration tickPeriod, Consumer<List<StockData>> updateCallback) {
+        if (tickPeriod.compareTo(MIN_TICK_PERIOD) < 0) {
+            throw new IllegalArgumentException("Tick period must be at least " + MIN_TICK_PERIOD + ": " + tickPeriod);
+        }
+        if (scheduler == null || scheduler.isShutdown()) {
+            // Create a scheduler with a single thread
+            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        } else if (simulationTask != null) {
+            // Same thread, so the old and the new ticks never overlap
+            simulationTask.cancel(false);
+        }
         this.priceUpdateCallback = updateCallback;
         
-        // Create a scheduler with a single thread
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
-        
-        // Schedule price updates every 5 seconds
-        this.scheduler.scheduleAtFixedRate(
+        // Schedule price updates once per period
+        long periodNanos = tickPeriod.toNanos();
+        this.simulationTask = this.scheduler.scheduleAtFixedRate(
             this::updatePrices,
-            5,   // Initial delay
-            5,   // Period
-            TimeUnit.SECONDS
+            periodNanos,   // Initial delay
+            periodNanos,   // Period
+            TimeUnit.NANOSECONDS
         );
     }
     
+    /**
+     * Subscribes to conflated price updates of all predefined assets.
+     *
+     * @param notifier Run on the simulation thread after a tick if no poll of the subscription is pending;
+     *                 it should only schedule the poll, e.g. with {@code Platform.runLater}
+     * @return The subscription, to poll the latest prices from and to close when done
+     */
+    public PriceSubscription subscribe(Runnable notifier) {
+        if (notifier == null) {
+            throw new IllegalArgumentException("Notifier cannot be null.");
+        }
+        int[] instrumentIds = ALL_PREDEFINED_ASSETS.stream().mapToInt(StockData::getInstrumentId).toArray();
+        PriceSubscription subscription = new PriceSubscription(priceBoard, instrumentIds, notifier, subscriptions::remove);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+    
     /**
      * Stop the price simulation
      */
@@ -324,65 +516,52 @@ public class StockDataService {
      * Update prices with random fluctuations
      */
     private void updatePrices() {
-        // Skip update if no callback is registered
-        if (priceUpdateCallback == null) {
-            return;
-        }
+        // One clock read per tick, shared by all assets
+        long tickMillis = MarketClock.getDefault().tick();
         
-        // Update each asset's price with small random change
-        for (StockData asset : ALL_PREDEFINED_ASSETS) {
-            double currentPrice = asset.getCurrentPrice();
-            
-            // Different volatility based on asset type
-            double volatility;
-            
-            // Apply super high volatility to meme coins
-            if (asset.getAssetType() == AssetType.CRYPTO && "Meme".equals(asset.getGroup())) {
-                volatility = 25.0; // Much higher volatility for meme coins (25%)
-            } else {
-                switch (asset.getAssetType()) {
-                    case CRYPTO:
-                        volatility = 7.5; // Regular crypto volatility 
-                        break;
-                    case ETF:
-                    case FUND:
-                        volatility = 1.5; // Funds and ETFs are less volatile
-                        break;
-                    default:
-                        volatility = 2.5; // Standard for stocks
-                }
-            }
-            
-            // Generate random percent change between -volatility% and +volatility%
-            double percentChange = (random.nextDouble() * volatility * 2.0) - volatility;  
-            double changeAmount = currentPrice * (percentChange / 100.0);
-            
-            // Update the price
-            double newPrice = Math.max(0.01, currentPrice + changeAmount);
-            asset.setCurrentPrice(newPrice);
-            
-            // Update price history
-            PriceHistory history = priceHistoryMap.get(asset.getSymbol());
-            if (history != null) {
-                history.updatePrice(newPrice);
+        if (shardedSimulation != null) {
+            // The shards move and publish their prices; tick() returns once all of them finished
+            shardedSimulation.tick(tickMillis);
+        } else {
+            // Move all prices at once in the primitive columns, then publish them
+            kernel.tick();
+            for (int i = 0; i < ALL_PREDEFINED_ASSETS.size(); i++) {
+                priceBoard.publish(ALL_PREDEFINED_ASSETS.get(i).getInstrumentId(), kernel.price(i), tickMillis);
             }
         }
+        lastTickMillis = tickMillis;
+        
+        // Let the subscribers know; each runs its notifier only if it polled since the previous tick
+        for (PriceSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
         
         // Notify callback with updated assets
-        priceUpdateCallback.accept(ALL_PREDEFINED_ASSETS);
+        Consumer<List<StockData>> callback = priceUpdateCallback;
+        if (callback != null) {
+            callback.accept(ALL_PREDEFINED_ASSETS);
+        }
     }
     
     /**
      * Static data class for a stock
      */
     public static class StockData {
+        private final int instrumentId;
         private final String symbol;
         private final String name;
+        /** The price while the asset is not on a {@link PriceBoard}. */
         private double currentPrice;
         private final AssetType assetType;
         private final String group;
+        /** The board holding the live price, set once the service started; {@code null} before. */
+        private volatile PriceBoard board;
+        /** The simulation columns and this asset's index in them; set with {@link #board}. */
+        private TickKernel kernel;
+        private int simulationIndex;
         
         public StockData(String symbol, String name, double initialPrice, AssetType assetType, String group) {
+            this.instrumentId = InstrumentRegistry.getInstance().intern(symbol);
             this.symbol = symbol;
             this.name = name;
             this.currentPrice = initialPrice;
@@ -390,44 +569,25 @@ public class StockDataService {
             this.group = group;
         }
         
+        public int getInstrumentId() { return instrumentId; }
         public String getSymbol() { return symbol; }
         public String getName() { return name; }
-        public double getCurrentPrice() { return currentPrice; }
+        public double getCurrentPrice() {
+            PriceBoard priceBoard = board;
+            return priceBoard != null ? priceBoard.last(instrumentId) : currentPrice;
+        }
         public AssetType getAssetType() { return assetType; }
         public String getGroup() { return group; }
-        public void setCurrentPrice(double price) { this.currentPrice = price; }
-    }
-    
-    /**
-     * Class to track price history for a stock
-     */
-    private static class PriceHistory {
-        private final double purchasePrice;
-        private double highestPrice;
-        private double lowestPrice;
-        private Date lastUpdateTime;
-        
-        public PriceHistory(double initialPrice) {
-            this.purchasePrice = initialPrice;
-            this.highestPrice = initialPrice;
-            this.lowestPrice = initialPrice;
-            this.lastUpdateTime = new Date();
-        }
-        
-        public void updatePrice(double newPrice) {
-            if (newPrice > highestPrice) {
-                highestPrice = newPrice;
-            }
-            if (newPrice < lowestPrice) {
-                lowestPrice = newPrice;
+        /** Sets the price; on a price board this publishes it, so only the simulation thread may call it then. */
+        public void setCurrentPrice(double price) {
+            PriceBoard priceBoard = board;
+            if (priceBoard != null) {
+                kernel.setPrice(simulationIndex, price);
+                priceBoard.publish(instrumentId, price, MarketClock.getDefault().millis());
+            } else {
+                this.currentPrice = price;
             }
-            lastUpdateTime = new Date();
         }
-        
-        public double getPurchasePrice() { return purchasePrice; }
-        public double getHighestPrice() { return highestPrice; }
-        public double getLowestPrice() { return lowestPrice; }
-        public Date getLastUpdateTime() { return lastUpdateTime; }
     }
     
     /**
@@ -441,11 +601,11 @@ public class StockDataService {
         private final double percentChange;
         private final double highestPrice;
         private final double lowestPrice;
-        private final Date lastUpdateTime;
+        private final long lastUpdateMillis;
         
         public PerformanceData(String symbol, double purchasePrice, double currentPrice, 
                               double priceChange, double percentChange, 
-                              double highestPrice, double lowestPrice, Date lastUpdateTime) {
+                              double highestPrice, double lowestPrice, long lastUpdateMillis) {
             this.symbol = symbol;
             this.purchasePrice = purchasePrice;
             this.currentPrice = currentPrice;
@@ -453,7 +613,7 @@ public class StockDataService {
             this.percentChange = percentChange;
             this.highestPrice = highestPrice;
             this.lowestPrice = lowestPrice;
-            this.lastUpdateTime = lastUpdateTime;
+            this.lastUpdateMillis = lastUpdateMillis;
         }
         
         public String getSymbol() { return symbol; }
@@ -463,7 +623,8 @@ public class StockDataService {
         public double getPercentChange() { return percentChange; }
         public double getHighestPrice() { return highestPrice; }
         public double getLowestPrice() { return lowestPrice; }
-        public Date getLastUpdateTime() { return lastUpdateTime; }
+        public Date getLastUpdateTime() { return new Date(lastUpdateMillis); }
+        public long getLastUpdateMillis() { return lastUpdateMillis; }
         
         public boolean isPositivePerformance() {
             return priceChange >= 0;
@@ -0,0 +1,407 @@
+package com.investtrack.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Generates price ticks for a universe of instruments held as primitive columns: price, volatility and
+ * drift per instrument index. By default each tick moves every price by a uniform random factor,
+ * {@code price * (1 + drift + volatility * u)} with {@code u} in [-1, 1), floored at {@link #MIN_PRICE}.
+ * <p>
+ * A tick first draws one shock per instrument into a scratch column, then applies all shocks in a
+ * branch-free loop over the columns. {@link #create(int, long)} returns a kernel that applies them with
+ * the {@code jdk.incubator.vector} API when it was built with the {@code vector} Maven profile, the JVM was
+ * started with {@code --add-modules jdk.incubator.vector} and {@value #VECTOR_PROPERTY} is not
+ * {@code false}; otherwise, and by default, the scalar kernel. Both compute the same prices bit for bit.
+ * </p><p>
+ * Other dynamics are plugged in with {@link #setModels(IntFunction)}: each instrument is then moved by its
+ * {@link PriceModel}, one model at a time over its instruments in index order. Models may keep per-instrument
+ * state in the {@value #STATE_SLOTS} {@link #state(int)} columns.
+ * </p><p>
+ * The shocks are independent unless {@link #setCorrelation(FactorModel, IntFunction)} set a factor model: the
+ * shocks are then built from factors drawn once per tick with {@link #drawFactors(SplittableRandom)} and one
+ * idiosyncratic draw per instrument. Uniform shocks keep their distribution ({@code u = erf(z / sqrt 2)} of
+ * the correlated normal shock {@code z}).
+ * </p><p>
+ * Not thread-safe, except that disjoint ranges may be ticked concurrently with
+ * {@link #tick(SplittableRandom, int, int)}.
+ * </p>
+ */
+public class TickKernel {
+    /** System property that disables the vector kernel when set to {@code false}. */
+    public static final String VECTOR_PROPERTY = "investtrack.vectorKernel";
+    /** Lowest price a tick produces. */
+    public static final double MIN_PRICE = 0.01;
+    /** Number of {@link #state(int)} columns available to price models. */
+    public static final int STATE_SLOTS = 2;
+    private static final double INV_SQRT2 = 1.0 / Math.sqrt(2.0);
+    /** Only compiled with the {@code vector} profile, so it is loaded by name. */
+    private static final String VECTOR_KERNEL = "com.investtrack.service.VectorTickKernel";
+
+    final double[] prices;
+    final double[] volatilities;
+    final double[] drifts;
+    /** Shock per instrument drawn for the current tick, in [-1, 1). */
+    final double[] shocks;
+    private final SplittableRandom random;
+    /** Distinct models set by {@link #setModels(IntFunction)}; {@code null} while all use {@link PriceModels#uniform()}. */
+    private PriceModel[] models;
+    /** Ascending instrument indices per entry of {@link #models}. */
+    private int[][] members;
+    /** Per-instrument model state, allocated with the first models. */
+    private double[][] state;
+    /** Factor group of each instrument; {@code null} while the shocks are independent. */
+    private int[] factorGroups;
+    /** Loadings on the market factor, the group factor and the idiosyncratic draw, per factor group. */
+    private double[] marketLoadings;
+    private double[] groupLoadings;
+    private double[] idiosyncraticLoadings;
+    /** Factors of the current tick. */
+    private double marketFactor;
+    private double[] groupFactors;
+
+    TickKernel(int size, long seed) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size cannot be negative: " + size);
+        }
+        this.prices = new double[size];
+        this.volatilities = new double[size];
+        this.drifts = new double[size];
+        this.shocks = new double[size];
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Creates a kernel, vectorized if the vector kernel was built and the vector API is available.
+     *
+     * @param size The number of instruments
+     * @param seed The seed of the shocks; the same seed gives the same ticks
+     * @return The new kernel, with all prices, volatilities and drifts 0
+     */
+    public static TickKernel create(int size, long seed) {
+        if (isVectorAvailable() && !"false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY))) {
+            try {
+                return (TickKernel) Class.forName(VECTOR_KERNEL)
+                                         .getDeclaredConstructor(int.class, long.class)
+                                         .newInstance(size, seed);
+            } catch (ClassNotFoundException e) {
+                // Built without the vector profile
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Warning: Vector tick kernel unavailable, using the scalar kernel: " + e);
+            }
+        }
+        return new TickKernel(size, seed);
+    }
+
+    /**
+     * Creates a kernel that applies the shocks one instrument at a time.
+     *
+     * @param size The number of instruments
+     * @param seed The seed of the shocks
+     * @return The new kernel
+     */
+    public static TickKernel scalar(int size, long seed) {
+        return new TickKernel(size, seed);
+    }
+
+    /**
+     * @return {@code true} if the {@code jdk.incubator.vector} module was added to the JVM; the vector kernel
+     *         must also have been built for {@link #create(int, long)} to use it
+     */
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /** @return {@code true} if this kernel uses the vector API. */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /** @return The number of instruments. */
+    public int size() {
+        return prices.length;
+    }
+
+    /**
+     * Sets up one instrument.
+     *
+     * @param index The instrument index
+     * @param price The current price
+     * @param volatility The largest relative move per tick (0.025 = 2.5%)
+     * @param drift The relative move per tick added to the shock
+     */
+    public void set(int index, double price, double volatility, double drift) {
+        prices[index] = price;
+        volatilities[index] = volatility;
+        drifts[index] = drift;
+    }
+
+    /**
+     * @param index The instrument index
+     * @return The price after the latest tick
+     */
+    public double price(int index) {
+        return prices[index];
+    }
+
+    /**
+     * Sets the price of an instrument, e.g. when it was changed outside the simulation.
+     *
+     * @param index The instrument index
+     * @param price The new price
+     */
+    public void setPrice(int index, double price) {
+        prices[index] = price;
+    }
+
+    /** @return The price column, indexed by instrument index; only price models change it. */
+    public double[] prices() {
+        return prices;
+    }
+
+    /** @return The volatility column: the scale of the relative move per tick of each instrument. */
+    public double[] volatilities() {
+        return volatilities;
+    }
+
+    /** @return The drift column: the expected relative move per tick of each instrument. */
+    public double[] drifts() {
+        return drifts;
+    }
+
+    /**
+     * @param slot The state column, from 0 to {@link #STATE_SLOTS} - 1
+     * @return The column, indexed by instrument index, for the price models to keep their state in
+     * @throws IllegalStateException If no models were set
+     */
+    public double[] state(int slot) {
+        if (state == null) {
+            throw new IllegalStateException("No price models set.");
+        }
+        return state[slot];
+    }
+
+    /**
+     * Chooses the price model of every instrument and lets the models set up their state from the current
+     * prices, volatilities and drifts, which must be set before. Call it between ticks only.
+     *
+     * @param modelOfIndex Returns the model of an instrument index; {@code null} to move all prices with
+     *                     {@link PriceModels#uniform()} again
+     */
+    public void setModels(IntFunction<PriceModel> modelOfIndex) {
+        models = null;
+        members = null;
+        if (modelOfIndex == null) {
+            return;
+        }
+        // Models in order of first use, so the same assignment draws the shocks in the same order
+        List<PriceModel> distinct = new ArrayList<>();
+        Map<PriceModel, Integer> slots = new IdentityHashMap<>();
+        int[] slotOf = new int[prices.length];
+        int[] counts = new int[prices.length];
+        boolean uniform = true;
+        for (int i = 0; i < prices.length; i++) {
+            PriceModel model = modelOfIndex.apply(i);
+            if (model == null) {
+                throw new IllegalArgumentException("No price model for instrument " + i);
+            }
+            Integer slot = slots.get(model);
+            if (slot == null) {
+                slot = distinct.size();
+                slots.put(model, slot);
+                distinct.add(model);
+            }
+            slotOf[i] = slot;
+            counts[slot]++;
+            uniform &= model == PriceModels.uniform();
+        }
+        if (uniform) {
+            // Keep the column loop (and the vector kernel) for the default dynamics
+            return;
+        }
+        int[][] indices = new int[distinct.size()][];
+        for (int m = 0; m < indices.length; m++) {
+            indices[m] = new int[counts[m]];
+        }
+        int[] filled = new int[indices.length];
+        for (int i = 0; i < prices.length; i++) {
+            int m = slotOf[i];
+            indices[m][filled[m]++] = i;
+        }
+        if (state == null) {
+            state = new double[STATE_SLOTS][prices.length];
+        }
+        for (int m = 0; m < indices.length; m++) {
+            for (int i : indices[m]) {
+                distinct.get(m).initialize(this, i);
+            }
+        }
+        models = distinct.toArray(new PriceModel[0]);
+        members = indices;
+    }
+
+    /**
+     * Correlates the shocks of the instruments through a factor model. Call it between ticks only.
+     *
+     * @param model The correlation structure; {@code null} or {@link FactorModel#independent()} for
+     *              independent shocks
+     * @param groupOfIndex Returns the group of an instrument index, or {@code null} if it has none
+     */
+    public void setCorrelation(FactorModel model, IntFunction<String> groupOfIndex) {
+        factorGroups = null;
+        if (model == null || model.isIndependent()) {
+            return;
+        }
+        // Factor groups in order of first use, so the same universe draws its factors in the same order
+        Map<String, Integer> groups = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        int[] groupOf = new int[prices.length];
+        for (int i = 0; i < prices.length; i++) {
+            String group = groupOfIndex.apply(i);
+            Integer factor = groups.get(group);
+            if (factor == null) {
+                factor = names.size();
+                groups.put(group, factor);
+                names.add(group);
+            }
+            groupOf[i] = factor;
+        }
+        int count = names.size();
+        marketLoadings = new double[count];
+        groupLoadings = new double[count];
+        idiosyncraticLoadings = new double[count];
+        groupFactors = new double[count];
+        double market = model.getMarketCorrelation();
+        for (int g = 0; g < count; g++) {
+            double group = model.getGroupCorrelation(names.get(g));
+            marketLoadings[g] = Math.sqrt(market);
+            groupLoadings[g] = Math.sqrt(group - market);
+            idiosyncraticLoadings[g] = Math.sqrt(1.0 - group);
+        }
+        factorGroups = groupOf;
+    }
+
+    /** @return {@code true} if the shocks are correlated and each tick must start with {@link #drawFactors(SplittableRandom)}. */
+    public boolean isCorrelated() {
+        return factorGroups != null;
+    }
+
+    /**
+     * Draws the market and group factors of the next tick; before the ranges of the tick are ticked, and
+     * only if {@link #isCorrelated()}.
+     *
+     * @param random The stream to draw the factors from
+     */
+    public void drawFactors(SplittableRandom random) {
+        marketFactor = random.nextGaussian();
+        for (int g = 0; g < groupFactors.length; g++) {
+            groupFactors[g] = random.nextGaussian();
+        }
+    }
+
+    /**
+     * Draws the standard normal shock of an instrument for the current tick, correlated with the others if a
+     * factor model is set. For use by price models.
+     *
+     * @param index The instrument index
+     * @param random The stream of the tick's range
+     * @return The shock
+     */
+    public double gaussianShock(int index, SplittableRandom random) {
+        if (factorGroups == null) {
+            return random.nextGaussian();
+        }
+        int g = factorGroups[index];
+        return marketLoadings[g] * marketFactor + groupLoadings[g] * groupFactors[g]
+            + idiosyncraticLoadings[g] * random.nextGaussian();
+    }
+
+    /**
+     * Draws the uniform shock in [-1, 1] of an instrument for the current tick, correlated with the others if
+     * a factor model is set. For use by price models.
+     *
+     * @param index The instrument index
+     * @param random The stream of the tick's range
+     * @return The shock
+     */
+    public double uniformShock(int index, SplittableRandom random) {
+        if (factorGroups == null) {
+            return 2.0 * random.nextDouble() - 1.0;
+        }
+        return erf(gaussianShock(index, random) * INV_SQRT2);
+    }
+
+    /** Moves all prices by one tick, drawing the shocks from the kernel's own random stream. */
+    public void tick() {
+        if (factorGroups != null) {
+            drawFactors(random);
+        }
+        tick(random, 0, prices.length);
+    }
+
+    /**
+     * Moves the prices of a range of instruments by one tick.
+     *
+     * @param random The stream to draw the shocks of the range from, in index order
+     * @param from The first instrument index (inclusive)
+     * @param to The last instrument index (exclusive)
+     */
+    public void tick(SplittableRandom random, int from, int to) {
+        if (models != null) {
+            for (int m = 0; m < models.length; m++) {
+                int[] indices = members[m];
+                int lo = lowerBound(indices, from);
+                int hi = lowerBound(indices, to);
+                if (lo < hi) {
+                    models[m].step(this, indices, lo, hi, random);
+                }
+            }
+            return;
+        }
+        if (factorGroups != null) {
+            for (int i = from; i < to; i++) {
+                shocks[i] = uniformShock(i, random);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                shocks[i] = 2.0 * random.nextDouble() - 1.0;
+            }
+        }
+        apply(from, to);
+    }
+
+    /** Applies the drawn shocks of a range to its prices. */
+    void apply(int from, int to) {
+        for (int i = from; i < to; i++) {
+            // Fused like the vector kernel, so both round identically
+            double factor = Math.fma(shocks[i], volatilities[i], 1.0 + drifts[i]);
+            prices[i] = Math.max(MIN_PRICE, prices[i] * factor);
+        }
+    }
+
+    /**
+     * Error function with an absolute error below 1.5e-7 (Abramowitz and Stegun 7.1.26).
+     *
+     * @param x The argument
+     * @return erf(x), in [-1, 1]
+     */
+    static double erf(double x) {
+        double z = Math.abs(x);
+        double t = 1.0 / (1.0 + 0.3275911 * z);
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        double y = 1.0 - poly * Math.exp(-z * z);
+        return x < 0 ? -y : y;
+    }
+
+    /** @return The position of the first index in the ascending array that is not below the key. */
+    private static int lowerBound(int[] indices, int key) {
+        int found = Arrays.binarySearch(indices, key);
+        return found >= 0 ? found : -found - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package com.investtrack.service;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link TickKernel} that applies the shocks with the {@code jdk.incubator.vector} API, a full vector of
+ * instruments per step. Only compiled with the {@code vector} Maven profile, and only loaded by
+ * {@link TickKernel#create(int, long)} when the module is present.
+ */
+final class VectorTickKernel extends TickKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorTickKernel(int size, long seed) {
+        super(size, seed);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void apply(int from, int to) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector shock = DoubleVector.fromArray(SPECIES, shocks, i);
+            DoubleVector volatility = DoubleVector.fromArray(SPECIES, volatilities, i);
+            DoubleVector drift = DoubleVector.fromArray(SPECIES, drifts, i);
+            DoubleVector factor = shock.fma(volatility, drift.add(1.0));
+            DoubleVector.fromArray(SPECIES, prices, i).mul(factor).max(MIN_PRICE).intoArray(prices, i);
+        }
+        super.apply(i, to);
+    }
+}
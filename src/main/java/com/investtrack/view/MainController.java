@@ -1,12 +1,21 @@
 package com.investtrack.view;
 
 import com.investtrack.model.AssetType;
+import com.investtrack.model.AssetTypeValues;
 import com.investtrack.model.Holding;
+import com.investtrack.model.MarketClock;
 import com.investtrack.model.Portfolio;
 import com.investtrack.model.PortfolioSnapshot;
+import com.investtrack.model.PortfolioState;
+import com.investtrack.model.PriceSeries;
+import com.investtrack.persistence.PortfolioLedger;
 import com.investtrack.persistence.PortfolioRepository;
+import com.investtrack.service.PriceQuote;
+import com.investtrack.service.PriceSubscription;
 import com.investtrack.service.StockDataService;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.ReadOnlyStringWrapper;
@@ -33,11 +42,14 @@ import javafx.scene.text.Text;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import javafx.util.Duration;
 
 import java.nio.file.Paths;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
@@ -92,14 +104,30 @@ public class MainController {
 
     // --- Datenmodell & Persistenz ---
     private PortfolioRepository repo;
+    /** Ledger der Portfolio-Änderungen; {@code null}, wenn er nicht geöffnet werden konnte. */
+    private PortfolioLedger ledger;
     private Portfolio portfolio;
     private ObservableList<Holding> data;
     
+    // --- Reihenfolge der Asset-Typen im Allokations-Chart (wiederverwendet) ---
+    private final AssetType[] allocationOrder = AssetType.values();
+    
     // --- Verfolgung der letzten Aktualisierungszeit ---
     private LocalDateTime lastUpdateTime;
 
     // --- Stock Data Service für die Preissimulation ---
     private final StockDataService stockDataService = StockDataService.getInstance();
+    private PriceSubscription priceSubscription;
+    /** Intervall, in dem Kursänderungen gespeichert werden; andere Änderungen werden sofort gespeichert. */
+    private static final Duration PRICE_SAVE_INTERVAL = Duration.seconds(5);
+    /** Kurs pro Instrument-ID aus der laufenden Abfrage, 0 ohne neuen Kurs; wird wiederverwendet. */
+    private double[] latestPrices = new double[0];
+    /** Instrument-IDs mit einem Kurs in {@link #latestPrices}, zum Zurücksetzen nach der Abfrage. */
+    private int[] polledInstruments = new int[64];
+    private int polledCount;
+    private final PriceSubscription.Listener quoteListener = this::storeQuote;
+    /** {@code true}, wenn Kursänderungen seit dem letzten Speichern anstehen; der Timer speichert sie. */
+    private boolean pricesUnsaved;
     
     // --- Formatierung ---
     private static final NumberFormat CURRENCY_FORMAT = NumberFormat.getCurrencyInstance(Locale.getDefault());
@@ -119,8 +147,17 @@ public class MainController {
         NUMBER_FORMAT.setMaximumFractionDigits(6);
         
         // 1. Repository initialisieren und Daten laden
+        // Das Portfolio wird aus dem letzten Checkpoint und den seither im Ledger angehängten Ereignissen aufgebaut
         repo = new PortfolioRepository(Paths.get(System.getProperty("user.home"), "investtrack.json"));
-        portfolio = repo.load();
+        ledger = new PortfolioLedger(repo, PortfolioLedger.DEFAULT_CHECKPOINT_INTERVAL);
+        try {
+            portfolio = ledger.open();
+        } catch (IOException e) {
+            System.err.println("Error opening portfolio ledger, saving full snapshots instead.");
+            e.printStackTrace();
+            ledger = null;
+            portfolio = repo.load();
+        }
         data = FXCollections.observableArrayList(portfolio.getHoldings());
         
         // 2. Tabellenspalten konfigurieren
@@ -153,31 +190,31 @@ public class MainController {
             btnToggleTheme.setVisible(false);
         }
 
-        // 7. Listener für Datenänderungen hinzufügen
-        data.addListener((javafx.collections.ListChangeListener.Change<? extends Holding> c) -> {
-            boolean changed = false;
+        // 7. Listener für Datenänderungen hinzufügen; alle Änderungen eines Ereignisses als ein Batch
+        data.addListener((javafx.collections.ListChangeListener.Change<? extends Holding> c) -> portfolio.batch(b -> {
             while (c.next()) {
-                if (c.wasAdded() || c.wasRemoved() || c.wasUpdated()) {
-                    changed = true;
-                    // Behandlung von Hinzufügungen
-                    if(c.wasAdded()){
-                        c.getAddedSubList().forEach(h -> {
-                            if(portfolio.findHoldingById(h.getId()).isEmpty()){
-                                portfolio.addHolding(h);
-                            }
-                        });
-                    }
-                    // Behandlung von Entfernungen
-                    if(c.wasRemoved()){
-                         c.getRemoved().forEach(h -> portfolio.removeHoldingById(h.getId()));
-                    }
+                // Behandlung von Hinzufügungen
+                if(c.wasAdded()){
+                    c.getAddedSubList().forEach(h -> {
+                        if(portfolio.findHoldingById(h.getId()).isEmpty()){
+                            b.addHolding(h);
+                        }
+                    });
+                }
+                // Behandlung von Entfernungen
+                if(c.wasRemoved()){
+                     c.getRemoved().forEach(h -> b.removeHoldingById(h.getId()));
                 }
             }
-            if (changed) {
-                repo.save(portfolio);
-                updateDashboard();
-                holdingsTable.refresh();
-            }
+        }));
+
+        // Speichern und Dashboard aktualisieren: einmal pro Änderung bzw. Batch des Portfolios.
+        // Kursänderungen lösen den Listener nicht aus; sie werden in applyPriceUpdates angezeigt
+        // und periodisch gespeichert (siehe startStockPriceSimulation)
+        portfolio.addChangeListener(state -> {
+            saveChanges();
+            updateDashboard();
+            holdingsTable.refresh();
         });
         
         // 8. Preissimulation für Aktienbestände starten
@@ -188,6 +225,19 @@ public class MainController {
         updateLastUpdateTime();
     }
     
+    /**
+     * Schreibt die seit dem letzten Aufruf angefallenen Ereignisse in den Ledger
+     * (bzw. speichert das ganze Portfolio, falls kein Ledger verfügbar ist).
+     */
+    private void saveChanges() {
+        pricesUnsaved = false;
+        if (ledger != null) {
+            ledger.flush();
+        } else {
+            repo.save(portfolio);
+        }
+    }
+    
     /**
      * Initializes the mini performance chart in the dashboard header with improved styling and zoom function
      */
@@ -202,14 +252,12 @@ public class MainController {
         // Add historical data if available
         if (!portfolio.getPerformanceHistory().isEmpty()) {
             // Use the last 5 snapshots for better visible fluctuations (zoomed view)
-            List<PortfolioSnapshot> history = portfolio.getPerformanceHistory();
-            int startIndex = Math.max(0, history.size() - 5);
+            List<PortfolioSnapshot> history = portfolio.latestN(5);
 
             double minValue = Double.MAX_VALUE;
             double maxValue = Double.MIN_VALUE;
 
-            for (int i = startIndex; i < history.size(); i++) {
-                PortfolioSnapshot snapshot = history.get(i);
+            for (PortfolioSnapshot snapshot : history) {
                 String timeLabel = snapshot.getTimestamp().format(TIME_FORMATTER);
                 double value = snapshot.getTotalAssetValue();
                 series.getData().add(new XYChart.Data<>(timeLabel, value));
@@ -282,19 +330,15 @@ public class MainController {
         
         // Wenn wir historische Daten haben, fügen wir sie dem Chart hinzu
         if (!portfolio.getPerformanceHistory().isEmpty()) {
-            List<PortfolioSnapshot> history = portfolio.getPerformanceHistory();
-            int startIndex = 0;
-            
-            if (points > 0) {
-                // Startindex basierend auf dem Zoom-Level berechnen
-                startIndex = Math.max(0, history.size() - points);
-            }
+            // Nur die letzten Punkte gemäss Zoom-Level (als View, ohne Kopie)
+            List<PortfolioSnapshot> history = points > 0
+                    ? portfolio.latestN(points)
+                    : portfolio.getPerformanceHistory();
             
             double minValue = Double.MAX_VALUE;
             double maxValue = Double.MIN_VALUE;
             
-            for (int i = startIndex; i < history.size(); i++) {
-                PortfolioSnapshot snapshot = history.get(i);
+            for (PortfolioSnapshot snapshot : history) {
                 String timeLabel = snapshot.getTimestamp().format(TIME_FORMATTER);
                 double value = snapshot.getTotalAssetValue();
                 series.getData().add(new XYChart.Data<>(timeLabel, value));
@@ -385,8 +429,10 @@ public class MainController {
         // Clear existing data
         allocationChart.getData().clear();
 
-        double totalAssets = portfolio.getTotalAssetValue();
-        double cashBalance = portfolio.getCashBalance();
+        // Read one published version so cash, totals and slices are consistent with each other
+        PortfolioState state = portfolio.getState();
+        double totalAssets = state.getTotalAssetValue();
+        double cashBalance = state.getCashBalance();
 
         // Modern color palette with carefully selected colors for better visual distinction
         Map<AssetType, String> colorMap = new HashMap<>();
@@ -418,28 +464,20 @@ public class MainController {
             // Enhanced tooltip with better formatting
             Tooltip tooltip = new Tooltip(
                 String.format("Cash Balance: %s (%.1f%%)",
-                    CURRENCY_FORMAT.format(portfolio.getCashBalance()),
+                    CURRENCY_FORMAT.format(cashBalance),
                     cashPercentage)
             );
             tooltip.setStyle("-fx-font-size: 12px;");
             Tooltip.install(cashData.getNode(), tooltip);
         }
 
-        // Group holdings by type and calculate total value by type
-        Map<AssetType, Double> assetTypeValues = data.stream()
-            .collect(Collectors.groupingBy(
-                Holding::getAssetType,
-                Collectors.summingDouble(Holding::getCurrentValue)
-            ));
-
-        // Create a list for sorting by value (largest first)
-        List<Map.Entry<AssetType, Double>> sortedEntries = new ArrayList<>(assetTypeValues.entrySet());
-        sortedEntries.sort(Map.Entry.<AssetType, Double>comparingByValue().reversed());
+        // Value per asset type is maintained by the portfolio; order the types by value (largest first)
+        AssetTypeValues assetTypeValues = state.getAssetTypeValues();
+        sortByValueDescending(allocationOrder, assetTypeValues);
 
         // Then add segments for each asset type with modern colors
-        for (Map.Entry<AssetType, Double> entry : sortedEntries) {
-            AssetType type = entry.getKey();
-            double value = entry.getValue();
+        for (AssetType type : allocationOrder) {
+            double value = assetTypeValues.get(type);
 
             // Skip if already covered (cash) or value is negligible
             if (type == AssetType.CASH || value < 0.01) continue;
@@ -478,6 +516,23 @@ public class MainController {
         allocationChart.setLabelsVisible(false);
     }
     
+    /**
+     * Sorts the asset types in place by their current value, largest first.
+     * Insertion sort on the handful of asset types, so no comparator or boxed values are needed.
+     */
+    private static void sortByValueDescending(AssetType[] types, AssetTypeValues values) {
+        for (int i = 1; i < types.length; i++) {
+            AssetType current = types[i];
+            double currentValue = values.get(current);
+            int j = i - 1;
+            while (j >= 0 && values.get(types[j]) < currentValue) {
+                types[j + 1] = types[j];
+                j--;
+            }
+            types[j + 1] = current;
+        }
+    }
+    
     /**
      * Initialisiert das Asset-Breakdown-Chart, das Bargeld, Aktien, Krypto und Gesamtwerte im Zeitverlauf anzeigt
      * mit verbesserter Visualisierung
@@ -488,8 +543,8 @@ public class MainController {
         // Vorhandene Daten löschen
         assetBreakdownChart.getData().clear();
         
-        // Historische Daten aus Portfolio-Snapshots abrufen
-        List<PortfolioSnapshot> history = portfolio.getPerformanceHistory();
+        // Nur die letzten 7 Datenpunkte für mehr Übersichtlichkeit anzeigen
+        List<PortfolioSnapshot> history = portfolio.latestN(7);
         
         if (history.isEmpty()) {
             // Anstelle der Verwendung von setPlaceholder, das für LineChart nicht verfügbar ist,
@@ -499,9 +554,6 @@ public class MainController {
             return;
         }
         
-        // Nur die letzten 7 Datenpunkte für mehr Übersichtlichkeit anzeigen
-        int startIndex = Math.max(0, history.size() - 7);
-        
         // Eine Map erstellen, um Asset-Werte nach Typ und Zeitstempel zu speichern
         Map<AssetType, XYChart.Series<String, Number>> seriesMap = new HashMap<>();
         
@@ -529,8 +581,7 @@ public class MainController {
         double maxAssetValue = 0;
         
         // Jeden Snapshot verarbeiten
-        for (int i = startIndex; i < history.size(); i++) {
-            PortfolioSnapshot snapshot = history.get(i);
+        for (PortfolioSnapshot snapshot : history) {
             String timeLabel = snapshot.getTimestamp().format(
                 DateTimeFormatter.ofPattern("HH:mm")
             );
@@ -544,17 +595,14 @@ public class MainController {
             double cashValue = snapshot.getCashBalance();
             seriesMap.get(AssetType.CASH).getData().add(new XYChart.Data<>(timeLabel, cashValue));
             
-            // Berechnete Asset-Werte für das Datum verwenden
-            // In einer realen Implementierung würde dies aus dem Asset-Typ-Breakdown des Snapshots kommen
-            Map<AssetType, Double> assetValues = 
-                calculateTypicalAssetDistribution(totalValue - cashValue, i - startIndex);
-            
-            // Datenpunkte für jeden Asset-Typ hinzufügen
-            for (Map.Entry<AssetType, Double> entry : assetValues.entrySet()) {
-                if (entry.getKey() != AssetType.CASH && seriesMap.containsKey(entry.getKey())) {
-                    seriesMap.get(entry.getKey()).getData().add(
-                        new XYChart.Data<>(timeLabel, entry.getValue())
-                    );
+            // Im Snapshot gespeicherte Werte je Asset-Typ verwenden (ältere Snapshots haben keine)
+            if (snapshot.hasAssetTypeValues()) {
+                for (Map.Entry<AssetType, XYChart.Series<String, Number>> entry : seriesMap.entrySet()) {
+                    if (entry.getKey() != AssetType.CASH) {
+                        entry.getValue().getData().add(
+                            new XYChart.Data<>(timeLabel, snapshot.getAssetTypeValue(entry.getKey()))
+                        );
+                    }
                 }
             }
         }
@@ -596,35 +644,6 @@ public class MainController {
         assetBreakdownChart.setAnimated(false);
     }
     
-    /**
-     * Hilfsmethode zur Generierung einer typischen Asset-Verteilung für Demonstrationszwecke
-     * In einer realen App würde dies aus tatsächlichen historischen Daten stammen
-     */
-    private Map<AssetType, Double> calculateTypicalAssetDistribution(double totalInvestedValue, int timeOffset) {
-        Map<AssetType, Double> result = new HashMap<>();
-        
-        // Eine realistisch aussehende Verteilung erstellen, die sich im Laufe der Zeit leicht ändert
-        double stockBase = 0.45 + (timeOffset * 0.01); // Aktien wachsen leicht
-        double cryptoBase = 0.25 - (timeOffset * 0.005); // Krypto nimmt leicht ab
-        double fundBase = 0.20;
-        double etfBase = 0.10 + (timeOffset * 0.002); // ETFs wachsen sehr leicht
-        
-        // Normalisieren, um sicherzustellen, dass sie 1.0 ergeben
-        double sum = stockBase + cryptoBase + fundBase + etfBase;
-        stockBase /= sum;
-        cryptoBase /= sum;
-        fundBase /= sum;
-        etfBase /= sum;
-        
-        // Absolute Werte berechnen
-        result.put(AssetType.STOCK, totalInvestedValue * stockBase);
-        result.put(AssetType.CRYPTO, totalInvestedValue * cryptoBase);
-        result.put(AssetType.FUND, totalInvestedValue * fundBase);
-        result.put(AssetType.ETF, totalInvestedValue * etfBase);
-        
-        return result;
-    }
-    
     /**
      * Configures the cell value factories for each table column
      */
@@ -861,13 +880,12 @@ public class MainController {
                 XYChart.Series<Number, Number> series = new XYChart.Series<>();
                 
                 // Add price history points
-                List<Holding.PricePoint> history = holding.getPriceHistory();
+                PriceSeries history = holding.getPriceSeries();
                 if (history.size() > 0) {
                     // Only show last 10 points maximum
                     int startIndex = Math.max(0, history.size() - 10);
                     for (int i = startIndex; i < history.size(); i++) {
-                        Holding.PricePoint point = history.get(i);
-                        series.getData().add(new XYChart.Data<>(i, point.getPrice()));
+                        series.getData().add(new XYChart.Data<>(i, history.priceAt(i)));
                     }
                 } else {
                     // If no history, just add current price
@@ -949,9 +967,7 @@ public class MainController {
      * Updates the mini chart with current performance data
      */
     private void updateMiniChart() {
-        // Take a new snapshot for the chart
-        portfolio.takeSnapshot();
-        
+        // The snapshot for this update was already requested by updateDashboard()
         // Refresh chart
         initializeMiniChart();
     }
@@ -983,7 +999,6 @@ public class MainController {
         if (result.isPresent() && result.get() == ButtonType.OK) {
             portfolio.reset();
             data.clear();
-            repo.save(portfolio);
             updateDashboard();
             showInformationAlert("Portfolio zurückgesetzt", 
                 "Das Portfolio wurde erfolgreich zurückgesetzt. Guthaben: " + 
@@ -1044,14 +1059,15 @@ public class MainController {
         series.setName("Price");
 
         // Add data points
-        List<Holding.PricePoint> history = selectedHolding.getPriceHistory();
-        for (int i = 0; i < history.size(); i++) {
-            series.getData().add(new XYChart.Data<>(i, history.get(i).getPrice()));
+        PriceSeries priceSeries = selectedHolding.getPriceSeries();
+        double[] prices = priceSeries.lastPrices(priceSeries.size());
+        for (int i = 0; i < prices.length; i++) {
+            series.getData().add(new XYChart.Data<>(i, prices[i]));
         }
 
         // Get first and last prices to determine trend
-        double firstPrice = history.isEmpty() ? 0 : history.get(0).getPrice();
-        double lastPrice = history.isEmpty() ? 0 : history.get(history.size() - 1).getPrice();
+        double firstPrice = prices.length == 0 ? 0 : prices[0];
+        double lastPrice = prices.length == 0 ? 0 : prices[prices.length - 1];
         boolean isPositiveTrend = lastPrice >= firstPrice;
 
         // Add series to chart
@@ -1067,7 +1083,9 @@ public class MainController {
         }
 
         // Apply styling to data points
-        for (XYChart.Data<Number, Number> data : series.getData()) {
+        DateTimeFormatter tooltipTimeFormat = DateTimeFormatter.ofPattern("HH:mm:ss");
+        for (int index = 0; index < series.getData().size(); index++) {
+            XYChart.Data<Number, Number> data = series.getData().get(index);
             if (data.getNode() != null) {
                 if (isPositiveTrend) {
                     data.getNode().setStyle("-fx-background-color: #4ECB71, white; -fx-background-radius: 6px; -fx-padding: 5px;");
@@ -1075,14 +1093,12 @@ public class MainController {
                     data.getNode().setStyle("-fx-background-color: #EA5455, white; -fx-background-radius: 6px; -fx-padding: 5px;");
                 }
 
-                // Add tooltip for each data point
-                int index = series.getData().indexOf(data);
-                if (index < history.size()) {
-                    Holding.PricePoint point = history.get(index);
+                // Add tooltip for each data point; data point i is point i of the price series
+                if (index < priceSeries.size()) {
                     Tooltip tooltip = new Tooltip(
                         String.format("Time: %s\nPrice: %s",
-                            point.getTimestamp().format(DateTimeFormatter.ofPattern("HH:mm:ss")),
-                            CURRENCY_FORMAT.format(point.getPrice()))
+                            MarketClock.nanosToLocalDateTime(priceSeries.epochNanosAt(index)).format(tooltipTimeFormat),
+                            CURRENCY_FORMAT.format(priceSeries.priceAt(index)))
                     );
                     Tooltip.install(data.getNode(), tooltip);
                 }
@@ -1207,11 +1223,14 @@ public class MainController {
         PieChart chart = new PieChart();
         chart.setTitle("Portfolio Allocation");
         
-        // Group holdings by type and calculate total value by type
-        data.stream()
-            .collect(Collectors.groupingBy(Holding::getAssetType,
-                    Collectors.summingDouble(Holding::getCurrentValue)))
-            .forEach((type, value) -> chart.getData().add(new PieChart.Data(type.toString(), value)));
+        // Add a slice per asset type from the value totals maintained by the portfolio
+        AssetTypeValues assetTypeValues = portfolio.getAssetTypeValues();
+        for (AssetType type : AssetType.values()) {
+            double value = assetTypeValues.get(type);
+            if (value != 0) {
+                chart.getData().add(new PieChart.Data(type.toString(), value));
+            }
+        }
         
         // Sort slices by value (largest first)
         chart.getData().sort(Comparator.comparingDouble(PieChart.Data::getPieValue).reversed());
@@ -1242,32 +1261,73 @@ public class MainController {
      * Starts the stock price simulation that periodically updates prices
      */
     private void startStockPriceSimulation() {
-        // Start simulation with a callback to update UI when prices change
-        stockDataService.startPriceSimulation(updatedStocks -> {
-            // Update UI on the JavaFX application thread
-            javafx.application.Platform.runLater(() -> {
-                // For each holding, check if its symbol matches a stock and update its price
+        // Conflated updates: at most one UI update is queued, however fast the simulation ticks
+        priceSubscription = stockDataService.subscribe(() -> Platform.runLater(this::applyPriceUpdates));
+        // Price marks are buffered by the ledger and written out periodically rather than on every update
+        Timeline priceSaver = new Timeline(new KeyFrame(PRICE_SAVE_INTERVAL, e -> {
+            if (pricesUnsaved) {
+                saveChanges();
+            }
+        }));
+        priceSaver.setCycleCount(Timeline.INDEFINITE);
+        priceSaver.play();
+        stockDataService.startPriceSimulation();
+    }
+    
+    /**
+     * Applies the latest simulated prices since the previous update to the holdings, as one batch
+     */
+    private void applyPriceUpdates() {
+        polledCount = 0;
+        priceSubscription.poll(quoteListener);
+        if (polledCount == 0) {
+            return;
+        }
+        // Runs on the JavaFX application thread; all records of this update share the tick's timestamp
+        long versionBefore = portfolio.getState().getVersion();
+        try {
+            MarketClock.getDefault().runAt(stockDataService.getLastTickMillis(), () -> portfolio.batch(b -> {
+                // For each holding, look up the latest price by instrument ID
                 for (Holding holding : data) {
                     if (holding.getAssetType() == AssetType.STOCK || 
                         holding.getAssetType() == AssetType.ETF || 
                         holding.getAssetType() == AssetType.FUND ||
                         holding.getAssetType() == AssetType.CRYPTO) {
-                        // Find matching stock
-                        updatedStocks.stream()
-                            .filter(stock -> stock.getSymbol().equals(holding.getSymbol()))
-                            .findFirst()
-                            .ifPresent(stock -> {
-                                // Update the holding's price
-                                holding.setPricePerUnit(stock.getCurrentPrice());
-                            });
+                        int instrumentId = holding.getInstrumentId();
+                        double price = instrumentId >= 0 && instrumentId < latestPrices.length ? latestPrices[instrumentId] : 0;
+                        if (price > 0 && price != holding.getPricePerUnit()) {
+                            // Update the holding's price
+                            holding.setPricePerUnit(price);
+                        }
                     }
                 }
-                
-                // Refresh UI
-                holdingsTable.refresh();
-                updateDashboard();
-            });
-        });
+            }));
+        } finally {
+            for (int i = 0; i < polledCount; i++) {
+                latestPrices[polledInstruments[i]] = 0;
+            }
+        }
+        // Price marks do not notify the portfolio's change listeners, so refresh here
+        if (portfolio.getState().getVersion() != versionBefore) {
+            pricesUnsaved = true;
+            holdingsTable.refresh();
+            updateDashboard();
+        }
+    }
+    
+    /**
+     * Stores a polled quote in the reused price array
+     */
+    private void storeQuote(PriceQuote quote) {
+        int instrumentId = quote.getInstrumentId();
+        if (instrumentId >= latestPrices.length) {
+            latestPrices = Arrays.copyOf(latestPrices, Math.max(instrumentId + 1, latestPrices.length * 2));
+        }
+        if (polledCount == polledInstruments.length) {
+            polledInstruments = Arrays.copyOf(polledInstruments, polledCount * 2);
+        }
+        latestPrices[instrumentId] = quote.getLast();
+        polledInstruments[polledCount++] = instrumentId;
     }
     
     /**
@@ -1418,6 +1478,21 @@ public class MainController {
                 return;
             }
             
+            // Weitere Käufe eines gehaltenen Symbols werden als neues Lot der bestehenden Position erfasst
+            Optional<Holding> existing = portfolio.findHoldingsBySymbol(selection.stock.getSymbol()).stream()
+                .filter(h -> h.getAssetType() == selection.stock.getAssetType())
+                .findFirst();
+            if (existing.isPresent()) {
+                portfolio.batch(b -> {
+                    b.deductCash(totalCost);
+                    b.buy(existing.get(), selection.quantity, selection.stock.getCurrentPrice());
+                });
+                lblStatus.setText("Added " + selection.quantity + " " + 
+                                 selection.stock.getSymbol() + " for " + 
+                                 CURRENCY_FORMAT.format(totalCost));
+                return;
+            }
+            
             // Create a new holding from the selected asset
             Holding newHolding = stockDataService.createHoldingFromStock(
                 selection.stock.getSymbol(), 
@@ -1425,10 +1500,11 @@ public class MainController {
             );
             
             if (newHolding != null) {
-                // Deduct cash and add holding to portfolio
-                portfolio.deductCash(totalCost);
-                data.add(newHolding);
-                updateDashboard();
+                // Deduct cash and add holding to portfolio in one batch
+                portfolio.batch(b -> {
+                    b.deductCash(totalCost);
+                    data.add(newHolding);
+                });
                 
                 // Show success message
                 lblStatus.setText("Added " + selection.quantity + " " + 
@@ -1744,8 +1820,10 @@ public class MainController {
             }
             
             // Add to portfolio and deduct cash
-            portfolio.deductCash(cost);
-            data.add(newHolding);
+            portfolio.batch(b -> {
+                b.deductCash(cost);
+                data.add(newHolding);
+            });
         });
     }
 
@@ -1799,10 +1877,12 @@ public class MainController {
         if (result.isPresent() && result.get() == ButtonType.OK) {
             // Add cash back from selling
             double value = selectedHolding.getCurrentValue();
-            portfolio.addCash(value);
-            
-            // Remove from the observable list (will trigger update to portfolio)
-            data.remove(selectedHolding);
+            portfolio.batch(b -> {
+                b.addCash(value);
+                
+                // Remove from the observable list (will trigger update to portfolio)
+                data.remove(selectedHolding);
+            });
         }
     }
 
@@ -1903,27 +1983,34 @@ public class MainController {
             // Berechne den Verkaufswert
             double saleValue = sellQuantity * selectedHolding.getPricePerUnit();
             
+            double realizedBefore = portfolio.getRealizedProfitLoss();
+            
             // Wenn komplette Position verkauft wird
             if (sellQuantity >= selectedHolding.getQuantity()) {
-                data.remove(selectedHolding);
-                portfolio.addCash(saleValue);
+                portfolio.batch(b -> {
+                    b.sell(selectedHolding, selectedHolding.getQuantity(), selectedHolding.getPricePerUnit());
+                    data.remove(selectedHolding);
+                    b.addCash(saleValue);
+                });
                 showInformationAlert("Verkauf abgeschlossen", 
                     "Position " + selectedHolding.getSymbol() + " wurde vollständig verkauft für " + 
-                    CURRENCY_FORMAT.format(saleValue) + ".");
+                    CURRENCY_FORMAT.format(saleValue) + ".\nRealisierter Gewinn/Verlust: " +
+                    CURRENCY_FORMAT.format(portfolio.getRealizedProfitLoss() - realizedBefore));
             } else {
-                // Teilverkauf - reduziere die Anzahl
-                double remainingQuantity = selectedHolding.getQuantity() - sellQuantity;
-                selectedHolding.setQuantity(remainingQuantity);
-                portfolio.addCash(saleValue);
+                // Teilverkauf - die verkauften Einheiten werden nach der Lot-Methode des Portfolios zugeordnet
+                portfolio.batch(b -> {
+                    b.sell(selectedHolding, sellQuantity, selectedHolding.getPricePerUnit());
+                    b.addCash(saleValue);
+                });
                 showInformationAlert("Verkauf abgeschlossen", 
                     sellQuantity + " Einheiten von " + selectedHolding.getSymbol() + 
-                    " wurden verkauft für " + CURRENCY_FORMAT.format(saleValue) + ".");
+                    " wurden verkauft für " + CURRENCY_FORMAT.format(saleValue) + ".\nRealisierter Gewinn/Verlust: " +
+                    CURRENCY_FORMAT.format(portfolio.getRealizedProfitLoss() - realizedBefore));
             }
             
-            // UI aktualisieren
+            // UI aktualisieren (gespeichert wird über den Change-Listener des Portfolios)
             holdingsTable.refresh();
             updateDashboard();
-            repo.save(portfolio);
         });
     }
     
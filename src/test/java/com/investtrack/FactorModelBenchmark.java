@@ -0,0 +1,91 @@
+package com.investtrack;
+
+import com.investtrack.service.FactorModel;
+import com.investtrack.service.PriceModels;
+import com.investtrack.service.TickKernel;
+
+import java.util.Arrays;
+
+/**
+ * Measures the time per tick of correlated shocks ({@link FactorModel}) against independent ones, for the
+ * uniform column loop and for geometric Brownian motion, and prints the correlation of the log returns of
+ * instruments in the same and in different groups next to the configured ones. Run with a fixed heap, e.g.
+ * {@code -Xms2g -Xmx2g}; the first argument sets the number of instruments, the second the number of groups.
+ */
+public class FactorModelBenchmark {
+
+    private static final int INSTRUMENTS = 1_000_000;
+    private static final int GROUPS = 100;
+    private static final int WARMUP_TICKS = 50;
+    private static final int TICKS = 100;
+    private static final FactorModel MODEL = FactorModel.of(0.3, 0.6);
+
+    public static void main(String[] args) {
+        int instruments = args.length > 0 ? Integer.parseInt(args[0]) : INSTRUMENTS;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : GROUPS;
+        System.out.println(instruments + " instruments, " + groups + " groups");
+
+        for (boolean gbm : new boolean[] {false, true}) {
+            for (FactorModel model : new FactorModel[] {FactorModel.independent(), MODEL}) {
+                TickKernel kernel = kernel(instruments, groups, gbm, model);
+                long[] nanos = new long[TICKS];
+                for (int i = 0; i < WARMUP_TICKS + TICKS; i++) {
+                    long start = System.nanoTime();
+                    kernel.tick();
+                    if (i >= WARMUP_TICKS) {
+                        nanos[i - WARMUP_TICKS] = System.nanoTime() - start;
+                    }
+                }
+                Arrays.sort(nanos);
+                System.out.printf("%-8s %-12s median %.2f ms/tick%n", gbm ? "gbm" : "uniform",
+                                  model.isIndependent() ? "independent" : "correlated", nanos[TICKS / 2] / 1e6);
+            }
+        }
+
+        // Sample correlations over many ticks of a small universe: instruments 0 and 1 share a group, 0 and 2 do not
+        TickKernel kernel = kernel(3 * groups, groups, true, MODEL);
+        int samples = 20_000;
+        double[][] returns = new double[3][samples];
+        int[] probes = {0, groups, 1};
+        for (int t = 0; t < samples; t++) {
+            double[] before = new double[3];
+            for (int p = 0; p < 3; p++) {
+                before[p] = kernel.price(probes[p]);
+            }
+            kernel.tick();
+            for (int p = 0; p < 3; p++) {
+                returns[p][t] = Math.log(kernel.price(probes[p]) / before[p]);
+            }
+        }
+        System.out.printf("same group:      correlation %.3f (configured %.3f)%n",
+                          correlation(returns[0], returns[1]), MODEL.correlation("Group 0", "Group 0"));
+        System.out.printf("different group: correlation %.3f (configured %.3f)%n",
+                          correlation(returns[0], returns[2]), MODEL.correlation("Group 0", "Group 1"));
+    }
+
+    private static TickKernel kernel(int instruments, int groups, boolean gbm, FactorModel model) {
+        TickKernel kernel = TickKernel.scalar(instruments, 42);
+        for (int i = 0; i < instruments; i++) {
+            kernel.set(i, 100, 0.01, 0.0);
+        }
+        if (gbm) {
+            kernel.setModels(i -> PriceModels.gbm());
+        }
+        kernel.setCorrelation(model, i -> "Group " + (i % groups));
+        return kernel;
+    }
+
+    private static double correlation(double[] a, double[] b) {
+        double meanA = Arrays.stream(a).average().orElse(0);
+        double meanB = Arrays.stream(b).average().orElse(0);
+        double covariance = 0;
+        double varianceA = 0;
+        double varianceB = 0;
+        for (int i = 0; i < a.length; i++) {
+            covariance += (a[i] - meanA) * (b[i] - meanB);
+            varianceA += (a[i] - meanA) * (a[i] - meanA);
+            varianceB += (b[i] - meanB) * (b[i] - meanB);
+        }
+        return covariance / Math.sqrt(varianceA * varianceB);
+    }
+}
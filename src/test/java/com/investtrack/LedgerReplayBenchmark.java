@@ -0,0 +1,71 @@
+package com.investtrack;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.model.Holding;
+import com.investtrack.model.MarketClock;
+import com.investtrack.model.Portfolio;
+import com.investtrack.persistence.PortfolioLedger;
+import com.investtrack.persistence.PortfolioRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Appends a stream of price marks (with a trade every 1000 events) to a {@link PortfolioLedger}
+ * in a temporary directory, then measures how fast a portfolio is rebuilt by replaying it.
+ * Checkpoints are disabled so that the whole stream is replayed.
+ */
+public class LedgerReplayBenchmark {
+
+    private static final int EVENTS = 2_000_000;
+    private static final int HOLDINGS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : EVENTS;
+        long[] now = {1_700_000_000_000L};
+        MarketClock.setDefault(new MarketClock(() -> now[0]));
+        Path dir = Files.createTempDirectory("ledger-benchmark");
+        PortfolioRepository repository = new PortfolioRepository(dir.resolve("portfolio.json"));
+
+        PortfolioLedger ledger = new PortfolioLedger(repository, Integer.MAX_VALUE);
+        Portfolio portfolio = ledger.open();
+        List<Holding> holdings = new ArrayList<>();
+        for (int i = 0; i < HOLDINGS; i++) {
+            Holding holding = new Holding("SYM" + i, "Instrument " + i, 100, 100, AssetType.STOCK);
+            holdings.add(holding);
+            portfolio.addHolding(holding);
+        }
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            if (i % HOLDINGS == 0) {
+                now[0] += 1000;
+            }
+            Holding holding = holdings.get(i % HOLDINGS);
+            if (i % 1000 == 999) {
+                portfolio.batch(b -> {
+                    b.deductCash(holding.getPricePerUnit());
+                    b.buy(holding, 1, holding.getPricePerUnit());
+                });
+            } else {
+                holding.setPricePerUnit(holding.getPricePerUnit() * (1 + random.nextGaussian() * 0.001));
+            }
+        }
+        ledger.close();
+        long appendNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Portfolio replayed = new PortfolioLedger(repository, Integer.MAX_VALUE).open();
+        long replayNanos = System.nanoTime() - start;
+
+        System.out.printf("Appended %,d events in %,d ms (%,.0f events/s), ledger %,d bytes%n",
+                events, appendNanos / 1_000_000, events / (appendNanos / 1e9),
+                Files.size(dir.resolve("portfolio.json.0.ledger")));
+        System.out.printf("Replayed in %,d ms (%,.0f events/s); total value %.2f, original %.2f%n",
+                replayNanos / 1_000_000, events / (replayNanos / 1e9),
+                replayed.getTotalAssetValue(), portfolio.getTotalAssetValue());
+    }
+}
@@ -0,0 +1,79 @@
+package com.investtrack;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.model.InstrumentRegistry;
+import com.investtrack.model.Portfolio;
+
+import java.util.Random;
+
+/**
+ * Compares a portfolio of holding objects with a columnar one ({@link Portfolio#columnar()}) holding the
+ * same positions: heap per position, measured and as estimated by {@link Portfolio#estimateMemoryBytes()},
+ * time to load them, to mark every price from a price array and to recompute the totals. Run with enough heap for the object layout, e.g.
+ * {@code -Xms4g -Xmx4g}; the first argument sets the number of positions.
+ */
+public class PortfolioLayoutBenchmark {
+
+    private static final int POSITIONS = 1_000_000;
+    private static final int INSTRUMENTS = 5_000;
+    private static final AssetType[] TYPES = {AssetType.STOCK, AssetType.ETF, AssetType.BOND, AssetType.CRYPTO};
+
+    public static void main(String[] args) {
+        int positions = args.length > 0 ? Integer.parseInt(args[0]) : POSITIONS;
+        String[] symbols = new String[INSTRUMENTS];
+        int maxId = 0;
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            symbols[i] = "BENCH" + i;
+            maxId = Math.max(maxId, InstrumentRegistry.getInstance().intern(symbols[i]));
+        }
+        double[] prices = new double[maxId + 1];
+
+        for (boolean columnar : new boolean[] {false, true}) {
+            String label = columnar ? "columns" : "objects";
+            long base = usedMemory();
+            long start = System.nanoTime();
+            Portfolio portfolio = columnar ? Portfolio.columnar() : new Portfolio();
+            Random random = new Random(42);
+            portfolio.batch(b -> {
+                for (int i = 0; i < positions; i++) {
+                    int instrument = random.nextInt(INSTRUMENTS);
+                    double price = 10 + instrument % 500;
+                    portfolio.addPosition(symbols[instrument], "Instrument " + instrument, 1 + random.nextInt(1000),
+                                          price, price, TYPES[instrument % TYPES.length]);
+                }
+            });
+            long loadNanos = System.nanoTime() - start;
+            long bytes = usedMemory() - base;
+
+            for (int i = 0; i < INSTRUMENTS; i++) {
+                prices[InstrumentRegistry.getInstance().lookup(symbols[i])] = (10 + i % 500) * 1.01;
+            }
+            start = System.nanoTime();
+            int marked = portfolio.markPrices(prices);
+            long markNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            portfolio.verifyTotals();
+            long totalsNanos = System.nanoTime() - start;
+
+            System.out.printf("%s: estimated %.1f bytes/position%n", label,
+                              (double) portfolio.estimateMemoryBytes() / positions);
+            System.out.printf("%s: %.1f bytes/position, load %d ms, mark %d prices %d ms, recompute totals %d ms, value %.2f%n",
+                              label, (double) bytes / positions, loadNanos / 1_000_000, marked,
+                              markNanos / 1_000_000, totalsNanos / 1_000_000, portfolio.getTotalValue());
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
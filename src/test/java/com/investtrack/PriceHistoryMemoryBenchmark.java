@@ -0,0 +1,87 @@
+package com.investtrack;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.model.PriceCompression;
+import com.investtrack.model.PriceSeries;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap cost per price point of the former object-based price history
+ * (an {@code ArrayList} of point objects holding a {@link LocalDateTime}) against {@link PriceSeries},
+ * uncompressed and with the default {@link PriceCompression} tolerance for ETFs on a calm random walk.
+ * Run with a fixed heap for stable numbers, e.g. {@code -Xms1g -Xmx1g}.
+ */
+public class PriceHistoryMemoryBenchmark {
+
+    private static final int POINTS = 2_000_000;
+
+    /** Layout of the price points as they were stored before {@link PriceSeries}. */
+    private static final class LegacyPricePoint {
+        final double price;
+        final LocalDateTime timestamp;
+
+        LegacyPricePoint(double price, LocalDateTime timestamp) {
+            this.price = price;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : POINTS;
+
+        long base = usedMemory();
+        List<LegacyPricePoint> legacy = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.now();
+        for (int i = 0; i < points; i++) {
+            legacy.add(new LegacyPricePoint(100.0 + i * 0.01, start.plusSeconds(i * 5L)));
+        }
+        long legacyBytes = usedMemory() - base;
+        System.out.println("legacy size " + legacy.size());
+        legacy = null;
+
+        base = usedMemory();
+        PriceSeries series = new PriceSeries();
+        long startNanos = System.currentTimeMillis() * 1_000_000L;
+        for (int i = 0; i < points; i++) {
+            series.add(100.0 + i * 0.01, startNanos + i * 5_000_000_000L);
+        }
+        long seriesBytes = usedMemory() - base;
+        System.out.println("series size " + series.size());
+        series = null;
+
+        // Calm ETF: 5-second ticks moving at most 0.05% each
+        double tolerance = PriceCompression.getDefault().toleranceFor(AssetType.ETF);
+        Random random = new Random(42);
+        base = usedMemory();
+        PriceSeries compressed = new PriceSeries();
+        double price = 100.0;
+        for (int i = 0; i < points; i++) {
+            price *= 1 + (random.nextDouble() - 0.5) * 0.001;
+            compressed.addCompressed(price, startNanos + i * 5_000_000_000L, tolerance);
+        }
+        long compressedBytes = usedMemory() - base;
+        System.out.println("compressed size " + compressed.size());
+
+        System.out.printf("ArrayList<PricePoint>: %.1f bytes/point%n", (double) legacyBytes / points);
+        System.out.printf("PriceSeries:           %.1f bytes/point%n", (double) seriesBytes / points);
+        System.out.printf("PriceSeries (%.2f%%):   %.2f bytes/point, %d of %d points stored%n",
+                          tolerance * 100, (double) compressedBytes / points, compressed.size(), points);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
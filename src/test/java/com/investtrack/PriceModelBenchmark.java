@@ -0,0 +1,63 @@
+package com.investtrack;
+
+import com.investtrack.service.PriceModel;
+import com.investtrack.service.PriceModels;
+import com.investtrack.service.TickKernel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the time and the heap allocated per tick of each built-in {@link PriceModel}, and of a mix of all
+ * of them as assigned per asset type or group, on a {@link TickKernel}. Run with a fixed heap, e.g.
+ * {@code -Xms1g -Xmx1g}; the first argument sets the number of instruments.
+ */
+public class PriceModelBenchmark {
+
+    private static final int INSTRUMENTS = 200_000;
+    private static final int WARMUP_TICKS = 200;
+    private static final int TICKS = 200;
+
+    public static void main(String[] args) {
+        int instruments = args.length > 0 ? Integer.parseInt(args[0]) : INSTRUMENTS;
+        PriceModel[] models = {
+            PriceModels.uniform(),
+            PriceModels.gbm(),
+            PriceModels.jumpDiffusion(0.01, -0.05, 0.1),
+            PriceModels.garch(0.1, 0.85),
+            PriceModels.meanReversion(0.05)
+        };
+        String[] labels = {"uniform", "gbm", "jump-diffusion", "garch(1,1)", "mean reversion"};
+        System.out.println(instruments + " instruments");
+        for (int m = 0; m < models.length; m++) {
+            PriceModel model = models[m];
+            run(labels[m], instruments, i -> model);
+        }
+        run("mixed", instruments, i -> models[1 + i % (models.length - 1)]);
+    }
+
+    private static void run(String label, int instruments, IntFunction<PriceModel> modelOf) {
+        TickKernel kernel = TickKernel.scalar(instruments, 42);
+        for (int i = 0; i < instruments; i++) {
+            kernel.set(i, 1 + i % 1000, 0.02, 0.0);
+        }
+        kernel.setModels(modelOf);
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            kernel.tick();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long[] nanos = new long[TICKS];
+        for (int i = 0; i < TICKS; i++) {
+            long start = System.nanoTime();
+            kernel.tick();
+            nanos[i] = System.nanoTime() - start;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        Arrays.sort(nanos);
+        System.out.printf("%-15s median %.2f ms/tick, %.1f M instruments/s, %d bytes allocated/tick%n",
+                          label, nanos[TICKS / 2] / 1e6, instruments * 1e3 / nanos[TICKS / 2],
+                          allocated / TICKS);
+    }
+}
@@ -0,0 +1,65 @@
+package com.investtrack;
+
+import com.investtrack.service.ShardedSimulation;
+import com.investtrack.service.TickKernel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the time per tick of a {@link ShardedSimulation} for growing shard counts, each on a pool with as
+ * many threads as shards (up to the number of cores), and checks that every shard count computes the same
+ * prices for the same seed. Run with a fixed heap, e.g. {@code -Xms2g -Xmx2g}; the first argument sets the
+ * number of instruments.
+ */
+public class ShardedSimulationBenchmark {
+
+    private static final int INSTRUMENTS = 4_000_000;
+    private static final long SEED = 42;
+    private static final int WARMUP_TICKS = 20;
+    private static final int TICKS = 50;
+
+    public static void main(String[] args) {
+        int instruments = args.length > 0 ? Integer.parseInt(args[0]) : INSTRUMENTS;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(instruments + " instruments, " + cores + " cores");
+
+        double[] reference = null;
+        double baseline = 0;
+        for (int shards = 1; shards <= Math.max(8, cores); shards *= 2) {
+            TickKernel kernel = TickKernel.scalar(instruments, SEED);
+            for (int i = 0; i < instruments; i++) {
+                kernel.set(i, 1 + i % 1000, 0.025, 0.0);
+            }
+            ForkJoinPool pool = new ForkJoinPool(Math.min(shards, cores));
+            ShardedSimulation simulation = new ShardedSimulation(kernel, SEED, shards, pool);
+            long[] nanos = time(simulation);
+            pool.shutdown();
+
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            double median = sorted[sorted.length / 2] / 1e6;
+            if (reference == null) {
+                reference = kernel.prices().clone();
+                baseline = median;
+            }
+            System.out.printf("%2d shards, %2d threads: median %.2f ms/tick, speed-up %.2fx, same prices: %b%n",
+                              simulation.getShardCount(), Math.min(shards, cores), median, baseline / median,
+                              Arrays.equals(reference, kernel.prices()));
+        }
+    }
+
+    /** @return The nanoseconds of each measured tick, after warming up; every run ticks equally often. */
+    private static long[] time(ShardedSimulation simulation) {
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            simulation.tick(i);
+        }
+        long[] nanos = new long[TICKS];
+        for (int i = 0; i < TICKS; i++) {
+            long start = System.nanoTime();
+            simulation.tick(WARMUP_TICKS + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,61 @@
+package com.investtrack;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.model.Holding;
+import com.investtrack.model.MarketClock;
+import com.investtrack.model.Portfolio;
+import com.investtrack.model.TaxLots;
+import com.investtrack.persistence.PortfolioLedger;
+import com.investtrack.persistence.PortfolioRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks that setting the quantity of a holding with lots to 0 disposes of its open lots at the current
+ * price: the lots are closed rather than dropped, the profit or loss is realized on the holding and the
+ * portfolio, and a portfolio replayed from the ledger comes out the same. Exits with an exception on failure.
+ */
+public class TaxLotsCheck {
+
+    public static void main(String[] args) throws Exception {
+        long[] now = {1_700_000_000_000L};
+        MarketClock.setDefault(new MarketClock(() -> now[0]));
+        Path dir = Files.createTempDirectory("tax-lots-check");
+        PortfolioRepository repository = new PortfolioRepository(dir.resolve("portfolio.json"));
+
+        PortfolioLedger ledger = new PortfolioLedger(repository, Integer.MAX_VALUE);
+        Portfolio portfolio = ledger.open();
+        Holding holding = new Holding("LOTS", "Lot check", 0, 10, AssetType.STOCK);
+        portfolio.addHolding(holding);
+        portfolio.buy(holding, 10, 10);
+        now[0] += 1000;
+        portfolio.buy(holding, 5, 16);
+        now[0] += 1000;
+        holding.setPricePerUnit(20);
+        now[0] += 1000;
+        holding.setQuantity(0);
+        ledger.close();
+
+        // 10 units bought at 10 and 5 at 16, disposed of at 20
+        double expected = 10 * (20 - 10) + 5 * (20 - 16);
+        check(holding.getLots(), portfolio.getRealizedProfitLoss(), expected, "after the edit");
+
+        Portfolio replayed = new PortfolioLedger(repository, Integer.MAX_VALUE).open();
+        Holding replayedHolding = replayed.findHoldingById(holding.getId()).orElseThrow();
+        check(replayedHolding.getLots(), replayed.getRealizedProfitLoss(), expected, "after replay");
+        System.out.println("Lots disposed of on quantity 0: realized " + expected + ", history kept");
+    }
+
+    private static void check(TaxLots lots, double portfolioRealized, double expected, String when) {
+        if (lots.getOpenLotCount() != 0 || lots.getClosedLots().size() != 2) {
+            throw new IllegalStateException(String.format("%s: %d open and %d closed lots, expected 0 and 2",
+                                                          when, lots.getOpenLotCount(), lots.getClosedLots().size()));
+        }
+        if (Math.abs(lots.getRealizedProfitLoss() - expected) > 1e-9
+                || Math.abs(portfolioRealized - expected) > 1e-9) {
+            throw new IllegalStateException(String.format("%s: realized %.6f on the lots and %.6f on the portfolio, expected %.6f",
+                                                          when, lots.getRealizedProfitLoss(), portfolioRealized, expected));
+        }
+    }
+}
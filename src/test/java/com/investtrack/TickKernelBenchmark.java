@@ -0,0 +1,109 @@
+package com.investtrack;
+
+import com.investtrack.model.AssetType;
+import com.investtrack.service.TickKernel;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the time per tick of the former simulation loop (one object per asset, volatility chosen by a
+ * {@code switch}, a shared {@link Random}) with the scalar and the vectorized {@link TickKernel}, and checks
+ * that both kernels compute the same prices. Build with {@code -Pvector} and run with the vector module and a fixed heap, e.g.
+ * {@code --add-modules jdk.incubator.vector -Xms2g -Xmx2g}; the first argument sets the number of instruments.
+ */
+public class TickKernelBenchmark {
+
+    private static final int INSTRUMENTS = 1_000_000;
+    private static final int WARMUP_TICKS = 50;
+    private static final int TICKS = 100;
+    private static final AssetType[] TYPES = {AssetType.STOCK, AssetType.CRYPTO, AssetType.ETF, AssetType.FUND};
+
+    /** Layout of the simulated assets before {@link TickKernel}. */
+    private static final class LegacyAsset {
+        double currentPrice;
+        final AssetType assetType;
+        final String group;
+
+        LegacyAsset(double currentPrice, AssetType assetType, String group) {
+            this.currentPrice = currentPrice;
+            this.assetType = assetType;
+            this.group = group;
+        }
+    }
+
+    public static void main(String[] args) {
+        int instruments = args.length > 0 ? Integer.parseInt(args[0]) : INSTRUMENTS;
+
+        LegacyAsset[] legacy = new LegacyAsset[instruments];
+        TickKernel scalar = TickKernel.scalar(instruments, 42);
+        TickKernel vector = TickKernel.isVectorAvailable() ? TickKernel.create(instruments, 42) : null;
+        for (int i = 0; i < instruments; i++) {
+            AssetType type = TYPES[i % TYPES.length];
+            String group = i % 50 == 1 ? "Meme" : "Group " + (i % 20);
+            double price = 1 + i % 1000;
+            legacy[i] = new LegacyAsset(price, type, group);
+            double volatility = legacyVolatility(legacy[i]) / 100.0;
+            scalar.set(i, price, volatility, 0.0);
+            if (vector != null) {
+                vector.set(i, price, volatility, 0.0);
+            }
+        }
+
+        Random random = new Random(42);
+        report("legacy loop", time(() -> legacyTick(legacy, random)));
+        report("kernel, scalar", time(scalar::tick));
+        if (vector != null && vector.isVectorized()) {
+            report("kernel, vector", time(vector::tick));
+            System.out.println("scalar and vector prices equal: " + Arrays.equals(scalar.prices(), vector.prices()));
+        } else {
+            System.out.println("kernel, vector: not available (build with -Pvector, run with --add-modules jdk.incubator.vector)");
+        }
+    }
+
+    /** The former tick: one object at a time. */
+    private static void legacyTick(LegacyAsset[] assets, Random random) {
+        for (LegacyAsset asset : assets) {
+            double volatility = legacyVolatility(asset);
+            double percentChange = (random.nextDouble() * volatility * 2.0) - volatility;
+            double changeAmount = asset.currentPrice * (percentChange / 100.0);
+            asset.currentPrice = Math.max(0.01, asset.currentPrice + changeAmount);
+        }
+    }
+
+    private static double legacyVolatility(LegacyAsset asset) {
+        if (asset.assetType == AssetType.CRYPTO && "Meme".equals(asset.group)) {
+            return 25.0;
+        }
+        switch (asset.assetType) {
+            case CRYPTO:
+                return 7.5;
+            case ETF:
+            case FUND:
+                return 1.5;
+            default:
+                return 2.5;
+        }
+    }
+
+    /** @return The nanoseconds of each measured tick, after warming up. */
+    private static long[] time(Runnable tick) {
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            tick.run();
+        }
+        long[] nanos = new long[TICKS];
+        for (int i = 0; i < TICKS; i++) {
+            long start = System.nanoTime();
+            tick.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-16s median %.2f ms/tick, best %.2f ms/tick%n",
+                          label, sorted[sorted.length / 2] / 1e6, sorted[0] / 1e6);
+    }
+}
@@ -0,0 +1,84 @@
+package com.investtrack;
+
+import com.investtrack.service.PriceSubscription;
+import com.investtrack.service.StockDataService;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the price simulation at high tick rates with a fast and a slow subscriber, each polling on its own
+ * thread the way the UI polls on the JavaFX thread, and reports the ticks, the polls, the conflated ticks and
+ * the most polls ever queued per subscriber (1 means the subscriber never fell behind). The first argument
+ * sets the seconds per rate.
+ */
+public class TickRateBenchmark {
+
+    private static final int[] TICKS_PER_SECOND = {10, 100, 1000};
+    private static final long SLOW_POLL_MILLIS = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        StockDataService service = StockDataService.getInstance();
+        for (int rate : TICKS_PER_SECOND) {
+            AtomicLong ticks = new AtomicLong();
+            Consumer fast = new Consumer(service, 0);
+            Consumer slow = new Consumer(service, SLOW_POLL_MILLIS);
+            service.startPriceSimulation(Duration.ofNanos(1_000_000_000L / rate), stocks -> ticks.incrementAndGet());
+            Thread.sleep(seconds * 1000L);
+            service.stopPriceSimulation();
+            fast.close();
+            slow.close();
+            System.out.printf("%4d ticks/s: %5d ticks in %ds%n", rate, ticks.get(), seconds);
+            fast.report("fast subscriber");
+            slow.report("slow subscriber");
+        }
+    }
+
+    /** A subscriber polling on its own single-threaded executor, like the UI on its application thread. */
+    private static final class Consumer {
+        private final ExecutorService thread = Executors.newSingleThreadExecutor();
+        private final PriceSubscription subscription;
+        private final long pollMillis;
+        private final AtomicInteger queued = new AtomicInteger();
+        private int maxQueued;
+        private long polls;
+        private long quotes;
+
+        Consumer(StockDataService service, long pollMillis) {
+            this.pollMillis = pollMillis;
+            this.subscription = service.subscribe(() -> {
+                maxQueued = Math.max(maxQueued, queued.incrementAndGet());
+                thread.execute(this::poll);
+            });
+        }
+
+        private void poll() {
+            queued.decrementAndGet();
+            polls++;
+            quotes += subscription.poll(quote -> { });
+            if (pollMillis > 0) {
+                try {
+                    Thread.sleep(pollMillis); // a slow render
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        void close() throws InterruptedException {
+            subscription.close();
+            thread.shutdown();
+            thread.awaitTermination(1, TimeUnit.SECONDS);
+        }
+
+        void report(String label) {
+            System.out.printf("    %-16s %5d polls, %7d quotes, %5d ticks conflated, at most %d poll queued%n",
+                              label, polls, quotes, subscription.getConflatedTicks(), maxQueued);
+        }
+    }
+}